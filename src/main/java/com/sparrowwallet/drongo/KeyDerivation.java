@@ -17,6 +17,12 @@ public class KeyDerivation {
         this.derivation = parsePath(derivationPath);
     }
 
+    private KeyDerivation(KeyDerivation keyDerivation) {
+        this.masterFingerprint = keyDerivation.masterFingerprint;
+        this.derivationPath = keyDerivation.derivationPath;
+        this.derivation = keyDerivation.derivation;
+    }
+
     public String getMasterFingerprint() {
         return masterFingerprint;
     }
@@ -88,7 +94,8 @@ public class KeyDerivation {
     }
 
     public KeyDerivation copy() {
-        return new KeyDerivation(masterFingerprint, derivationPath);
+        //The parsed derivation is never modified, so it can be shared rather than parsed again
+        return new KeyDerivation(this);
     }
 
     public String toString() {
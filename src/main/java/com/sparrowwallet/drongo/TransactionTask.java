@@ -75,7 +75,7 @@ public class TransactionTask implements Runnable {
                     }
                 }
             } catch(ProtocolException e) {
-                log.debug("Invalid script for output " + vout + " detected (" + e.getMessage() + "). Skipping...");
+                log.debug("Invalid script for output {} detected ({}). Skipping...", vout, e.getMessage());
             }
 
             vout++;
@@ -15,7 +15,7 @@ public class DeterministicHierarchy {
         rootPath = rootKey.getPath();
     }
 
-    public final void putKey(DeterministicKey key) {
+    public final synchronized void putKey(DeterministicKey key) {
         List<ChildNumber> path = key.getPath();
         // Update our tracking of what the next child in each branch of the tree should be. Just assume that keys are
         // inserted in order here.
@@ -32,7 +32,7 @@ public class DeterministicHierarchy {
      * @return next newly created key using the child derivation function
      * @throws HDDerivationException if create is false and the path was not found.
      */
-    public DeterministicKey get(List<ChildNumber> path) throws HDDerivationException {
+    public synchronized DeterministicKey get(List<ChildNumber> path) throws HDDerivationException {
         if(!keys.containsKey(path)) {
             if(path.size() == 0) {
                 throw new IllegalArgumentException("Can't derive the master key: nothing to derive from.");
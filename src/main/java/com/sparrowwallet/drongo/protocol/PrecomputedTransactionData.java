@@ -0,0 +1,114 @@
+package com.sparrowwallet.drongo.protocol;
+
+import com.sparrowwallet.drongo.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The hashes of a transaction's inputs and outputs that are shared by the signature hashes of all of its inputs, as in Bitcoin Core's PrecomputedTransactionData.
+ * Computing these once per transaction rather than once per input keeps signature hashing linear in the number of inputs.
+ * The transaction and spent outputs must not be modified while this data is in use.
+ */
+public class PrecomputedTransactionData {
+    //BIP341 single SHA256 hashes
+    private final byte[] shaPrevouts;
+    private final byte[] shaSequences;
+    private final byte[] shaOutputs;
+    private final byte[] shaAmounts;
+    private final byte[] shaScriptPubKeys;
+
+    //BIP143 double SHA256 hashes
+    private final byte[] hashPrevouts;
+    private final byte[] hashSequence;
+    private final byte[] hashOutputs;
+
+    public PrecomputedTransactionData(Transaction transaction) {
+        this(transaction, null);
+    }
+
+    /**
+     * @param transaction the transaction being signed
+     * @param spentUtxos the outputs spent by each input in order, which are required for taproot signature hashes, or null if not all are known
+     */
+    public PrecomputedTransactionData(Transaction transaction, List<TransactionOutput> spentUtxos) {
+        try {
+            ByteArrayOutputStream outpoints = new UnsafeByteArrayOutputStream(transaction.getInputs().size() * TransactionOutPoint.MESSAGE_LENGTH);
+            ByteArrayOutputStream sequences = new UnsafeByteArrayOutputStream(transaction.getInputs().size() * 4);
+            for(TransactionInput input : transaction.getInputs()) {
+                input.getOutpoint().bitcoinSerializeToStream(outpoints);
+                Utils.uint32ToByteStreamLE(input.getSequenceNumber(), sequences);
+            }
+
+            ByteArrayOutputStream outputs = new UnsafeByteArrayOutputStream(256);
+            for(TransactionOutput output : transaction.getOutputs()) {
+                output.bitcoinSerializeToStream(outputs);
+            }
+
+            shaPrevouts = Sha256Hash.hash(outpoints.toByteArray());
+            shaSequences = Sha256Hash.hash(sequences.toByteArray());
+            shaOutputs = Sha256Hash.hash(outputs.toByteArray());
+            hashPrevouts = Sha256Hash.hash(shaPrevouts);
+            hashSequence = Sha256Hash.hash(shaSequences);
+            hashOutputs = Sha256Hash.hash(shaOutputs);
+
+            if(spentUtxos != null && spentUtxos.size() == transaction.getInputs().size()) {
+                ByteArrayOutputStream amounts = new UnsafeByteArrayOutputStream(spentUtxos.size() * 8);
+                ByteArrayOutputStream scriptPubKeys = new UnsafeByteArrayOutputStream(256);
+                for(TransactionOutput spentUtxo : spentUtxos) {
+                    Utils.int64ToByteStreamLE(spentUtxo.getValue(), amounts);
+                    scriptPubKeys.write(new VarInt(spentUtxo.getScriptBytes().length).encode());
+                    scriptPubKeys.write(spentUtxo.getScriptBytes());
+                }
+
+                shaAmounts = Sha256Hash.hash(amounts.toByteArray());
+                shaScriptPubKeys = Sha256Hash.hash(scriptPubKeys.toByteArray());
+            } else {
+                shaAmounts = null;
+                shaScriptPubKeys = null;
+            }
+        } catch(IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    /**
+     * @return whether the spent outputs were provided, so that taproot signature hashes can be calculated
+     */
+    public boolean hasSpentUtxos() {
+        return shaAmounts != null;
+    }
+
+    byte[] getShaPrevouts() {
+        return shaPrevouts;
+    }
+
+    byte[] getShaSequences() {
+        return shaSequences;
+    }
+
+    byte[] getShaOutputs() {
+        return shaOutputs;
+    }
+
+    byte[] getShaAmounts() {
+        return shaAmounts;
+    }
+
+    byte[] getShaScriptPubKeys() {
+        return shaScriptPubKeys;
+    }
+
+    byte[] getHashPrevouts() {
+        return hashPrevouts;
+    }
+
+    byte[] getHashSequence() {
+        return hashSequence;
+    }
+
+    byte[] getHashOutputs() {
+        return hashOutputs;
+    }
+}
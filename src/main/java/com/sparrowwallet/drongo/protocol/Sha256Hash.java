@@ -20,6 +20,7 @@ package com.sparrowwallet.drongo.protocol;
 import com.sparrowwallet.drongo.Utils;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -180,6 +181,19 @@ public class Sha256Hash implements Comparable<Sha256Hash> {
         return digest.digest(digest.digest());
     }
 
+    /**
+     * Calculates the SHA-256 hash of the remaining bytes in the given buffer,
+     * and then hashes the resulting hash again. The position of the buffer is not changed.
+     *
+     * @param input the buffer containing the bytes to hash
+     * @return the double-hash (in big-endian order)
+     */
+    public static byte[] hashTwice(ByteBuffer input) {
+        MessageDigest digest = newDigest();
+        digest.update(input.duplicate());
+        return digest.digest(digest.digest());
+    }
+
     /**
      * Calculates the hash of hash on the given byte ranges. This is equivalent to
      * concatenating the two ranges and then passing the result to {@link #hashTwice(byte[])}.
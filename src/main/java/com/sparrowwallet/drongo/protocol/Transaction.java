@@ -31,6 +31,10 @@ public class Transaction extends ChildMessage {
     //Default min feerate, defined in sats/vByte
     public static final double DEFAULT_MIN_RELAY_FEE = 1d;
 
+    //Max weight for a standard transaction
+    //From: https://github.com/bitcoin/bitcoin/blob/0.19/src/policy/policy.h#L24
+    public static final int MAX_STANDARD_TX_WEIGHT = 400000;
+
     public static final byte LEAF_VERSION_TAPSCRIPT = (byte)0xc0;
 
     private long version;
@@ -55,12 +59,17 @@ public class Transaction extends ChildMessage {
         super(rawtx, 0);
     }
 
+    public Transaction(byte[] payload, int offset) {
+        super(payload, offset);
+    }
+
     public long getVersion() {
         return version;
     }
 
     public void setVersion(long version) {
         this.version = version;
+        clearCachedTxIds();
     }
 
     public long getLocktime() {
@@ -69,6 +78,7 @@ public class Transaction extends ChildMessage {
 
     public void setLocktime(long locktime) {
         this.locktime = locktime;
+        clearCachedTxIds();
     }
 
     public boolean isLocktimeEnabled() {
@@ -364,6 +374,16 @@ public class Transaction extends ChildMessage {
         input.setParent(this);
         inputs.add(input);
         adjustLength(inputs.size(), input.length);
+        clearCachedTxIds();
+        return input;
+    }
+
+    public TransactionInput removeInput(int index) {
+        TransactionInput input = inputs.remove(index);
+        int witnessLength = isSegwit() && input.hasWitness() ? input.getWitness().getLength() : 0;
+        adjustLength(-input.length - witnessLength - (VarInt.sizeOf(inputs.size() + 1) - VarInt.sizeOf(inputs.size())));
+        input.setParent(null);
+        clearCachedTxIds();
         return input;
     }
 
@@ -373,6 +393,7 @@ public class Transaction extends ChildMessage {
 
     public void shuffleOutputs() {
         Collections.shuffle(outputs);
+        clearCachedTxIds();
     }
 
     public TransactionOutput addOutput(long value, Script script) {
@@ -391,9 +412,23 @@ public class Transaction extends ChildMessage {
         output.setParent(this);
         outputs.add(output);
         adjustLength(outputs.size(), output.length);
+        clearCachedTxIds();
         return output;
     }
 
+    public TransactionOutput removeOutput(int index) {
+        TransactionOutput output = outputs.remove(index);
+        adjustLength(-output.length - (VarInt.sizeOf(outputs.size() + 1) - VarInt.sizeOf(outputs.size())));
+        output.setParent(null);
+        clearCachedTxIds();
+        return output;
+    }
+
+    void clearCachedTxIds() {
+        cachedTxId = null;
+        cachedWTxId = null;
+    }
+
     public void verify() throws VerificationException {
         if (inputs.size() == 0 || outputs.size() == 0)
             throw new VerificationException.EmptyInputsOrOutputs();
@@ -550,6 +585,14 @@ public class Transaction extends ChildMessage {
     }
 
     public synchronized Sha256Hash hashForWitnessSignature(int inputIndex, byte[] scriptCode, long prevValue, byte sigHashType) {
+        return hashForWitnessSignature(inputIndex, scriptCode, prevValue, sigHashType, new PrecomputedTransactionData(this));
+    }
+
+    /**
+     * Calculates a BIP143 signature hash using hashes precomputed for this transaction, so that signing many inputs does not rehash all inputs and outputs for each one.
+     * The precomputed data must have been created from this transaction in its current state.
+     */
+    public Sha256Hash hashForWitnessSignature(int inputIndex, byte[] scriptCode, long prevValue, byte sigHashType, PrecomputedTransactionData precomputed) {
         ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(length == UNKNOWN_LENGTH ? 256 : length + 4);
         try {
             byte[] hashPrevouts = new byte[32];
@@ -560,30 +603,15 @@ public class Transaction extends ChildMessage {
             boolean signAll = (basicSigHashType != SigHash.SINGLE.value) && (basicSigHashType != SigHash.NONE.value);
 
             if(!anyoneCanPay) {
-                ByteArrayOutputStream bosHashPrevouts = new UnsafeByteArrayOutputStream(256);
-                for(int i = 0; i < this.inputs.size(); ++i) {
-                    bosHashPrevouts.write(this.inputs.get(i).getOutpoint().getHash().getReversedBytes());
-                    uint32ToByteStreamLE(this.inputs.get(i).getOutpoint().getIndex(), bosHashPrevouts);
-                }
-                hashPrevouts = Sha256Hash.hashTwice(bosHashPrevouts.toByteArray());
+                hashPrevouts = precomputed.getHashPrevouts();
             }
 
             if(!anyoneCanPay && signAll) {
-                ByteArrayOutputStream bosSequence = new UnsafeByteArrayOutputStream(256);
-                for(int i = 0; i < this.inputs.size(); ++i) {
-                    uint32ToByteStreamLE(this.inputs.get(i).getSequenceNumber(), bosSequence);
-                }
-                hashSequence = Sha256Hash.hashTwice(bosSequence.toByteArray());
+                hashSequence = precomputed.getHashSequence();
             }
 
             if(signAll) {
-                ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
-                for(int i = 0; i < this.outputs.size(); ++i) {
-                    uint64ToByteStreamLE(BigInteger.valueOf(this.outputs.get(i).getValue()), bosHashOutputs);
-                    bosHashOutputs.write(new VarInt(this.outputs.get(i).getScriptBytes().length).encode());
-                    bosHashOutputs.write(this.outputs.get(i).getScriptBytes());
-                }
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
+                hashOutputs = precomputed.getHashOutputs();
             } else if(basicSigHashType == SigHash.SINGLE.value && inputIndex < outputs.size()) {
                 ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
                 uint64ToByteStreamLE(BigInteger.valueOf(this.outputs.get(inputIndex).getValue()), bosHashOutputs);
@@ -630,6 +658,14 @@ public class Transaction extends ChildMessage {
     }
 
     public synchronized Sha256Hash hashForTaprootSignature(List<TransactionOutput> spentUtxos, int inputIndex, boolean scriptPath, Script script, byte sigHashType, byte[] annex) {
+        return hashForTaprootSignature(spentUtxos, inputIndex, scriptPath, script, sigHashType, annex, new PrecomputedTransactionData(this, spentUtxos));
+    }
+
+    /**
+     * Calculates a BIP341 signature hash using hashes precomputed for this transaction and its spent UTXOs, so that signing many inputs does not rehash all inputs and outputs for each one.
+     * The precomputed data must have been created from this transaction in its current state and the same spent UTXOs.
+     */
+    public Sha256Hash hashForTaprootSignature(List<TransactionOutput> spentUtxos, int inputIndex, boolean scriptPath, Script script, byte sigHashType, byte[] annex, PrecomputedTransactionData precomputed) {
         if(spentUtxos.size() != getInputs().size()) {
             throw new IllegalArgumentException("Provided spent UTXOs length does not equal the number of transaction inputs");
         }
@@ -648,29 +684,17 @@ public class Transaction extends ChildMessage {
             uint32ToByteStreamLE(this.locktime, bos);
 
             if(!anyoneCanPay) {
-                ByteArrayOutputStream outpoints = new ByteArrayOutputStream();
-                ByteArrayOutputStream outputValues = new ByteArrayOutputStream();
-                ByteArrayOutputStream outputScriptPubKeys = new ByteArrayOutputStream();
-                ByteArrayOutputStream inputSequences = new ByteArrayOutputStream();
-                for(int i = 0; i < getInputs().size(); i++) {
-                    TransactionInput input = getInputs().get(i);
-                    input.getOutpoint().bitcoinSerializeToStream(outpoints);
-                    Utils.uint64ToByteStreamLE(BigInteger.valueOf(spentUtxos.get(i).getValue()), outputValues);
-                    byteArraySerialize(spentUtxos.get(i).getScriptBytes(), outputScriptPubKeys);
-                    Utils.uint32ToByteStreamLE(input.getSequenceNumber(), inputSequences);
+                if(!precomputed.hasSpentUtxos()) {
+                    throw new IllegalStateException("Precomputed transaction data does not include the spent UTXOs");
                 }
-                bos.write(Sha256Hash.hash(outpoints.toByteArray()));
-                bos.write(Sha256Hash.hash(outputValues.toByteArray()));
-                bos.write(Sha256Hash.hash(outputScriptPubKeys.toByteArray()));
-                bos.write(Sha256Hash.hash(inputSequences.toByteArray()));
+                bos.write(precomputed.getShaPrevouts());
+                bos.write(precomputed.getShaAmounts());
+                bos.write(precomputed.getShaScriptPubKeys());
+                bos.write(precomputed.getShaSequences());
             }
 
             if(outType == SigHash.ALL.value) {
-                ByteArrayOutputStream outputs = new ByteArrayOutputStream();
-                for(TransactionOutput output : getOutputs()) {
-                    output.bitcoinSerializeToStream(outputs);
-                }
-                bos.write(Sha256Hash.hash(outputs.toByteArray()));
+                bos.write(precomputed.getShaOutputs());
             }
 
             byte spendType = 0x00;
@@ -86,6 +86,7 @@ public class TransactionInput extends ChildMessage {
         // 40 = previous_outpoint (36) + sequence (4)
         int newLength = 40 + (scriptBytes == null ? 1 : VarInt.sizeOf(scriptBytes.length) + scriptBytes.length);
         adjustLength(newLength - oldLength);
+        clearParentTxIds();
     }
 
     public void clearScriptBytes() {
@@ -108,6 +109,7 @@ public class TransactionInput extends ChildMessage {
         }
 
         this.witness = witness;
+        clearParentTxIds();
     }
 
     public boolean hasWitness() {
@@ -124,6 +126,13 @@ public class TransactionInput extends ChildMessage {
 
     public void setSequenceNumber(long sequence) {
         this.sequence = sequence;
+        clearParentTxIds();
+    }
+
+    private void clearParentTxIds() {
+        if(getParent() != null) {
+            getTransaction().clearCachedTxIds();
+        }
     }
 
     public int getIndex() {
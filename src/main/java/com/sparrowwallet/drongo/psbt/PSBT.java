@@ -13,7 +13,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import static com.sparrowwallet.drongo.psbt.PSBTEntry.*;
 import static com.sparrowwallet.drongo.psbt.PSBTInput.*;
@@ -22,11 +29,21 @@ import static com.sparrowwallet.drongo.psbt.PSBTOutput.*;
 public class PSBT {
     public static final byte PSBT_GLOBAL_UNSIGNED_TX = 0x00;
     public static final byte PSBT_GLOBAL_BIP32_PUBKEY = 0x01;
+    public static final byte PSBT_GLOBAL_TX_VERSION = 0x02;
+    public static final byte PSBT_GLOBAL_FALLBACK_LOCKTIME = 0x03;
+    public static final byte PSBT_GLOBAL_INPUT_COUNT = 0x04;
+    public static final byte PSBT_GLOBAL_OUTPUT_COUNT = 0x05;
+    public static final byte PSBT_GLOBAL_TX_MODIFIABLE = 0x06;
     public static final byte PSBT_GLOBAL_VERSION = (byte)0xfb;
     public static final byte PSBT_GLOBAL_PROPRIETARY = (byte)0xfc;
 
     public static final String PSBT_MAGIC_HEX = "70736274";
     public static final int PSBT_MAGIC_INT = 1886610036;
+    private static final byte[] PSBT_HEADER = new byte[] {0x70, 0x73, 0x62, 0x74, (byte)0xff};
+
+    public static final int TX_MODIFIABLE_INPUTS = 0x01;
+    public static final int TX_MODIFIABLE_OUTPUTS = 0x02;
+    public static final int TX_MODIFIABLE_SIGHASH_SINGLE = 0x04;
 
     private static final int STATE_GLOBALS = 1;
     private static final int STATE_INPUTS = 2;
@@ -36,16 +53,26 @@ public class PSBT {
     private int inputs = 0;
     private int outputs = 0;
 
-    private byte[] psbtBytes;
-
     private Transaction transaction = null;
     private Integer version = null;
+    private Long fallbackLocktime = null;
+    private Integer txModifiable = null;
     private final Map<ExtendedKey, KeyDerivation> extendedPublicKeys = new LinkedHashMap<>();
     private final Map<String, String> globalProprietary = new LinkedHashMap<>();
 
     private final List<PSBTInput> psbtInputs = new ArrayList<>();
     private final List<PSBTOutput> psbtOutputs = new ArrayList<>();
 
+    //Parent transactions provided as non witness UTXOs by txid, so that inputs spending outputs of the same parent check and decode it once
+    private final Map<Sha256Hash, ByteBuffer> parentTransactionBuffers = new ConcurrentHashMap<>();
+    private final Map<Sha256Hash, Transaction> parentTransactions = new ConcurrentHashMap<>();
+
+    //Whether decoded parent transactions are kept on the heap, or decoded again from their buffers on each access
+    private boolean retainParentTransactions = true;
+
+    //Script types, signing scripts and signature hashes of the inputs, calculated on demand and discarded when an input changes
+    private PSBTSigningPlan signingPlan;
+
     private static final Logger log = LoggerFactory.getLogger(PSBT.class);
 
     public PSBT(Transaction transaction) {
@@ -60,6 +87,25 @@ public class PSBT {
         }
     }
 
+    /**
+     * Creates an empty PSBTv2 (BIP370) to which inputs and outputs can be added
+     *
+     * @param txVersion the version of the transaction to be created, which must be at least 2
+     * @param fallbackLocktime the locktime to use if no input requires one, or null for 0
+     */
+    public PSBT(long txVersion, Long fallbackLocktime) {
+        if(txVersion < 2) {
+            throw new IllegalArgumentException("PSBTv2 transaction version must be at least 2, was " + txVersion);
+        }
+
+        this.version = 2;
+        this.fallbackLocktime = fallbackLocktime;
+        this.txModifiable = TX_MODIFIABLE_INPUTS | TX_MODIFIABLE_OUTPUTS;
+        this.transaction = new Transaction();
+        transaction.setVersion(txVersion);
+        updateLocktime();
+    }
+
     public PSBT(WalletTransaction walletTransaction) {
         this(walletTransaction, null, true);
     }
@@ -89,6 +135,16 @@ public class PSBT {
             this.version = version;
         }
 
+        if(isVersion2()) {
+            if(transaction.getVersion() < 2) {
+                throw new IllegalArgumentException("PSBTv2 transaction version must be at least 2, was " + transaction.getVersion());
+            }
+
+            //No input requires a locktime, so the wallet's locktime is kept as the fallback locktime
+            this.fallbackLocktime = transaction.getLocktime();
+            this.txModifiable = TX_MODIFIABLE_INPUTS | TX_MODIFIABLE_OUTPUTS;
+        }
+
         boolean alwaysIncludeWitnessUtxo = wallet.getKeystores().stream().anyMatch(keystore -> keystore.getWalletModel().alwaysIncludeNonWitnessUtxo());
 
         int inputIndex = 0;
@@ -179,19 +235,46 @@ public class PSBT {
     }
 
     public PSBT(byte[] psbt, boolean verifySignatures) throws PSBTParseException {
-        this.psbtBytes = psbt;
-        parse(verifySignatures);
+        //Entries remain slices of the parsed bytes, so parse a copy that the caller cannot modify afterwards
+        this(ByteBuffer.wrap(Arrays.copyOf(psbt, psbt.length)), verifySignatures);
+    }
+
+    /**
+     * Parses a PSBT from the remaining bytes of the buffer.
+     * Input and output maps are read as slices of the buffer, and large values such as non witness UTXOs are only decoded when accessed,
+     * so the buffer must not be modified while the PSBT is in use.
+     *
+     * @param psbtBuffer a heap, direct or mapped buffer positioned at the PSBT magic
+     * @param verifySignatures whether to verify the partial signatures on each input
+     * @throws PSBTParseException if the PSBT is invalid
+     */
+    public PSBT(ByteBuffer psbtBuffer, boolean verifySignatures) throws PSBTParseException {
+        this(psbtBuffer, verifySignatures, null);
+    }
+
+    /**
+     * Parses a PSBT from the remaining bytes of the buffer, optionally parsing and verifying the inputs concurrently.
+     * When an executor is provided, all inputs are parsed before any are verified, and if several inputs are invalid the error for the lowest input index is thrown.
+     *
+     * @param psbtBuffer a heap, direct or mapped buffer positioned at the PSBT magic
+     * @param verifySignatures whether to verify the partial signatures on each input
+     * @param executor the executor to parse and verify inputs on, or null to process them in order on the calling thread
+     * @throws PSBTParseException if the PSBT is invalid
+     */
+    public PSBT(ByteBuffer psbtBuffer, boolean verifySignatures, Executor executor) throws PSBTParseException {
+        this(psbtBuffer, verifySignatures, executor, true);
     }
 
-    private void parse(boolean verifySignatures) throws PSBTParseException {
+    private PSBT(ByteBuffer psbtBuffer, boolean verifySignatures, Executor executor, boolean retainParentTransactions) throws PSBTParseException {
+        this.retainParentTransactions = retainParentTransactions;
+        parse(psbtBuffer.slice(), verifySignatures, executor);
+    }
+
+    private void parse(ByteBuffer psbtByteBuffer, boolean verifySignatures, Executor executor) throws PSBTParseException {
         int seenInputs = 0;
         int seenOutputs = 0;
 
-        ByteBuffer psbtByteBuffer = ByteBuffer.wrap(psbtBytes);
-
-        byte[] magicBuf = new byte[4];
-        psbtByteBuffer.get(magicBuf);
-        if (!PSBT_MAGIC_HEX.equalsIgnoreCase(Utils.bytesToHex(magicBuf))) {
+        if(psbtByteBuffer.remaining() < 5 || psbtByteBuffer.getInt() != PSBT_MAGIC_INT) {
             throw new PSBTParseException("PSBT has invalid magic value");
         }
 
@@ -200,41 +283,52 @@ public class PSBT {
             throw new PSBTParseException("PSBT has bad initial separator: " + Utils.bytesToHex(new byte[]{sep}));
         }
 
+        //Each map is parsed as soon as its separator is read, so only the entries of the current map are held
         int currentState = STATE_GLOBALS;
-        List<PSBTEntry> globalEntries = new ArrayList<>();
+        List<PSBTEntry> entries = new ArrayList<>();
         List<List<PSBTEntry>> inputEntryLists = new ArrayList<>();
-        List<List<PSBTEntry>> outputEntryLists = new ArrayList<>();
-
-        List<PSBTEntry> inputEntries = new ArrayList<>();
-        List<PSBTEntry> outputEntries = new ArrayList<>();
 
         while (psbtByteBuffer.hasRemaining()) {
             PSBTEntry entry = new PSBTEntry(psbtByteBuffer);
 
-            if(entry.getKey() == null) {         // length == 0
+            if(entry.isSeparator()) {         // length == 0
                 switch (currentState) {
                     case STATE_GLOBALS:
                         currentState = STATE_INPUTS;
-                        parseGlobalEntries(globalEntries);
+                        parseGlobalEntries(entries);
+                        if(inputs == 0 && transaction != null) {
+                            //A PSBTv2 may be created without inputs or outputs
+                            currentState = outputs == 0 ? STATE_END : STATE_OUTPUTS;
+                            parseInputEntries(inputEntryLists, verifySignatures, executor);
+                        }
                         break;
                     case STATE_INPUTS:
-                        inputEntryLists.add(inputEntries);
-                        inputEntries = new ArrayList<>();
+                        if(transaction == null) {
+                            throw new PSBTParseException("Missing transaction");
+                        }
+                        parseTransactionInput(entries);
+                        if(executor == null && !isVersion2()) {
+                            parseInputEntries(entries, verifySignatures);
+                        } else {
+                            //PSBTv2 inputs are verified once the locktime, which depends on all inputs, is known
+                            inputEntryLists.add(entries);
+                        }
 
                         seenInputs++;
                         if (seenInputs == inputs) {
-                            currentState = STATE_OUTPUTS;
-                            parseInputEntries(inputEntryLists, verifySignatures);
+                            currentState = outputs == 0 ? STATE_END : STATE_OUTPUTS;
+                            if(executor != null || isVersion2()) {
+                                parseInputEntries(inputEntryLists, verifySignatures, executor);
+                            }
                         }
                         break;
                     case STATE_OUTPUTS:
-                        outputEntryLists.add(outputEntries);
-                        outputEntries = new ArrayList<>();
+                        parseTransactionOutput(entries);
+                        parseOutputEntries(entries);
 
                         seenOutputs++;
                         if (seenOutputs == outputs) {
                             currentState = STATE_END;
-                            parseOutputEntries(outputEntryLists);
                         }
                         break;
                     case STATE_END:
@@ -242,12 +336,10 @@ public class PSBT {
                     default:
                         throw new PSBTParseException("PSBT structure invalid");
                 }
-            } else if (currentState == STATE_GLOBALS) {
-                globalEntries.add(entry);
-            } else if (currentState == STATE_INPUTS) {
-                inputEntries.add(entry);
-            } else if (currentState == STATE_OUTPUTS) {
-                outputEntries.add(entry);
+
+                entries = new ArrayList<>();
+            } else if (currentState == STATE_GLOBALS || currentState == STATE_INPUTS || currentState == STATE_OUTPUTS) {
+                entries.add(entry);
             } else {
                 throw new PSBTParseException("PSBT structure invalid");
             }
@@ -268,7 +360,7 @@ public class PSBT {
         }
 
         if(log.isDebugEnabled()) {
-            log.debug("Calculated fee at " + getFee());
+            log.debug("Calculated fee at {}", getFee());
         }
     }
 
@@ -278,26 +370,32 @@ public class PSBT {
             throw new PSBTParseException("Found duplicate key for PSBT global: " + Utils.bytesToHex(duplicate.getKey()));
         }
 
+        Long txVersion = null;
+        Long inputCount = null;
+        Long outputCount = null;
+
         for(PSBTEntry entry : globalEntries) {
             switch(entry.getKeyType()) {
                 case PSBT_GLOBAL_UNSIGNED_TX:
                     entry.checkOneByteKey();
-                    Transaction transaction = new Transaction(entry.getData());
+                    Transaction transaction = parseTransaction(entry.getDataBuffer());
                     transaction.verify();
                     inputs = transaction.getInputs().size();
                     outputs = transaction.getOutputs().size();
-                    log.debug("Transaction with txid: " + transaction.getTxId() + " version " + transaction.getVersion() + " size " + transaction.getMessageSize() + " locktime " + transaction.getLocktime());
+                    log.debug("Transaction with txid: {} version {} size {} locktime {}", transaction.getTxId(), transaction.getVersion(), transaction.getMessageSize(), transaction.getLocktime());
                     for(TransactionInput input: transaction.getInputs()) {
                         if(input.getScriptSig().getProgram().length != 0) {
                             throw new PSBTParseException("Unsigned tx input does not have empty scriptSig");
                         }
-                        log.debug(" Transaction input references txid: " + input.getOutpoint().getHash() + " vout " + input.getOutpoint().getIndex() + " with script " + input.getScriptSig());
+                        log.debug(" Transaction input references txid: {} vout {} with script {}", input.getOutpoint().getHash(), input.getOutpoint().getIndex(), input.getScriptSig());
                     }
-                    for(TransactionOutput output: transaction.getOutputs()) {
-                        try {
-                            log.debug(" Transaction output value: " + output.getValue() + " to addresses " + Arrays.asList(output.getScript().getToAddresses()) + " with script hex " + Utils.bytesToHex(output.getScript().getProgram()) + " to script " + output.getScript());
-                        } catch(NonStandardScriptException e) {
-                            log.debug(" Transaction output value: " + output.getValue() + " with script hex " + Utils.bytesToHex(output.getScript().getProgram()) + " to script " + output.getScript());
+                    if(log.isDebugEnabled()) {
+                        for(TransactionOutput output: transaction.getOutputs()) {
+                            try {
+                                log.debug(" Transaction output value: {} to addresses {} with script hex {} to script {}", output.getValue(), Arrays.asList(output.getScript().getToAddresses()), Utils.bytesToHex(output.getScript().getProgram()), output.getScript());
+                            } catch(NonStandardScriptException e) {
+                                log.debug(" Transaction output value: {} with script hex {} to script {}", output.getValue(), Utils.bytesToHex(output.getScript().getProgram()), output.getScript());
+                            }
                         }
                     }
                     this.transaction = transaction;
@@ -307,61 +405,251 @@ public class PSBT {
                     KeyDerivation keyDerivation = parseKeyDerivation(entry.getData());
                     ExtendedKey pubKey = ExtendedKey.fromDescriptor(Base58.encodeChecked(entry.getKeyData()));
                     this.extendedPublicKeys.put(pubKey, keyDerivation);
-                    log.debug("Pubkey with master fingerprint " + keyDerivation.getMasterFingerprint() + " at path " + keyDerivation.getDerivationPath() + ": " + pubKey.getExtendedKey());
+                    log.debug("Pubkey with master fingerprint {} at path {}: {}", keyDerivation.getMasterFingerprint(), keyDerivation.getDerivationPath(), pubKey);
                     break;
                 case PSBT_GLOBAL_VERSION:
                     entry.checkOneByteKey();
                     int version = (int)Utils.readUint32(entry.getData(), 0);
                     this.version = version;
-                    log.debug("PSBT version: " + version);
+                    log.debug("PSBT version: {}", version);
                     break;
                 case PSBT_GLOBAL_PROPRIETARY:
-                    globalProprietary.put(Utils.bytesToHex(entry.getKeyData()), Utils.bytesToHex(entry.getData()));
-                    log.debug("PSBT global proprietary data: " + Utils.bytesToHex(entry.getData()));
+                    String proprietaryValue = Utils.bytesToHex(entry.getData());
+                    globalProprietary.put(Utils.bytesToHex(entry.getKeyData()), proprietaryValue);
+                    log.debug("PSBT global proprietary data: {}", proprietaryValue);
+                    break;
+                case PSBT_GLOBAL_TX_VERSION:
+                    entry.checkOneByteKey();
+                    txVersion = Utils.readUint32(entry.getData(), 0);
+                    if(txVersion < 2) {
+                        throw new PSBTParseException("PSBTv2 transaction version must be at least 2, was " + txVersion);
+                    }
+                    log.debug("PSBT transaction version: {}", txVersion);
+                    break;
+                case PSBT_GLOBAL_FALLBACK_LOCKTIME:
+                    entry.checkOneByteKey();
+                    this.fallbackLocktime = Utils.readUint32(entry.getData(), 0);
+                    log.debug("PSBT fallback locktime: {}", fallbackLocktime);
+                    break;
+                case PSBT_GLOBAL_INPUT_COUNT:
+                    entry.checkOneByteKey();
+                    inputCount = new VarInt(entry.getData(), 0).value;
+                    log.debug("PSBT input count: {}", inputCount);
+                    break;
+                case PSBT_GLOBAL_OUTPUT_COUNT:
+                    entry.checkOneByteKey();
+                    outputCount = new VarInt(entry.getData(), 0).value;
+                    log.debug("PSBT output count: {}", outputCount);
+                    break;
+                case PSBT_GLOBAL_TX_MODIFIABLE:
+                    entry.checkOneByteKey();
+                    this.txModifiable = entry.getData()[0] & 0xff;
+                    log.debug("PSBT transaction modifiable flags: {}", txModifiable);
                     break;
                 default:
                     log.warn("PSBT global not recognized key type: " + entry.getKeyType());
             }
         }
+
+        if(isVersion2()) {
+            if(transaction != null) {
+                throw new PSBTParseException("PSBTv2 must not include an unsigned transaction");
+            }
+            if(txVersion == null || inputCount == null || outputCount == null) {
+                throw new PSBTParseException("PSBTv2 must include the transaction version, input count and output count");
+            }
+
+            //The unsigned transaction is built from the fields of each input and output map as they are parsed
+            transaction = new Transaction();
+            transaction.setVersion(txVersion);
+            inputs = inputCount.intValue();
+            outputs = outputCount.intValue();
+        } else if(txVersion != null || fallbackLocktime != null || inputCount != null || outputCount != null || txModifiable != null) {
+            //As with other unknown keys, PSBTv2 fields are ignored in a PSBTv0
+            log.warn("PSBTv0 includes PSBTv2 global fields");
+            fallbackLocktime = null;
+            txModifiable = null;
+        }
+    }
+
+    private void parseTransactionInput(List<PSBTEntry> inputEntries) throws PSBTParseException {
+        byte[] previousTxid = null;
+        Long outputIndex = null;
+        long sequence = TransactionInput.SEQUENCE_LOCKTIME_DISABLED;
+        if(!isVersion2()) {
+            return;
+        }
+
+        for(PSBTEntry entry : inputEntries) {
+            byte keyType = entry.getKeyType();
+            if(keyType == PSBT_IN_PREVIOUS_TXID) {
+                entry.checkOneByteKey();
+                previousTxid = entry.getData();
+                if(previousTxid.length != Sha256Hash.LENGTH) {
+                    throw new PSBTParseException("Invalid previous txid length of " + previousTxid.length);
+                }
+            } else if(keyType == PSBT_IN_OUTPUT_INDEX) {
+                entry.checkOneByteKey();
+                outputIndex = Utils.readUint32(entry.getData(), 0);
+            } else if(keyType == PSBT_IN_SEQUENCE) {
+                entry.checkOneByteKey();
+                sequence = Utils.readUint32(entry.getData(), 0);
+            }
+        }
+
+        if(previousTxid == null || outputIndex == null) {
+            throw new PSBTParseException("PSBTv2 input must include the previous txid and output index");
+        }
+
+        TransactionInput txInput = transaction.addInput(new TransactionInput(transaction, new TransactionOutPoint(Sha256Hash.wrapReversed(previousTxid), outputIndex), new byte[0]));
+        txInput.setSequenceNumber(sequence);
+        log.debug(" Transaction input references txid: {} vout {} sequence {}", txInput.getOutpoint().getHash(), txInput.getOutpoint().getIndex(), sequence);
     }
 
-    private void parseInputEntries(List<List<PSBTEntry>> inputEntryLists, boolean verifySignatures) throws PSBTParseException {
-        for(List<PSBTEntry> inputEntries : inputEntryLists) {
+    private void parseTransactionOutput(List<PSBTEntry> outputEntries) throws PSBTParseException {
+        Long amount = null;
+        byte[] script = null;
+        if(!isVersion2()) {
+            return;
+        }
+
+        for(PSBTEntry entry : outputEntries) {
+            byte keyType = entry.getKeyType();
+            if(keyType == PSBT_OUT_AMOUNT) {
+                entry.checkOneByteKey();
+                amount = Utils.readInt64(entry.getData(), 0);
+            } else if(keyType == PSBT_OUT_SCRIPT) {
+                entry.checkOneByteKey();
+                script = entry.getData();
+            }
+        }
+
+        if(amount == null || script == null) {
+            throw new PSBTParseException("PSBTv2 output must include the amount and script");
+        }
+
+        TransactionOutput txOutput = transaction.addOutput(new TransactionOutput(transaction, amount, script));
+        if(log.isDebugEnabled()) {
+            log.debug(" Transaction output value: {} with script hex {}", txOutput.getValue(), Utils.bytesToHex(script));
+        }
+    }
+
+    private void parseInputEntries(List<PSBTEntry> inputEntries, boolean verifySignatures) throws PSBTParseException {
+        PSBTEntry duplicate = findDuplicateKey(inputEntries);
+        if(duplicate != null) {
+            throw new PSBTParseException("Found duplicate key for PSBT input: " + Utils.bytesToHex(duplicate.getKey()));
+        }
+
+        int inputIndex = this.psbtInputs.size();
+        PSBTInput input = new PSBTInput(this, inputEntries, transaction, inputIndex);
+
+        if(verifySignatures) {
+            verifyPartialSignatures(input);
+        }
+
+        this.psbtInputs.add(input);
+    }
+
+    private void parseInputEntries(List<List<PSBTEntry>> inputEntryLists, boolean verifySignatures, Executor executor) throws PSBTParseException {
+        List<PSBTInput> inputs = forEachInput(inputEntryLists.size(), inputIndex -> {
+            List<PSBTEntry> inputEntries = inputEntryLists.get(inputIndex);
             PSBTEntry duplicate = findDuplicateKey(inputEntries);
             if(duplicate != null) {
                 throw new PSBTParseException("Found duplicate key for PSBT input: " + Utils.bytesToHex(duplicate.getKey()));
             }
 
-            int inputIndex = this.psbtInputs.size();
-            PSBTInput input = new PSBTInput(this, inputEntries, transaction, inputIndex);
+            return new PSBTInput(this, inputEntries, transaction, inputIndex);
+        }, executor);
+        this.psbtInputs.addAll(inputs);
 
-            if(verifySignatures) {
-                boolean verified = input.verifySignatures();
-                if(!verified && input.getPartialSignatures().size() > 0) {
-                    throw new PSBTSignatureException("Unverifiable partial signatures provided");
-                }
+        if(isVersion2()) {
+            Long locktime = calculateLocktime();
+            if(locktime == null) {
+                throw new PSBTParseException("PSBTv2 inputs do not share a required locktime type");
             }
+            transaction.setLocktime(locktime);
+        }
 
-            this.psbtInputs.add(input);
+        //Inputs are verified once all have been parsed, since taproot signature hashes commit to every spent output
+        if(verifySignatures) {
+            forEachInput(psbtInputs.size(), inputIndex -> verifyPartialSignatures(psbtInputs.get(inputIndex)), executor);
         }
     }
 
-    private void parseOutputEntries(List<List<PSBTEntry>> outputEntryLists) throws PSBTParseException {
-        for(List<PSBTEntry> outputEntries : outputEntryLists) {
-            PSBTEntry duplicate = findDuplicateKey(outputEntries);
-            if(duplicate != null) {
-                throw new PSBTParseException("Found duplicate key for PSBT output: " + Utils.bytesToHex(duplicate.getKey()));
+    private static PSBTInput verifyPartialSignatures(PSBTInput input) throws PSBTSignatureException {
+        boolean verified = input.verifySignatures();
+        if(!verified && input.getPartialSignatures().size() > 0) {
+            throw new PSBTSignatureException("Unverifiable partial signatures provided");
+        }
+
+        return input;
+    }
+
+    /**
+     * Applies the function to each input index, concurrently if an executor is provided.
+     * Results are returned in input order, and if any function fails the exception for the lowest input index is thrown.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T, E extends Exception> List<T> forEachInput(int count, InputFunction<T, E> function, Executor executor) throws E {
+        List<T> results = new ArrayList<>(count);
+        if(executor == null) {
+            for(int i = 0; i < count; i++) {
+                results.add(function.apply(i));
             }
 
-            PSBTOutput output = new PSBTOutput(outputEntries);
-            this.psbtOutputs.add(output);
+            return results;
         }
+
+        List<CompletableFuture<T>> futures = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            int inputIndex = i;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return function.apply(inputIndex);
+                } catch(Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+
+        for(CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch(CompletionException e) {
+                futures.forEach(remaining -> remaining.cancel(false));
+                Throwable cause = e.getCause();
+                if(cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                if(cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw (E)cause;
+            }
+        }
+
+        return results;
+    }
+
+    private interface InputFunction<T, E extends Exception> {
+        T apply(int inputIndex) throws E;
+    }
+
+    private void parseOutputEntries(List<PSBTEntry> outputEntries) throws PSBTParseException {
+        PSBTEntry duplicate = findDuplicateKey(outputEntries);
+        if(duplicate != null) {
+            throw new PSBTParseException("Found duplicate key for PSBT output: " + Utils.bytesToHex(duplicate.getKey()));
+        }
+
+        PSBTOutput output = new PSBTOutput(outputEntries);
+        this.psbtOutputs.add(output);
     }
 
     private PSBTEntry findDuplicateKey(List<PSBTEntry> entries) {
-        Set<String> checkSet = new HashSet<>();
+        //Keys are compared by content within the PSBT buffer without copying them
+        Set<ByteBuffer> checkSet = new HashSet<>();
         for(PSBTEntry entry: entries) {
-            if(!checkSet.add(Utils.bytesToHex(entry.getKey())) ) {
+            if(!checkSet.add(entry.getKeyBuffer())) {
                 return entry;
             }
         }
@@ -369,6 +657,50 @@ public class PSBT {
         return null;
     }
 
+    ByteBuffer getParentTransactionBuffer(Sha256Hash txid) {
+        return parentTransactionBuffers.get(txid);
+    }
+
+    void putParentTransactionBuffer(Sha256Hash txid, ByteBuffer buffer) {
+        parentTransactionBuffers.putIfAbsent(txid, buffer);
+    }
+
+    /**
+     * Decodes a parent transaction that has already been checked against its txid, or returns the copy already decoded for another input
+     */
+    Transaction getParentTransaction(Sha256Hash txid, ByteBuffer buffer) {
+        Transaction parentTransaction = parentTransactions.get(txid);
+        if(parentTransaction == null) {
+            parentTransaction = decodeCheckedNonWitnessUtxo(buffer);
+            Transaction existing = parentTransactions.putIfAbsent(txid, parentTransaction);
+            if(existing != null) {
+                parentTransaction = existing;
+            }
+        }
+
+        return parentTransaction;
+    }
+
+    boolean isRetainParentTransactions() {
+        return retainParentTransactions;
+    }
+
+    synchronized PSBTSigningPlan getSigningPlan() {
+        //The transaction may be changed directly rather than through this PSBT, which clears its cached txid
+        if(signingPlan == null || !signingPlan.getTxId().equals(transaction.getTxId())) {
+            signingPlan = new PSBTSigningPlan(this);
+        }
+
+        return signingPlan;
+    }
+
+    /**
+     * Discards the script types, signing scripts and signature hashes cached for the inputs, which are otherwise reused until an input field they depend on is set
+     */
+    public synchronized void invalidateSigningPlan() {
+        signingPlan = null;
+    }
+
     public Long getFee() {
         long fee = 0L;
 
@@ -392,7 +724,19 @@ public class PSBT {
     }
 
     public void verifySignatures() throws PSBTSignatureException {
-        for(PSBTInput input : getPsbtInputs()) {
+        verifySignatures(null);
+    }
+
+    /**
+     * Verifies the signatures on all inputs, concurrently if an executor is provided
+     *
+     * @param executor the executor to verify inputs on, or null to verify them in order on the calling thread
+     * @throws PSBTSignatureException for the lowest input index that could not be verified
+     */
+    public void verifySignatures(Executor executor) throws PSBTSignatureException {
+        List<PSBTInput> inputs = getPsbtInputs();
+        forEachInput(inputs.size(), inputIndex -> {
+            PSBTInput input = inputs.get(inputIndex);
             boolean verified = input.verifySignatures();
             if(!verified) {
                 if(input.getPartialSignatures().size() > 0) {
@@ -401,7 +745,9 @@ public class PSBT {
 
                 throw new PSBTSignatureException("No UTXO data provided");
             }
-        }
+
+            return input;
+        }, executor);
     }
 
     public boolean hasSignatures() {
@@ -437,7 +783,17 @@ public class PSBT {
     private List<PSBTEntry> getGlobalEntries() {
         List<PSBTEntry> entries = new ArrayList<>();
 
-        if(transaction != null) {
+        if(isVersion2()) {
+            entries.add(populateEntry(PSBT_GLOBAL_TX_VERSION, null, uint32ToBytes(transaction.getVersion())));
+            if(fallbackLocktime != null) {
+                entries.add(populateEntry(PSBT_GLOBAL_FALLBACK_LOCKTIME, null, uint32ToBytes(fallbackLocktime)));
+            }
+            entries.add(populateEntry(PSBT_GLOBAL_INPUT_COUNT, null, new VarInt(psbtInputs.size()).encode()));
+            entries.add(populateEntry(PSBT_GLOBAL_OUTPUT_COUNT, null, new VarInt(psbtOutputs.size()).encode()));
+            if(txModifiable != null) {
+                entries.add(populateEntry(PSBT_GLOBAL_TX_MODIFIABLE, null, new byte[] {(byte)txModifiable.intValue()}));
+            }
+        } else if(transaction != null) {
             entries.add(populateEntry(PSBT_GLOBAL_UNSIGNED_TX, null, transaction.bitcoinSerialize(false)));
         }
 
@@ -463,78 +819,150 @@ public class PSBT {
     }
 
     public byte[] serialize(boolean includeXpubs) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        List<List<PSBTEntry>> maps = getSerializedMaps(includeXpubs);
+
+        //Size the buffer exactly so the PSBT is written once without resizing
+        int size = PSBT_HEADER.length;
+        for(List<PSBTEntry> map : maps) {
+            for(PSBTEntry entry : map) {
+                size += entry.getSerializedSize();
+            }
+            size++;
+        }
 
-        baos.writeBytes(Utils.hexToBytes(PSBT_MAGIC_HEX));
-        baos.writeBytes(new byte[] {(byte)0xff});
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(PSBT_HEADER);
+        for(List<PSBTEntry> map : maps) {
+            for(PSBTEntry entry : map) {
+                entry.serializeToBuffer(buffer);
+            }
+            buffer.put((byte)0x00);
+        }
 
-        List<PSBTEntry> globalEntries = getGlobalEntries();
-        for(PSBTEntry entry : globalEntries) {
+        return buffer.array();
+    }
+
+    /**
+     * Writes the serialized PSBT to the output stream entry by entry, without holding the whole serialized PSBT in memory.
+     * The output stream is not flushed or closed, and should be buffered if it is backed by a file, socket or channel.
+     *
+     * @param outputStream the stream to write to
+     * @param includeXpubs whether to include extended public keys, derivations and proprietary fields
+     * @throws IOException if the stream cannot be written to
+     */
+    public void serialize(OutputStream outputStream, boolean includeXpubs) throws IOException {
+        outputStream.write(PSBT_HEADER);
+        for(List<PSBTEntry> map : getSerializedMaps(includeXpubs)) {
+            for(PSBTEntry entry : map) {
+                entry.serializeToStream(outputStream);
+            }
+            outputStream.write(0x00);
+        }
+    }
+
+    private List<List<PSBTEntry>> getSerializedMaps(boolean includeXpubs) {
+        List<List<PSBTEntry>> maps = new ArrayList<>(1 + getPsbtInputs().size() + getPsbtOutputs().size());
+
+        List<PSBTEntry> globalEntries = new ArrayList<>();
+        for(PSBTEntry entry : getGlobalEntries()) {
             if(includeXpubs || (entry.getKeyType() != PSBT_GLOBAL_BIP32_PUBKEY && entry.getKeyType() != PSBT_GLOBAL_PROPRIETARY)) {
-                entry.serializeToStream(baos);
+                globalEntries.add(entry);
             }
         }
-        baos.writeBytes(new byte[] {(byte)0x00});
+        maps.add(globalEntries);
 
         for(PSBTInput psbtInput : getPsbtInputs()) {
-            List<PSBTEntry> inputEntries = psbtInput.getInputEntries();
-            for(PSBTEntry entry : inputEntries) {
+            List<PSBTEntry> inputEntries = new ArrayList<>();
+            for(PSBTEntry entry : psbtInput.getInputEntries()) {
                 if(includeXpubs || entry.getKeyType() != PSBT_IN_BIP32_DERIVATION) {
-                    entry.serializeToStream(baos);
+                    inputEntries.add(entry);
                 }
             }
-            baos.writeBytes(new byte[] {(byte)0x00});
+            maps.add(inputEntries);
         }
 
-        for(PSBTOutput psbtOutput : getPsbtOutputs()) {
-            List<PSBTEntry> outputEntries = psbtOutput.getOutputEntries();
-            for(PSBTEntry entry : outputEntries) {
+        for(int i = 0; i < getPsbtOutputs().size(); i++) {
+            PSBTOutput psbtOutput = getPsbtOutputs().get(i);
+            List<PSBTEntry> outputEntries = new ArrayList<>();
+            if(isVersion2()) {
+                TransactionOutput txOutput = transaction.getOutputs().get(i);
+                byte[] amount = new byte[8];
+                Utils.int64ToByteArrayLE(txOutput.getValue(), amount, 0);
+                outputEntries.add(populateEntry(PSBT_OUT_AMOUNT, null, amount));
+                outputEntries.add(populateEntry(PSBT_OUT_SCRIPT, null, txOutput.getScriptBytes()));
+            }
+            for(PSBTEntry entry : psbtOutput.getOutputEntries()) {
                 if(includeXpubs || (entry.getKeyType() != PSBT_OUT_REDEEM_SCRIPT && entry.getKeyType() != PSBT_OUT_WITNESS_SCRIPT && entry.getKeyType() != PSBT_OUT_BIP32_DERIVATION && entry.getKeyType() != PSBT_OUT_PROPRIETARY)) {
-                    entry.serializeToStream(baos);
+                    outputEntries.add(entry);
                 }
             }
-            baos.writeBytes(new byte[] {(byte)0x00});
+            maps.add(outputEntries);
         }
 
-        return baos.toByteArray();
+        return maps;
     }
 
     public void combine(PSBT... psbts) {
-        for(PSBT psbt : psbts) {
-            combine(psbt);
-        }
+        combine(Arrays.asList(psbts), null);
     }
 
     public void combine(PSBT psbt) {
-        byte[] txBytes = transaction.bitcoinSerialize();
-        byte[] psbtTxBytes = psbt.getTransaction().bitcoinSerialize();
+        combine(List.of(psbt), null);
+    }
 
-        if(!Arrays.equals(txBytes, psbtTxBytes)) {
-            throw new IllegalArgumentException("Provided PSBT does contain a matching global transaction");
+    /**
+     * Combines the provided PSBTs into this one in a single pass, with later PSBTs taking precedence as when combined one at a time.
+     * All PSBTs are checked before any are merged, so this PSBT is unchanged if one cannot be combined.
+     *
+     * @param psbts the PSBTs to combine, each with the same global transaction as this PSBT
+     * @param executor the executor to merge inputs on, or null to merge them in order on the calling thread
+     * @throws IllegalArgumentException if a PSBT has a different global transaction, or any PSBT is finalized
+     */
+    public void combine(List<PSBT> psbts, Executor executor) {
+        //The txid commits to the serialized unsigned transaction, and is cached after it is first calculated
+        Sha256Hash txId = transaction.getTxId();
+        for(PSBT psbt : psbts) {
+            if(!txId.equals(psbt.getTransaction().getTxId())) {
+                throw new IllegalArgumentException("Provided PSBT does contain a matching global transaction");
+            }
         }
 
-        if(isFinalized() || psbt.isFinalized()) {
+        if(isFinalized() || psbts.stream().anyMatch(PSBT::isFinalized)) {
             throw new IllegalArgumentException("Cannot combine an already finalised PSBT");
         }
 
-        if(psbt.getVersion() != null) {
-            version = psbt.getVersion();
-        }
+        for(PSBT psbt : psbts) {
+            if(psbt.getVersion() != null) {
+                version = psbt.getVersion();
+            }
 
-        extendedPublicKeys.putAll(psbt.extendedPublicKeys);
-        globalProprietary.putAll(psbt.globalProprietary);
+            extendedPublicKeys.putAll(psbt.extendedPublicKeys);
+            globalProprietary.putAll(psbt.globalProprietary);
 
-        for(int i = 0; i < getPsbtInputs().size(); i++) {
-            PSBTInput thisInput = getPsbtInputs().get(i);
-            PSBTInput otherInput = psbt.getPsbtInputs().get(i);
-            thisInput.combine(otherInput);
+            if(txModifiable != null && psbt.txModifiable != null) {
+                //Inputs and outputs remain modifiable only if no signer has committed to them
+                txModifiable = (txModifiable & psbt.txModifiable & (TX_MODIFIABLE_INPUTS | TX_MODIFIABLE_OUTPUTS)) | ((txModifiable | psbt.txModifiable) & TX_MODIFIABLE_SIGHASH_SINGLE);
+            }
         }
 
+        //Each input is merged with the same input of every other PSBT, so inputs can be merged independently
+        forEachInput(getPsbtInputs().size(), inputIndex -> {
+            PSBTInput thisInput = getPsbtInputs().get(inputIndex);
+            for(PSBT psbt : psbts) {
+                thisInput.combine(psbt.getPsbtInputs().get(inputIndex));
+            }
+
+            return thisInput;
+        }, executor);
+
         for(int i = 0; i < getPsbtOutputs().size(); i++) {
             PSBTOutput thisOutput = getPsbtOutputs().get(i);
-            PSBTOutput otherOutput = psbt.getPsbtOutputs().get(i);
-            thisOutput.combine(otherOutput);
+            for(PSBT psbt : psbts) {
+                thisOutput.combine(psbt.getPsbtOutputs().get(i));
+            }
         }
+
+        invalidateSigningPlan();
     }
 
     public Transaction extractTransaction() {
@@ -570,7 +998,8 @@ public class PSBT {
 
     public PSBT getPublicCopy() {
         try {
-            PSBT publicCopy = new PSBT(serialize());
+            //The copy holds the same signatures as this PSBT, so they are not verified again
+            PSBT publicCopy = new PSBT(serialize(), false);
             publicCopy.extendedPublicKeys.clear();
             publicCopy.globalProprietary.clear();
             for(PSBTInput psbtInput : publicCopy.getPsbtInputs()) {
@@ -604,6 +1033,184 @@ public class PSBT {
         return version;
     }
 
+    boolean isVersion2() {
+        return version != null && version >= 2;
+    }
+
+    public Long getFallbackLocktime() {
+        return fallbackLocktime;
+    }
+
+    public void setFallbackLocktime(Long fallbackLocktime) {
+        this.fallbackLocktime = fallbackLocktime;
+        updateLocktime();
+    }
+
+    /**
+     * @return the PSBTv2 modifiable flags, a combination of TX_MODIFIABLE_INPUTS, TX_MODIFIABLE_OUTPUTS and TX_MODIFIABLE_SIGHASH_SINGLE, or null if not provided
+     */
+    public Integer getTxModifiable() {
+        return txModifiable;
+    }
+
+    public void setTxModifiable(Integer txModifiable) {
+        this.txModifiable = txModifiable;
+    }
+
+    /**
+     * Adds an input to a PSBTv2 without rebuilding the transaction or the other inputs and outputs
+     *
+     * @param previousTxid the txid of the transaction containing the spent output
+     * @param outputIndex the index of the spent output
+     * @param sequence the sequence number of the input
+     * @return the new input, to which UTXO and derivation fields can be added
+     * @throws IllegalStateException if this is not a PSBTv2, or inputs are not modifiable
+     */
+    public PSBTInput addInput(Sha256Hash previousTxid, long outputIndex, long sequence) {
+        checkModifiable(TX_MODIFIABLE_INPUTS, "inputs");
+
+        TransactionInput txInput = transaction.addInput(new TransactionInput(transaction, new TransactionOutPoint(previousTxid, outputIndex), new byte[0]));
+        txInput.setSequenceNumber(sequence);
+        PSBTInput psbtInput = new PSBTInput(this, transaction, psbtInputs.size());
+        psbtInputs.add(psbtInput);
+        updateLocktime();
+        invalidateSigningPlan();
+
+        return psbtInput;
+    }
+
+    /**
+     * Removes an input from a PSBTv2, renumbering the inputs that follow it
+     *
+     * @throws IllegalStateException if this is not a PSBTv2, or inputs are not modifiable
+     */
+    public PSBTInput removeInput(int index) {
+        checkModifiable(TX_MODIFIABLE_INPUTS, "inputs");
+
+        transaction.removeInput(index);
+        PSBTInput psbtInput = psbtInputs.remove(index);
+        for(int i = index; i < psbtInputs.size(); i++) {
+            psbtInputs.get(i).setIndex(i);
+        }
+        updateLocktime();
+        invalidateSigningPlan();
+
+        return psbtInput;
+    }
+
+    /**
+     * Adds an output to a PSBTv2 without rebuilding the transaction or the other inputs and outputs
+     *
+     * @throws IllegalStateException if this is not a PSBTv2, or outputs are not modifiable
+     */
+    public PSBTOutput addOutput(long value, Script script) {
+        checkModifiable(TX_MODIFIABLE_OUTPUTS, "outputs");
+
+        transaction.addOutput(value, script);
+        PSBTOutput psbtOutput = new PSBTOutput();
+        psbtOutputs.add(psbtOutput);
+        invalidateSigningPlan();
+
+        return psbtOutput;
+    }
+
+    /**
+     * Removes an output from a PSBTv2
+     *
+     * @throws IllegalStateException if this is not a PSBTv2, or outputs are not modifiable
+     */
+    public PSBTOutput removeOutput(int index) {
+        checkModifiable(TX_MODIFIABLE_OUTPUTS, "outputs");
+
+        transaction.removeOutput(index);
+        PSBTOutput psbtOutput = psbtOutputs.remove(index);
+        invalidateSigningPlan();
+
+        return psbtOutput;
+    }
+
+    private void checkModifiable(int flag, String fields) {
+        if(!isVersion2()) {
+            throw new IllegalStateException("Only PSBTv2 " + fields + " can be modified");
+        }
+
+        if(txModifiable == null || (txModifiable & flag) == 0) {
+            throw new IllegalStateException("PSBT " + fields + " are not modifiable");
+        }
+    }
+
+    /**
+     * Sets the locktime of a PSBTv2 transaction from the locktimes required by its inputs, as determined by BIP370
+     */
+    void updateLocktime() {
+        if(isVersion2() && transaction != null) {
+            Long locktime = calculateLocktime();
+            if(locktime == null) {
+                throw new IllegalStateException("PSBTv2 inputs do not share a required locktime type");
+            }
+
+            if(locktime != transaction.getLocktime()) {
+                transaction.setLocktime(locktime);
+                invalidateSigningPlan();
+            }
+        }
+    }
+
+    /**
+     * @return the locktime required by the inputs, preferring a height if all inputs support it, the fallback locktime if no input has a requirement, or null if the inputs require both a height and a time
+     */
+    private Long calculateLocktime() {
+        boolean heightSupported = true;
+        boolean timeSupported = true;
+        long maxHeight = 0;
+        long maxTime = 0;
+        boolean required = false;
+        for(PSBTInput psbtInput : psbtInputs) {
+            Long requiredHeight = psbtInput.getRequiredHeightLocktime();
+            Long requiredTime = psbtInput.getRequiredTimeLocktime();
+            if(requiredHeight != null || requiredTime != null) {
+                required = true;
+                heightSupported &= requiredHeight != null;
+                timeSupported &= requiredTime != null;
+                maxHeight = Math.max(maxHeight, requiredHeight == null ? 0 : requiredHeight);
+                maxTime = Math.max(maxTime, requiredTime == null ? 0 : requiredTime);
+            }
+        }
+
+        if(!required) {
+            return fallbackLocktime == null ? 0L : fallbackLocktime;
+        }
+
+        if(heightSupported) {
+            return maxHeight;
+        }
+
+        return timeSupported ? maxTime : null;
+    }
+
+    /**
+     * Clears the PSBTv2 modifiable flags that a signature with the given sighash type commits to
+     */
+    void updateTxModifiable(SigHash sigHash) {
+        if(!isVersion2() || txModifiable == null) {
+            return;
+        }
+
+        int sigHashType = sigHash.value & 0xff;
+        int baseType = sigHashType & 0x1f;
+        synchronized(this) {
+            if((sigHashType & SigHash.ANYONECANPAY.value) == 0) {
+                txModifiable &= ~TX_MODIFIABLE_INPUTS;
+            }
+            if(baseType != SigHash.NONE.value) {
+                txModifiable &= ~TX_MODIFIABLE_OUTPUTS;
+            }
+            if(baseType == SigHash.SINGLE.value) {
+                txModifiable |= TX_MODIFIABLE_SIGHASH_SINGLE;
+            }
+        }
+    }
+
     public KeyDerivation getKeyDerivation(ExtendedKey publicKey) {
         return extendedPublicKeys.get(publicKey);
     }
@@ -625,7 +1232,34 @@ public class PSBT {
     }
 
     public String toBase64String(boolean includeXpubs) {
-        return Base64.toBase64String(serialize(includeXpubs));
+        return java.util.Base64.getEncoder().encodeToString(serialize(includeXpubs));
+    }
+
+    /**
+     * Writes the PSBT in Base64 to the output stream as it is serialized, without holding the serialized PSBT in memory.
+     * The output stream is not closed.
+     *
+     * @param outputStream the stream to write the Base64 characters to
+     * @param includeXpubs whether to include extended public keys, derivations and proprietary fields
+     * @throws IOException if the stream cannot be written to
+     */
+    public void toBase64Stream(OutputStream outputStream, boolean includeXpubs) throws IOException {
+        //Closing the encoding stream writes the final padding, but must not close the provided stream
+        OutputStream unclosedStream = new FilterOutputStream(outputStream) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+
+        try(OutputStream base64Stream = java.util.Base64.getEncoder().wrap(unclosedStream)) {
+            serialize(base64Stream, includeXpubs);
+        }
     }
 
     public static boolean isPSBT(byte[] b) {
@@ -659,6 +1293,10 @@ public class PSBT {
     }
 
     public static PSBT fromString(String strPSBT, boolean verifySignatures) throws PSBTParseException {
+        return fromString(strPSBT, verifySignatures, null);
+    }
+
+    public static PSBT fromString(String strPSBT, boolean verifySignatures, Executor executor) throws PSBTParseException {
         if (!isPSBT(strPSBT)) {
             throw new PSBTParseException("Provided string is not a PSBT");
         }
@@ -668,6 +1306,26 @@ public class PSBT {
         }
 
         byte[] psbtBytes = Utils.hexToBytes(strPSBT);
-        return new PSBT(psbtBytes, verifySignatures);
+        return new PSBT(ByteBuffer.wrap(psbtBytes), verifySignatures, executor);
+    }
+
+    /**
+     * Parses a PSBT from a memory mapped file, for PSBTs too large to comfortably hold on the heap.
+     * Entries remain slices of the mapping, and non witness UTXOs are decoded from it each time they are accessed rather than retained,
+     * so that only the spent outputs are kept on the heap. The file must not be modified while the PSBT is in use.
+     *
+     * @param path the file containing the binary PSBT
+     * @param verifySignatures whether to verify the partial signatures on each input
+     * @throws IOException if the file cannot be mapped
+     * @throws PSBTParseException if the PSBT is invalid
+     */
+    public static PSBT fromFile(Path path, boolean verifySignatures) throws IOException, PSBTParseException {
+        ByteBuffer psbtBuffer;
+        try(FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            //The mapping remains valid after the channel is closed
+            psbtBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+
+        return new PSBT(psbtBuffer, verifySignatures, null, false);
     }
 }
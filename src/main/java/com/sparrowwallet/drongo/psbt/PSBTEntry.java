@@ -3,8 +3,12 @@ package com.sparrowwallet.drongo.psbt;
 import com.sparrowwallet.drongo.KeyDerivation;
 import com.sparrowwallet.drongo.Utils;
 import com.sparrowwallet.drongo.crypto.ChildNumber;
+import com.sparrowwallet.drongo.protocol.ProtocolException;
+import com.sparrowwallet.drongo.protocol.Transaction;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
@@ -12,47 +16,57 @@ import java.util.Arrays;
 import java.util.List;
 
 public class PSBTEntry {
-    private final byte[] key;
+    private byte[] key;
     private final byte keyType;
-    private final byte[] keyData;
-    private final byte[] data;
+    private byte[] keyData;
+    private byte[] data;
+
+    //Entries read from a PSBT refer to their key and data in the PSBT buffer, and only copy them out when requested
+    private final ByteBuffer keyBuffer;
+    private final ByteBuffer dataBuffer;
 
     public PSBTEntry(byte[] key, byte keyType, byte[] keyData, byte[] data) {
         this.key = key;
         this.keyType = keyType;
         this.keyData = keyData;
         this.data = data;
+        this.keyBuffer = null;
+        this.dataBuffer = null;
+    }
+
+    private PSBTEntry(byte[] key, byte keyType, byte[] keyData, ByteBuffer dataBuffer) {
+        this.key = key;
+        this.keyType = keyType;
+        this.keyData = keyData;
+        this.keyBuffer = null;
+        this.dataBuffer = dataBuffer;
     }
 
     PSBTEntry(ByteBuffer psbtByteBuffer) throws PSBTParseException {
         int keyLen = readCompactInt(psbtByteBuffer);
 
         if (keyLen == 0x00) {
-            key = null;
             keyType = 0x00;
-            keyData = null;
-            data = null;
+            keyBuffer = null;
+            dataBuffer = null;
         } else {
-            byte[] key = new byte[keyLen];
-            psbtByteBuffer.get(key);
-
-            byte keyType = key[0];
-
-            byte[] keyData = null;
-            if (key.length > 1) {
-                keyData = new byte[key.length - 1];
-                System.arraycopy(key, 1, keyData, 0, keyData.length);
-            }
+            keyBuffer = slice(psbtByteBuffer, keyLen);
+            keyType = keyBuffer.get(0);
 
             int dataLen = readCompactInt(psbtByteBuffer);
-            byte[] data = new byte[dataLen];
-            psbtByteBuffer.get(data);
+            dataBuffer = slice(psbtByteBuffer, dataLen);
+        }
+    }
 
-            this.key = key;
-            this.keyType = keyType;
-            this.keyData = keyData;
-            this.data = data;
+    private static ByteBuffer slice(ByteBuffer psbtByteBuffer, int length) throws PSBTParseException {
+        if(length < 0 || length > psbtByteBuffer.remaining()) {
+            throw new PSBTParseException("PSBT entry length of " + length + " exceeds the remaining " + psbtByteBuffer.remaining() + " bytes");
         }
+
+        ByteBuffer slice = psbtByteBuffer.slice();
+        slice.limit(length);
+        psbtByteBuffer.position(psbtByteBuffer.position() + length);
+        return slice;
     }
 
     public static KeyDerivation parseKeyDerivation(byte[] data) throws PSBTParseException {
@@ -108,61 +122,185 @@ public class PSBTEntry {
         return baos.toByteArray();
     }
 
+    static byte[] uint32ToBytes(long val) {
+        byte[] bytes = new byte[4];
+        Utils.uint32ToByteArrayLE(val, bytes, 0);
+        return bytes;
+    }
+
     static PSBTEntry populateEntry(byte type, byte[] keydata, byte[] data) {
         return new PSBTEntry(new byte[] {type}, type, keydata, data);
     }
 
-    void serializeToStream(ByteArrayOutputStream baos) {
-        int keyLen = 1;
-        if(keyData != null) {
-            keyLen += keyData.length;
+    static PSBTEntry populateEntry(byte type, byte[] keydata, ByteBuffer data) {
+        return new PSBTEntry(new byte[] {type}, type, keydata, data);
+    }
+
+    /**
+     * @return the number of bytes this entry occupies when serialized, so that a PSBT can be written into a buffer of the exact size
+     */
+    int getSerializedSize() {
+        int keyLen = getSerializedKeyLength();
+        int dataLen = getSerializedDataLength();
+        return getCompactIntSize(keyLen) + keyLen + getCompactIntSize(dataLen) + dataLen;
+    }
+
+    private int getSerializedKeyLength() {
+        if(keyBuffer != null) {
+            return keyBuffer.remaining();
+        }
+
+        return key.length + (keyData == null ? 0 : keyData.length);
+    }
+
+    private int getSerializedDataLength() {
+        return dataBuffer != null ? dataBuffer.remaining() : data.length;
+    }
+
+    void serializeToBuffer(ByteBuffer buffer) {
+        putCompactInt(buffer, getSerializedKeyLength());
+        if(keyBuffer != null) {
+            buffer.put(keyBuffer.duplicate());
+        } else {
+            buffer.put(key);
+            if(keyData != null) {
+                buffer.put(keyData);
+            }
+        }
+
+        putCompactInt(buffer, getSerializedDataLength());
+        if(dataBuffer != null) {
+            buffer.put(dataBuffer.duplicate());
+        } else {
+            buffer.put(data);
+        }
+    }
+
+    void serializeToStream(OutputStream outputStream) throws IOException {
+        outputStream.write(writeCompactInt(getSerializedKeyLength()));
+        if(keyBuffer != null) {
+            writeBuffer(outputStream, keyBuffer);
+        } else {
+            outputStream.write(key);
+            if(keyData != null) {
+                outputStream.write(keyData);
+            }
         }
 
-        baos.writeBytes(writeCompactInt(keyLen));
-        baos.writeBytes(key);
-        if(keyData != null) {
-            baos.writeBytes(keyData);
+        outputStream.write(writeCompactInt(getSerializedDataLength()));
+        if(dataBuffer != null) {
+            writeBuffer(outputStream, dataBuffer);
+        } else {
+            outputStream.write(data);
         }
+    }
 
-        baos.writeBytes(writeCompactInt(data.length));
-        baos.writeBytes(data);
+    boolean isSeparator() {
+        return key == null && keyBuffer == null;
     }
 
     public byte[] getKey() {
+        if(key == null && keyBuffer != null) {
+            key = toArray(keyBuffer, 0);
+        }
+
         return key;
     }
 
+    int getKeyLength() {
+        return keyBuffer != null ? keyBuffer.remaining() : (key == null ? 0 : key.length);
+    }
+
+    /**
+     * @return a view of the key (including the key type) which can be compared with other keys without copying them
+     */
+    ByteBuffer getKeyBuffer() {
+        return keyBuffer != null ? keyBuffer.duplicate() : ByteBuffer.wrap(getKey());
+    }
+
     public byte getKeyType() {
         return keyType;
     }
 
     public byte[] getKeyData() {
+        if(keyData == null && keyBuffer != null && keyBuffer.remaining() > 1) {
+            keyData = toArray(keyBuffer, 1);
+        }
+
         return keyData;
     }
 
     public byte[] getData() {
+        if(data == null && dataBuffer != null) {
+            data = toArray(dataBuffer, 0);
+        }
+
         return data;
     }
 
+    /**
+     * @return a view of the data that shares the underlying PSBT bytes, for data that is large or may never need to be decoded
+     */
+    ByteBuffer getDataBuffer() {
+        return dataBuffer != null ? dataBuffer.duplicate() : (data == null ? null : ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Parses a transaction directly from the buffer where possible, rather than from a copy of it
+     * The backing array continues past the end of the buffer, so the transaction must be checked to have been read from the buffer alone
+     */
+    static Transaction parseTransaction(ByteBuffer buffer) throws PSBTParseException {
+        Transaction transaction;
+        try {
+            if(buffer.hasArray()) {
+                transaction = new Transaction(buffer.array(), buffer.arrayOffset() + buffer.position());
+            } else {
+                transaction = new Transaction(toArray(buffer, 0));
+            }
+        } catch(ProtocolException e) {
+            throw new PSBTParseException("Invalid transaction of " + buffer.remaining() + " bytes", e);
+        }
+
+        if(transaction.getMessageSize() != buffer.remaining()) {
+            throw new PSBTParseException("Transaction of " + transaction.getMessageSize() + " bytes does not match its PSBT value of " + buffer.remaining() + " bytes");
+        }
+
+        return transaction;
+    }
+
+    private static void writeBuffer(OutputStream outputStream, ByteBuffer buffer) throws IOException {
+        if(buffer.hasArray()) {
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            outputStream.write(toArray(buffer, 0));
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer, int from) {
+        byte[] bytes = new byte[buffer.remaining() - from];
+        buffer.duplicate().position(buffer.position() + from).get(bytes);
+        return bytes;
+    }
+
     public static int readCompactInt(ByteBuffer psbtByteBuffer) throws PSBTParseException {
+        checkRemaining(psbtByteBuffer, 1);
         byte b = psbtByteBuffer.get();
 
         switch (b) {
             case (byte) 0xfd: {
-                byte[] buf = new byte[2];
-                psbtByteBuffer.get(buf);
-                ByteBuffer byteBuffer = ByteBuffer.wrap(buf);
-                byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                return byteBuffer.getShort();
+                checkRemaining(psbtByteBuffer, 2);
+                return (psbtByteBuffer.get() & 0xff) | (psbtByteBuffer.get() & 0xff) << 8;
             }
             case (byte) 0xfe: {
-                byte[] buf = new byte[4];
-                psbtByteBuffer.get(buf);
-                ByteBuffer byteBuffer = ByteBuffer.wrap(buf);
-                byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                return byteBuffer.getInt();
+                checkRemaining(psbtByteBuffer, 4);
+                int value = (psbtByteBuffer.get() & 0xff) | (psbtByteBuffer.get() & 0xff) << 8 | (psbtByteBuffer.get() & 0xff) << 16 | (psbtByteBuffer.get() & 0xff) << 24;
+                if(value < 0) {
+                    throw new PSBTParseException("Data too long:" + Integer.toUnsignedLong(value));
+                }
+                return value;
             }
             case (byte) 0xff: {
+                checkRemaining(psbtByteBuffer, 8);
                 byte[] buf = new byte[8];
                 psbtByteBuffer.get(buf);
                 ByteBuffer byteBuffer = ByteBuffer.wrap(buf);
@@ -174,6 +312,12 @@ public class PSBTEntry {
         }
     }
 
+    private static void checkRemaining(ByteBuffer psbtByteBuffer, int length) throws PSBTParseException {
+        if(psbtByteBuffer.remaining() < length) {
+            throw new PSBTParseException("PSBT is truncated: expected " + length + " more bytes but found " + psbtByteBuffer.remaining());
+        }
+    }
+
     public static byte[] writeCompactInt(long val) {
         ByteBuffer bb = null;
 
@@ -202,20 +346,48 @@ public class PSBTEntry {
         return bb.array();
     }
 
+    static int getCompactIntSize(long val) {
+        if(val < 0xfdL) {
+            return 1;
+        } else if(val < 0xffffL) {
+            return 3;
+        } else if(val < 0xffffffffL) {
+            return 5;
+        }
+
+        return 9;
+    }
+
+    /**
+     * Writes the same encoding as writeCompactInt(long) directly into the buffer
+     */
+    static void putCompactInt(ByteBuffer buffer, long val) {
+        int size = getCompactIntSize(val);
+        if(size == 1) {
+            buffer.put((byte)val);
+            return;
+        }
+
+        buffer.put(size == 3 ? (byte)0xfd : (size == 5 ? (byte)0xfe : (byte)0xff));
+        for(int i = 0; i < size - 1; i++) {
+            buffer.put((byte)((val >> (i * 8)) & 0xff));
+        }
+    }
+
     public void checkOneByteKey() throws PSBTParseException {
-        if(this.getKey().length != 1) {
+        if(this.getKeyLength() != 1) {
             throw new PSBTParseException("PSBT key type must be one byte");
         }
     }
 
     public void checkOneBytePlusXpubKey() throws PSBTParseException {
-        if(this.getKey().length != 79) {
+        if(this.getKeyLength() != 79) {
             throw new PSBTParseException("PSBT key type must be one byte");
         }
     }
 
     public void checkOneBytePlusPubKey() throws PSBTParseException {
-        if(this.getKey().length != 34) {
+        if(this.getKeyLength() != 34) {
             throw new PSBTParseException("PSBT key type must be one byte");
         }
     }
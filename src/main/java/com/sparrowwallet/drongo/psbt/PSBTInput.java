@@ -9,9 +9,11 @@ import com.sparrowwallet.drongo.protocol.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static com.sparrowwallet.drongo.protocol.ScriptType.*;
 import static com.sparrowwallet.drongo.psbt.PSBTEntry.*;
@@ -27,12 +29,19 @@ public class PSBTInput {
     public static final byte PSBT_IN_FINAL_SCRIPTSIG = 0x07;
     public static final byte PSBT_IN_FINAL_SCRIPTWITNESS = 0x08;
     public static final byte PSBT_IN_POR_COMMITMENT = 0x09;
+    public static final byte PSBT_IN_PREVIOUS_TXID = 0x0e;
+    public static final byte PSBT_IN_OUTPUT_INDEX = 0x0f;
+    public static final byte PSBT_IN_SEQUENCE = 0x10;
+    public static final byte PSBT_IN_REQUIRED_TIME_LOCKTIME = 0x11;
+    public static final byte PSBT_IN_REQUIRED_HEIGHT_LOCKTIME = 0x12;
     public static final byte PSBT_IN_PROPRIETARY = (byte)0xfc;
     public static final byte PSBT_IN_TAP_KEY_SIG = 0x13;
     public static final byte PSBT_IN_TAP_INTERNAL_KEY = 0x17;
 
     private final PSBT psbt;
     private Transaction nonWitnessUtxo;
+    private ByteBuffer nonWitnessUtxoBuffer;
+    private TransactionOutput nonWitnessUtxoOutput;
     private TransactionOutput witnessUtxo;
     private final Map<ECKey, TransactionSignature> partialSignatures = new LinkedHashMap<>();
     private SigHash sigHash;
@@ -45,9 +54,11 @@ public class PSBTInput {
     private final Map<String, String> proprietary = new LinkedHashMap<>();
     private TransactionSignature tapKeyPathSignature;
     private ECKey tapInternalKey;
+    private Long requiredTimeLocktime;
+    private Long requiredHeightLocktime;
 
     private final Transaction transaction;
-    private final int index;
+    private int index;
 
     private static final Logger log = LoggerFactory.getLogger(PSBTInput.class);
 
@@ -84,29 +95,34 @@ public class PSBTInput {
 
     PSBTInput(PSBT psbt, List<PSBTEntry> inputEntries, Transaction transaction, int index) throws PSBTParseException {
         this.psbt = psbt;
+        this.transaction = transaction;
+        this.index = index;
+
         for(PSBTEntry entry : inputEntries) {
             switch(entry.getKeyType()) {
                 case PSBT_IN_NON_WITNESS_UTXO:
                     entry.checkOneByteKey();
-                    Transaction nonWitnessTx = new Transaction(entry.getData());
-                    nonWitnessTx.verify();
-                    Sha256Hash inputHash = nonWitnessTx.calculateTxId(false);
+                    ByteBuffer nonWitnessTxBuffer = entry.getDataBuffer();
                     Sha256Hash outpointHash = transaction.getInputs().get(index).getOutpoint().getHash();
-                    if(!outpointHash.equals(inputHash)) {
-                        throw new PSBTParseException("Hash of provided non witness utxo transaction " + inputHash + " does not match transaction input outpoint hash " + outpointHash + " at index " + index);
-                    }
-
-                    this.nonWitnessUtxo = nonWitnessTx;
-                    log.debug("Found input non witness utxo with txid: " + nonWitnessTx.getTxId() + " version " + nonWitnessTx.getVersion() + " size " + nonWitnessTx.getMessageSize() + " locktime " + nonWitnessTx.getLocktime());
-                    for(TransactionInput input: nonWitnessTx.getInputs()) {
-                        log.debug(" Transaction input references txid: " + input.getOutpoint().getHash() + " vout " + input.getOutpoint().getIndex() + " with script " + input.getScriptSig());
-                    }
-                    for(TransactionOutput output: nonWitnessTx.getOutputs()) {
-                        try {
-                            log.debug(" Transaction output value: " + output.getValue() + " to addresses " + Arrays.asList(output.getScript().getToAddresses()) + " with script hex " + Utils.bytesToHex(output.getScript().getProgram()) + " to script " + output.getScript());
-                        } catch(NonStandardScriptException e) {
-                            log.error("Unknown script type", e);
+                    if(isSegwitSerialized(nonWitnessTxBuffer)) {
+                        //The txid excludes witness data, so the transaction must be decoded to calculate it
+                        Transaction nonWitnessTx = decodeNonWitnessUtxo(nonWitnessTxBuffer);
+                        checkNonWitnessUtxoHash(nonWitnessTx.calculateTxId(false), outpointHash, index);
+                        this.nonWitnessUtxo = nonWitnessTx;
+                    } else {
+                        //A transaction serialized without witness data hashes to its txid, so it is checked here and only decoded when accessed
+                        //Inputs spending outputs of the same parent share the copy checked first, which only needs to be compared rather than hashed again
+                        ByteBuffer checkedBuffer = psbt.getParentTransactionBuffer(outpointHash);
+                        if(checkedBuffer != null && checkedBuffer.equals(nonWitnessTxBuffer)) {
+                            nonWitnessTxBuffer = checkedBuffer;
+                        } else {
+                            Sha256Hash inputHash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(nonWitnessTxBuffer));
+                            checkNonWitnessUtxoHash(inputHash, outpointHash, index);
+                            psbt.putParentTransactionBuffer(outpointHash, nonWitnessTxBuffer);
                         }
+                        this.nonWitnessUtxoBuffer = nonWitnessTxBuffer;
+                        this.nonWitnessUtxoOutput = readNonWitnessUtxoOutput(nonWitnessTxBuffer, (int)transaction.getInputs().get(index).getOutpoint().getIndex());
+                        log.debug("Found input non witness utxo with txid: {} size {}", outpointHash, nonWitnessTxBuffer.remaining());
                     }
                     break;
                 case PSBT_IN_WITNESS_UTXO:
@@ -116,10 +132,12 @@ public class PSBTInput {
                         throw new PSBTParseException("Witness UTXO provided for non-witness or unknown input");
                     }
                     this.witnessUtxo = witnessTxOutput;
-                    try {
-                        log.debug("Found input witness utxo amount " + witnessTxOutput.getValue() + " script hex " + Utils.bytesToHex(witnessTxOutput.getScript().getProgram()) + " script " + witnessTxOutput.getScript() + " addresses " + Arrays.asList(witnessTxOutput.getScript().getToAddresses()));
-                    } catch(NonStandardScriptException e) {
-                        log.error("Unknown script type", e);
+                    if(log.isDebugEnabled()) {
+                        try {
+                            log.debug("Found input witness utxo amount {} script hex {} script {} addresses {}", witnessTxOutput.getValue(), Utils.bytesToHex(witnessTxOutput.getScript().getProgram()), witnessTxOutput.getScript(), Arrays.asList(witnessTxOutput.getScript().getToAddresses()));
+                        } catch(NonStandardScriptException e) {
+                            log.error("Unknown script type", e);
+                        }
                     }
                     break;
                 case PSBT_IN_PARTIAL_SIG:
@@ -128,21 +146,23 @@ public class PSBTInput {
                     //TODO: Verify signature
                     TransactionSignature signature = TransactionSignature.decodeFromBitcoin(TransactionSignature.Type.ECDSA, entry.getData(), true);
                     this.partialSignatures.put(sigPublicKey, signature);
-                    log.debug("Found input partial signature with public key " + sigPublicKey + " signature " + Utils.bytesToHex(entry.getData()));
+                    if(log.isDebugEnabled()) {
+                        log.debug("Found input partial signature with public key {} signature {}", sigPublicKey, Utils.bytesToHex(entry.getData()));
+                    }
                     break;
                 case PSBT_IN_SIGHASH_TYPE:
                     entry.checkOneByteKey();
                     long sighashType = Utils.readUint32(entry.getData(), 0);
                     SigHash sigHash = SigHash.fromByte((byte)sighashType);
                     this.sigHash = sigHash;
-                    log.debug("Found input sighash_type " + sigHash.toString());
+                    log.debug("Found input sighash_type {}", sigHash);
                     break;
                 case PSBT_IN_REDEEM_SCRIPT:
                     entry.checkOneByteKey();
                     Script redeemScript = new Script(entry.getData());
                     Script scriptPubKey = null;
-                    if(this.nonWitnessUtxo != null) {
-                        scriptPubKey = this.nonWitnessUtxo.getOutputs().get((int)transaction.getInputs().get(index).getOutpoint().getIndex()).getScript();
+                    if(hasNonWitnessUtxo()) {
+                        scriptPubKey = getNonWitnessUtxoOutput().getScript();
                     } else if(this.witnessUtxo != null) {
                         scriptPubKey = this.witnessUtxo.getScript();
                         if(!P2WPKH.isScriptType(redeemScript) && !P2WSH.isScriptType(redeemScript)) { //Witness UTXO should only be provided for P2SH-P2WPKH or P2SH-P2WSH
@@ -161,7 +181,9 @@ public class PSBTInput {
                     }
 
                     this.redeemScript = redeemScript;
-                    log.debug("Found input redeem script hex " + Utils.bytesToHex(redeemScript.getProgram()) + " script " + redeemScript);
+                    if(log.isDebugEnabled()) {
+                        log.debug("Found input redeem script hex {} script {}", Utils.bytesToHex(redeemScript.getProgram()), redeemScript);
+                    }
                     break;
                 case PSBT_IN_WITNESS_SCRIPT:
                     entry.checkOneByteKey();
@@ -178,58 +200,187 @@ public class PSBTInput {
                         throw new PSBTParseException("Witness script hash does not match provided pay to script hash " + Utils.bytesToHex(pubKeyHash));
                     }
                     this.witnessScript = witnessScript;
-                    log.debug("Found input witness script hex " + Utils.bytesToHex(witnessScript.getProgram()) + " script " + witnessScript);
+                    if(log.isDebugEnabled()) {
+                        log.debug("Found input witness script hex {} script {}", Utils.bytesToHex(witnessScript.getProgram()), witnessScript);
+                    }
                     break;
                 case PSBT_IN_BIP32_DERIVATION:
                     entry.checkOneBytePlusPubKey();
                     ECKey derivedPublicKey = ECKey.fromPublicOnly(entry.getKeyData());
                     KeyDerivation keyDerivation = parseKeyDerivation(entry.getData());
                     this.derivedPublicKeys.put(derivedPublicKey, keyDerivation);
-                    log.debug("Found input bip32_derivation with master fingerprint " + keyDerivation.getMasterFingerprint() + " at path " + keyDerivation.getDerivationPath() + " public key " + derivedPublicKey);
+                    log.debug("Found input bip32_derivation with master fingerprint {} at path {} public key {}", keyDerivation.getMasterFingerprint(), keyDerivation.getDerivationPath(), derivedPublicKey);
                     break;
                 case PSBT_IN_FINAL_SCRIPTSIG:
                     entry.checkOneByteKey();
                     Script finalScriptSig = new Script(entry.getData());
                     this.finalScriptSig = finalScriptSig;
-                    log.debug("Found input final scriptSig script hex " + Utils.bytesToHex(finalScriptSig.getProgram()) + " script " + finalScriptSig.toString());
+                    if(log.isDebugEnabled()) {
+                        log.debug("Found input final scriptSig script hex {} script {}", Utils.bytesToHex(finalScriptSig.getProgram()), finalScriptSig);
+                    }
                     break;
                 case PSBT_IN_FINAL_SCRIPTWITNESS:
                     entry.checkOneByteKey();
                     TransactionWitness finalScriptWitness = new TransactionWitness(null, entry.getData(), 0);
                     this.finalScriptWitness = finalScriptWitness;
-                    log.debug("Found input final scriptWitness " + finalScriptWitness.toString());
+                    log.debug("Found input final scriptWitness {}", finalScriptWitness);
                     break;
                 case PSBT_IN_POR_COMMITMENT:
                     entry.checkOneByteKey();
                     String porMessage = new String(entry.getData(), StandardCharsets.UTF_8);
                     this.porCommitment = porMessage;
-                    log.debug("Found input POR commitment message " + porMessage);
+                    log.debug("Found input POR commitment message {}", porMessage);
                     break;
                 case PSBT_IN_PROPRIETARY:
-                    this.proprietary.put(Utils.bytesToHex(entry.getKeyData()), Utils.bytesToHex(entry.getData()));
-                    log.debug("Found proprietary input " + Utils.bytesToHex(entry.getKeyData()) + ": " + Utils.bytesToHex(entry.getData()));
+                    String proprietaryKey = Utils.bytesToHex(entry.getKeyData());
+                    String proprietaryValue = Utils.bytesToHex(entry.getData());
+                    this.proprietary.put(proprietaryKey, proprietaryValue);
+                    log.debug("Found proprietary input {}: {}", proprietaryKey, proprietaryValue);
                     break;
                 case PSBT_IN_TAP_KEY_SIG:
                     this.tapKeyPathSignature = TransactionSignature.decodeFromBitcoin(TransactionSignature.Type.SCHNORR, entry.getData(), true);
-                    log.debug("Found input taproot key path signature " + Utils.bytesToHex(entry.getData()));
+                    if(log.isDebugEnabled()) {
+                        log.debug("Found input taproot key path signature {}", Utils.bytesToHex(entry.getData()));
+                    }
                     break;
                 case PSBT_IN_TAP_INTERNAL_KEY:
                     this.tapInternalKey = ECKey.fromPublicOnly(entry.getData());
-                    log.debug("Found input taproot internal key " + Utils.bytesToHex(entry.getData()));
+                    if(log.isDebugEnabled()) {
+                        log.debug("Found input taproot internal key {}", Utils.bytesToHex(entry.getData()));
+                    }
+                    break;
+                case PSBT_IN_PREVIOUS_TXID:
+                case PSBT_IN_OUTPUT_INDEX:
+                case PSBT_IN_SEQUENCE:
+                    //Already read into the unsigned transaction when the PSBTv2 input map was parsed
+                    break;
+                case PSBT_IN_REQUIRED_TIME_LOCKTIME:
+                    if(!psbt.isVersion2()) {
+                        log.warn("PSBTv0 input includes PSBTv2 key type: " + entry.getKeyType());
+                        break;
+                    }
+                    entry.checkOneByteKey();
+                    long requiredTimeLocktime = Utils.readUint32(entry.getData(), 0);
+                    if(requiredTimeLocktime < Transaction.MAX_BLOCK_LOCKTIME) {
+                        throw new PSBTParseException("Required time locktime " + requiredTimeLocktime + " is a block height");
+                    }
+                    this.requiredTimeLocktime = requiredTimeLocktime;
+                    log.debug("Found input required time locktime {}", requiredTimeLocktime);
+                    break;
+                case PSBT_IN_REQUIRED_HEIGHT_LOCKTIME:
+                    if(!psbt.isVersion2()) {
+                        log.warn("PSBTv0 input includes PSBTv2 key type: " + entry.getKeyType());
+                        break;
+                    }
+                    entry.checkOneByteKey();
+                    long requiredHeightLocktime = Utils.readUint32(entry.getData(), 0);
+                    if(requiredHeightLocktime <= 0 || requiredHeightLocktime >= Transaction.MAX_BLOCK_LOCKTIME) {
+                        throw new PSBTParseException("Required height locktime " + requiredHeightLocktime + " is not a block height");
+                    }
+                    this.requiredHeightLocktime = requiredHeightLocktime;
+                    log.debug("Found input required height locktime {}", requiredHeightLocktime);
                     break;
                 default:
                     log.warn("PSBT input not recognized key type: " + entry.getKeyType());
             }
         }
+    }
 
-        this.transaction = transaction;
-        this.index = index;
+    private static boolean isSegwitSerialized(ByteBuffer txBuffer) {
+        //As in Transaction.parse(), a zero byte after the version is taken as the segwit marker
+        return txBuffer.remaining() > 4 && txBuffer.get(txBuffer.position() + 4) == 0;
+    }
+
+    private static void checkNonWitnessUtxoHash(Sha256Hash inputHash, Sha256Hash outpointHash, int index) throws PSBTParseException {
+        if(!outpointHash.equals(inputHash)) {
+            throw new PSBTParseException("Hash of provided non witness utxo transaction " + inputHash + " does not match transaction input outpoint hash " + outpointHash + " at index " + index);
+        }
+    }
+
+    /**
+     * Reads the spent output from a transaction serialized without witness data, skipping over the other inputs and outputs without decoding them
+     */
+    private static TransactionOutput readNonWitnessUtxoOutput(ByteBuffer nonWitnessTxBuffer, int vout) throws PSBTParseException {
+        ByteBuffer buffer = nonWitnessTxBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            skip(buffer, 4);
+            int inputCount = readCompactInt(buffer);
+            for(int i = 0; i < inputCount; i++) {
+                skip(buffer, 32 + 4);
+                skip(buffer, readCompactInt(buffer));
+                skip(buffer, 4);
+            }
+
+            int outputCount = readCompactInt(buffer);
+            if(vout < 0 || vout >= outputCount) {
+                throw new PSBTParseException("Non witness UTXO has " + outputCount + " outputs, but input spends output " + Integer.toUnsignedLong(vout));
+            }
+
+            for(int i = 0; i < vout; i++) {
+                skip(buffer, 8);
+                skip(buffer, readCompactInt(buffer));
+            }
+
+            long value = buffer.getLong();
+            byte[] scriptBytes = new byte[readCompactInt(buffer)];
+            buffer.get(scriptBytes);
+            return new TransactionOutput(null, value, scriptBytes);
+        } catch(BufferUnderflowException | IllegalArgumentException e) {
+            throw new PSBTParseException("Non witness UTXO is truncated", e);
+        }
+    }
+
+    private static void skip(ByteBuffer buffer, int length) {
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Decodes a non witness UTXO that was checked against its txid when parsed, and so must be a well formed transaction
+     */
+    static Transaction decodeCheckedNonWitnessUtxo(ByteBuffer nonWitnessTxBuffer) {
+        try {
+            return decodeNonWitnessUtxo(nonWitnessTxBuffer);
+        } catch(PSBTParseException e) {
+            throw new IllegalStateException("Non witness UTXO matching its txid could not be decoded", e);
+        }
+    }
+
+    static Transaction decodeNonWitnessUtxo(ByteBuffer nonWitnessTxBuffer) throws PSBTParseException {
+        Transaction nonWitnessTx = parseTransaction(nonWitnessTxBuffer);
+        nonWitnessTx.verify();
+        if(log.isDebugEnabled()) {
+            log.debug("Found input non witness utxo with txid: {} version {} size {} locktime {}", nonWitnessTx.getTxId(), nonWitnessTx.getVersion(), nonWitnessTx.getMessageSize(), nonWitnessTx.getLocktime());
+            for(TransactionInput input: nonWitnessTx.getInputs()) {
+                log.debug(" Transaction input references txid: {} vout {} with script {}", input.getOutpoint().getHash(), input.getOutpoint().getIndex(), input.getScriptSig());
+            }
+            for(TransactionOutput output: nonWitnessTx.getOutputs()) {
+                try {
+                    log.debug(" Transaction output value: {} to addresses {} with script hex {} to script {}", output.getValue(), Arrays.asList(output.getScript().getToAddresses()), Utils.bytesToHex(output.getScript().getProgram()), output.getScript());
+                } catch(NonStandardScriptException e) {
+                    log.error("Unknown script type", e);
+                }
+            }
+        }
+
+        return nonWitnessTx;
     }
 
     public List<PSBTEntry> getInputEntries() {
         List<PSBTEntry> entries = new ArrayList<>();
 
-        if(nonWitnessUtxo != null) {
+        if(psbt.isVersion2()) {
+            TransactionInput txInput = getInput();
+            entries.add(populateEntry(PSBT_IN_PREVIOUS_TXID, null, txInput.getOutpoint().getHash().getReversedBytes()));
+            entries.add(populateEntry(PSBT_IN_OUTPUT_INDEX, null, uint32ToBytes(txInput.getOutpoint().getIndex())));
+            if(txInput.getSequenceNumber() != TransactionInput.SEQUENCE_LOCKTIME_DISABLED) {
+                entries.add(populateEntry(PSBT_IN_SEQUENCE, null, uint32ToBytes(txInput.getSequenceNumber())));
+            }
+        }
+
+        if(nonWitnessUtxoBuffer != null) {
+            //A parsed nonWitnessUtxo is already in pre-Segwit serialization and can be written as is
+            entries.add(populateEntry(PSBT_IN_NON_WITNESS_UTXO, null, nonWitnessUtxoBuffer.duplicate()));
+        } else if(nonWitnessUtxo != null) {
             //Serialize all nonWitnessUtxo fields without witness data (pre-Segwit serialization) to reduce PSBT size
             entries.add(populateEntry(PSBT_IN_NON_WITNESS_UTXO, null, nonWitnessUtxo.bitcoinSerialize(false)));
         }
@@ -284,12 +435,22 @@ public class PSBTInput {
             entries.add(populateEntry(PSBT_IN_TAP_INTERNAL_KEY, null, tapInternalKey.getPubKeyXCoord()));
         }
 
+        if(requiredTimeLocktime != null && psbt.isVersion2()) {
+            entries.add(populateEntry(PSBT_IN_REQUIRED_TIME_LOCKTIME, null, uint32ToBytes(requiredTimeLocktime)));
+        }
+
+        if(requiredHeightLocktime != null && psbt.isVersion2()) {
+            entries.add(populateEntry(PSBT_IN_REQUIRED_HEIGHT_LOCKTIME, null, uint32ToBytes(requiredHeightLocktime)));
+        }
+
         return entries;
     }
 
     void combine(PSBTInput psbtInput) {
-        if(psbtInput.nonWitnessUtxo != null) {
+        if(psbtInput.hasNonWitnessUtxo()) {
             nonWitnessUtxo = psbtInput.nonWitnessUtxo;
+            nonWitnessUtxoBuffer = psbtInput.nonWitnessUtxoBuffer;
+            nonWitnessUtxoOutput = psbtInput.nonWitnessUtxoOutput;
         }
 
         if(psbtInput.witnessUtxo != null) {
@@ -327,12 +488,32 @@ public class PSBTInput {
         }
     }
 
-    public Transaction getNonWitnessUtxo() {
+    public synchronized Transaction getNonWitnessUtxo() {
+        if(nonWitnessUtxo == null && nonWitnessUtxoBuffer != null) {
+            if(!psbt.isRetainParentTransactions()) {
+                //Each caller receives its own decoded copy, so the parent is only held on the heap while in use
+                return decodeCheckedNonWitnessUtxo(nonWitnessUtxoBuffer);
+            }
+
+            //The buffer is retained once decoded, so that inputs can be checked for a non witness UTXO from other threads without locking
+            nonWitnessUtxo = psbt.getParentTransaction(transaction.getInputs().get(index).getOutpoint().getHash(), nonWitnessUtxoBuffer);
+        }
+
         return nonWitnessUtxo;
     }
 
-    public void setNonWitnessUtxo(Transaction nonWitnessUtxo) {
+    public synchronized void setNonWitnessUtxo(Transaction nonWitnessUtxo) {
         this.nonWitnessUtxo = nonWitnessUtxo;
+        this.nonWitnessUtxoBuffer = null;
+        this.nonWitnessUtxoOutput = null;
+        psbt.invalidateSigningPlan();
+    }
+
+    /**
+     * @return whether a non witness UTXO has been provided, without decoding it
+     */
+    public boolean hasNonWitnessUtxo() {
+        return nonWitnessUtxo != null || nonWitnessUtxoBuffer != null;
     }
 
     public TransactionOutput getWitnessUtxo() {
@@ -341,6 +522,7 @@ public class PSBTInput {
 
     public void setWitnessUtxo(TransactionOutput witnessUtxo) {
         this.witnessUtxo = witnessUtxo;
+        psbt.invalidateSigningPlan();
     }
 
     public TransactionSignature getPartialSignature(ECKey publicKey) {
@@ -353,6 +535,7 @@ public class PSBTInput {
 
     public void setSigHash(SigHash sigHash) {
         this.sigHash = sigHash;
+        psbt.invalidateSigningPlan();
     }
 
     public Script getRedeemScript() {
@@ -361,6 +544,7 @@ public class PSBTInput {
 
     public void setRedeemScript(Script redeemScript) {
         this.redeemScript = redeemScript;
+        psbt.invalidateSigningPlan();
     }
 
     public Script getWitnessScript() {
@@ -369,6 +553,7 @@ public class PSBTInput {
 
     public void setWitnessScript(Script witnessScript) {
         this.witnessScript = witnessScript;
+        psbt.invalidateSigningPlan();
     }
 
     public KeyDerivation getKeyDerivation(ECKey publicKey) {
@@ -381,6 +566,7 @@ public class PSBTInput {
 
     public void setFinalScriptSig(Script finalScriptSig) {
         this.finalScriptSig = finalScriptSig;
+        psbt.invalidateSigningPlan();
     }
 
     public TransactionWitness getFinalScriptWitness() {
@@ -389,6 +575,7 @@ public class PSBTInput {
 
     public void setFinalScriptWitness(TransactionWitness finalScriptWitness) {
         this.finalScriptWitness = finalScriptWitness;
+        psbt.invalidateSigningPlan();
     }
 
     public String getPorCommitment() {
@@ -437,6 +624,38 @@ public class PSBTInput {
         this.tapInternalKey = tapInternalKey;
     }
 
+    public Long getRequiredTimeLocktime() {
+        return requiredTimeLocktime;
+    }
+
+    /**
+     * Sets the minimum time based locktime this input requires, which is only serialized in a PSBTv2
+     */
+    public void setRequiredTimeLocktime(Long requiredTimeLocktime) {
+        if(requiredTimeLocktime != null && requiredTimeLocktime < Transaction.MAX_BLOCK_LOCKTIME) {
+            throw new IllegalArgumentException("Required time locktime " + requiredTimeLocktime + " is a block height");
+        }
+
+        this.requiredTimeLocktime = requiredTimeLocktime;
+        psbt.updateLocktime();
+    }
+
+    public Long getRequiredHeightLocktime() {
+        return requiredHeightLocktime;
+    }
+
+    /**
+     * Sets the minimum height based locktime this input requires, which is only serialized in a PSBTv2
+     */
+    public void setRequiredHeightLocktime(Long requiredHeightLocktime) {
+        if(requiredHeightLocktime != null && (requiredHeightLocktime <= 0 || requiredHeightLocktime >= Transaction.MAX_BLOCK_LOCKTIME)) {
+            throw new IllegalArgumentException("Required height locktime " + requiredHeightLocktime + " is not a block height");
+        }
+
+        this.requiredHeightLocktime = requiredHeightLocktime;
+        psbt.updateLocktime();
+    }
+
     public boolean isTaproot() {
         return getUtxo() != null && getScriptType() == P2TR;
     }
@@ -484,7 +703,7 @@ public class PSBTInput {
             localSigHash = getDefaultSigHash();
         }
 
-        if(getNonWitnessUtxo() != null || getWitnessUtxo() != null) {
+        if(hasNonWitnessUtxo() || getWitnessUtxo() != null) {
             Script signingScript = getSigningScript();
             if(signingScript != null) {
                 Sha256Hash hash = getHashForSignature(signingScript, localSigHash);
@@ -492,17 +711,16 @@ public class PSBTInput {
                 if(isTaproot()) {
                     SchnorrSignature schnorrSignature = privKey.signSchnorr(hash);
                     tapKeyPathSignature = new TransactionSignature(schnorrSignature, localSigHash);
-
-                    return true;
                 } else {
                     ECDSASignature ecdsaSignature = privKey.signEcdsa(hash);
                     TransactionSignature transactionSignature = new TransactionSignature(ecdsaSignature, localSigHash);
 
                     ECKey pubKey = ECKey.fromPublicOnly(privKey);
                     getPartialSignatures().put(pubKey, transactionSignature);
-
-                    return true;
                 }
+
+                psbt.updateTxModifiable(localSigHash);
+                return true;
             }
         }
 
@@ -515,7 +733,7 @@ public class PSBTInput {
             localSigHash = getDefaultSigHash();
         }
 
-        if(getNonWitnessUtxo() != null || getWitnessUtxo() != null) {
+        if(hasNonWitnessUtxo() || getWitnessUtxo() != null) {
             Script signingScript = getSigningScript();
             if(signingScript != null) {
                 Sha256Hash hash = getHashForSignature(signingScript, localSigHash);
@@ -564,6 +782,10 @@ public class PSBTInput {
     }
 
     public ScriptType getScriptType() {
+        return psbt.getSigningPlan().getScriptType(this);
+    }
+
+    ScriptType calculateScriptType() {
         Script signingScript = getUtxo().getScript();
 
         boolean p2sh = false;
@@ -589,6 +811,10 @@ public class PSBTInput {
     }
 
     public Script getSigningScript() {
+        return psbt.getSigningPlan().getSigningScript(this);
+    }
+
+    Script calculateSigningScript() {
         Script signingScript = getUtxo().getScript();
 
         if(P2SH.isScriptType(signingScript)) {
@@ -625,13 +851,38 @@ public class PSBTInput {
         return getFinalScriptSig() != null || getFinalScriptWitness() != null;
     }
 
+    int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
     public TransactionInput getInput() {
         return transaction.getInputs().get(index);
     }
 
+    /**
+     * Returns the output spent by this input, from the witness UTXO if present or otherwise from the non witness UTXO.
+     * When the PSBT does not retain parent transactions, an output from a non witness UTXO is read without decoding the parent,
+     * and is not attached to it, so its getHash() and getIndex() methods cannot be used.
+     *
+     * @return the spent output, or null if no UTXO is provided
+     */
     public TransactionOutput getUtxo() {
+        return getWitnessUtxo() != null ? getWitnessUtxo() : (hasNonWitnessUtxo() ? getNonWitnessUtxoOutput() : null);
+    }
+
+    private TransactionOutput getNonWitnessUtxoOutput() {
+        //The spent output is read when the non witness UTXO is parsed, so a parent transaction that is not retained need not be decoded to find it
+        TransactionOutput output = nonWitnessUtxoOutput;
+        if(output != null && !psbt.isRetainParentTransactions()) {
+            return output;
+        }
+
         int vout = (int)transaction.getInputs().get(index).getOutpoint().getIndex();
-        return getWitnessUtxo() != null ? getWitnessUtxo() : (getNonWitnessUtxo() != null ?  getNonWitnessUtxo().getOutputs().get(vout) : null);
+        return getNonWitnessUtxo().getOutputs().get(vout);
     }
 
     public void clearNonFinalFields() {
@@ -642,22 +893,10 @@ public class PSBTInput {
         porCommitment = null;
         proprietary.clear();
         tapKeyPathSignature = null;
+        psbt.invalidateSigningPlan();
     }
 
     private Sha256Hash getHashForSignature(Script connectedScript, SigHash localSigHash) {
-        Sha256Hash hash;
-
-        ScriptType scriptType = getScriptType();
-        if(scriptType == ScriptType.P2TR) {
-            List<TransactionOutput> spentUtxos = psbt.getPsbtInputs().stream().map(PSBTInput::getUtxo).collect(Collectors.toList());
-            hash = transaction.hashForTaprootSignature(spentUtxos, index, !P2TR.isScriptType(connectedScript), connectedScript, localSigHash, null);
-        } else if(Arrays.asList(WITNESS_TYPES).contains(scriptType)) {
-            long prevValue = getUtxo().getValue();
-            hash = transaction.hashForWitnessSignature(index, connectedScript, prevValue, localSigHash);
-        } else {
-            hash = transaction.hashForLegacySignature(index, connectedScript, localSigHash);
-        }
-
-        return hash;
+        return psbt.getSigningPlan().getHashForSignature(this, connectedScript, localSigHash);
     }
 }
@@ -18,6 +18,8 @@ public class PSBTOutput {
     public static final byte PSBT_OUT_REDEEM_SCRIPT = 0x00;
     public static final byte PSBT_OUT_WITNESS_SCRIPT = 0x01;
     public static final byte PSBT_OUT_BIP32_DERIVATION = 0x02;
+    public static final byte PSBT_OUT_AMOUNT = 0x03;
+    public static final byte PSBT_OUT_SCRIPT = 0x04;
     public static final byte PSBT_OUT_PROPRIETARY = (byte)0xfc;
 
     private Script redeemScript;
@@ -45,24 +47,34 @@ public class PSBTOutput {
                     entry.checkOneByteKey();
                     Script redeemScript = new Script(entry.getData());
                     this.redeemScript = redeemScript;
-                    log.debug("Found output redeem script hex " + Utils.bytesToHex(redeemScript.getProgram()) + " script " + redeemScript);
+                    if(log.isDebugEnabled()) {
+                        log.debug("Found output redeem script hex {} script {}", Utils.bytesToHex(redeemScript.getProgram()), redeemScript);
+                    }
                     break;
                 case PSBT_OUT_WITNESS_SCRIPT:
                     entry.checkOneByteKey();
                     Script witnessScript = new Script(entry.getData());
                     this.witnessScript = witnessScript;
-                    log.debug("Found output witness script hex " + Utils.bytesToHex(witnessScript.getProgram()) + " script " + witnessScript);
+                    if(log.isDebugEnabled()) {
+                        log.debug("Found output witness script hex {} script {}", Utils.bytesToHex(witnessScript.getProgram()), witnessScript);
+                    }
                     break;
                 case PSBT_OUT_BIP32_DERIVATION:
                     entry.checkOneBytePlusPubKey();
                     ECKey derivedPublicKey = ECKey.fromPublicOnly(entry.getKeyData());
                     KeyDerivation keyDerivation = parseKeyDerivation(entry.getData());
                     this.derivedPublicKeys.put(derivedPublicKey, keyDerivation);
-                    log.debug("Found output bip32_derivation with master fingerprint " + keyDerivation.getMasterFingerprint() + " at path " + keyDerivation.getDerivationPath() + " public key " + derivedPublicKey);
+                    log.debug("Found output bip32_derivation with master fingerprint {} at path {} public key {}", keyDerivation.getMasterFingerprint(), keyDerivation.getDerivationPath(), derivedPublicKey);
                     break;
                 case PSBT_OUT_PROPRIETARY:
-                    proprietary.put(Utils.bytesToHex(entry.getKeyData()), Utils.bytesToHex(entry.getData()));
-                    log.debug("Found proprietary output " + Utils.bytesToHex(entry.getKeyData()) + ": " + Utils.bytesToHex(entry.getData()));
+                    String proprietaryKey = Utils.bytesToHex(entry.getKeyData());
+                    String proprietaryValue = Utils.bytesToHex(entry.getData());
+                    proprietary.put(proprietaryKey, proprietaryValue);
+                    log.debug("Found proprietary output {}: {}", proprietaryKey, proprietaryValue);
+                    break;
+                case PSBT_OUT_AMOUNT:
+                case PSBT_OUT_SCRIPT:
+                    //Already read into the unsigned transaction when the PSBTv2 output map was parsed
                     break;
                 default:
                     log.warn("PSBT output not recognized key type: " + entry.getKeyType());
@@ -0,0 +1,138 @@
+package com.sparrowwallet.drongo.psbt;
+
+import com.sparrowwallet.drongo.protocol.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static com.sparrowwallet.drongo.protocol.ScriptType.*;
+
+/**
+ * Caches the script type, signing script and signature hash of each input of a PSBT, along with the hashes shared by all inputs,
+ * so that signing, verifying and attributing signatures calculate them once rather than on every call.
+ * The PSBT discards its plan whenever a field the plan depends on is changed, or the txid of its transaction differs from the plan's.
+ */
+class PSBTSigningPlan {
+    private final PSBT psbt;
+    private final Transaction transaction;
+    private final Sha256Hash txId;
+    private final InputPlan[] inputPlans;
+
+    private List<TransactionOutput> spentUtxos;
+    private PrecomputedTransactionData precomputedTransactionData;
+
+    PSBTSigningPlan(PSBT psbt) {
+        this.psbt = psbt;
+        this.transaction = psbt.getTransaction();
+        this.txId = transaction.getTxId();
+        this.inputPlans = new InputPlan[transaction.getInputs().size()];
+        for(int i = 0; i < inputPlans.length; i++) {
+            inputPlans[i] = new InputPlan();
+        }
+    }
+
+    /**
+     * @return the txid of the transaction when the plan was created, which changes with any field the signature hashes commit to
+     */
+    Sha256Hash getTxId() {
+        return txId;
+    }
+
+    ScriptType getScriptType(PSBTInput psbtInput) {
+        InputPlan inputPlan = inputPlans[psbtInput.getIndex()];
+        synchronized(inputPlan) {
+            if(!inputPlan.scriptTypeCalculated) {
+                inputPlan.scriptType = psbtInput.calculateScriptType();
+                inputPlan.scriptTypeCalculated = true;
+            }
+
+            return inputPlan.scriptType;
+        }
+    }
+
+    Script getSigningScript(PSBTInput psbtInput) {
+        InputPlan inputPlan = inputPlans[psbtInput.getIndex()];
+        synchronized(inputPlan) {
+            if(!inputPlan.signingScriptCalculated) {
+                inputPlan.signingScript = psbtInput.calculateSigningScript();
+                inputPlan.signingScriptCalculated = true;
+            }
+
+            return inputPlan.signingScript;
+        }
+    }
+
+    Sha256Hash getHashForSignature(PSBTInput psbtInput, Script connectedScript, SigHash sigHash) {
+        InputPlan inputPlan = inputPlans[psbtInput.getIndex()];
+        synchronized(inputPlan) {
+            if(inputPlan.hash == null || inputPlan.hashScript != connectedScript || inputPlan.hashSigHash != sigHash) {
+                inputPlan.hash = calculateHashForSignature(psbtInput, connectedScript, sigHash);
+                inputPlan.hashScript = connectedScript;
+                inputPlan.hashSigHash = sigHash;
+            }
+
+            return inputPlan.hash;
+        }
+    }
+
+    private Sha256Hash calculateHashForSignature(PSBTInput psbtInput, Script connectedScript, SigHash sigHash) {
+        int index = psbtInput.getIndex();
+        ScriptType scriptType = getScriptType(psbtInput);
+        if(scriptType == ScriptType.P2TR) {
+            List<TransactionOutput> taprootSpentUtxos = getSpentUtxos();
+            if(taprootSpentUtxos == null) {
+                //Not all spent outputs are known yet, as when verifying inputs while parsing, so hash without precomputed data
+                taprootSpentUtxos = psbt.getPsbtInputs().stream().map(PSBTInput::getUtxo).collect(Collectors.toList());
+                return transaction.hashForTaprootSignature(taprootSpentUtxos, index, !P2TR.isScriptType(connectedScript), connectedScript, sigHash, null);
+            }
+
+            return transaction.hashForTaprootSignature(taprootSpentUtxos, index, !P2TR.isScriptType(connectedScript), connectedScript, sigHash.value, null, getPrecomputedTransactionData());
+        } else if(Arrays.asList(WITNESS_TYPES).contains(scriptType)) {
+            long prevValue = psbtInput.getUtxo().getValue();
+            return transaction.hashForWitnessSignature(index, connectedScript.getProgram(), prevValue, sigHash.value, getPrecomputedTransactionData());
+        }
+
+        return transaction.hashForLegacySignature(index, connectedScript, sigHash);
+    }
+
+    /**
+     * @return the outputs spent by every input, or null if the PSBT does not yet provide all of them
+     */
+    private synchronized List<TransactionOutput> getSpentUtxos() {
+        if(spentUtxos == null) {
+            List<PSBTInput> psbtInputs = psbt.getPsbtInputs();
+            if(psbtInputs.size() != inputPlans.length) {
+                return null;
+            }
+
+            List<TransactionOutput> utxos = psbtInputs.stream().map(PSBTInput::getUtxo).collect(Collectors.toList());
+            if(utxos.stream().anyMatch(Objects::isNull)) {
+                return null;
+            }
+
+            spentUtxos = utxos;
+        }
+
+        return spentUtxos;
+    }
+
+    private synchronized PrecomputedTransactionData getPrecomputedTransactionData() {
+        if(precomputedTransactionData == null || (!precomputedTransactionData.hasSpentUtxos() && getSpentUtxos() != null)) {
+            precomputedTransactionData = new PrecomputedTransactionData(transaction, getSpentUtxos());
+        }
+
+        return precomputedTransactionData;
+    }
+
+    private static class InputPlan {
+        private boolean scriptTypeCalculated;
+        private ScriptType scriptType;
+        private boolean signingScriptCalculated;
+        private Script signingScript;
+        private Script hashScript;
+        private SigHash hashSigHash;
+        private Sha256Hash hash;
+    }
+}
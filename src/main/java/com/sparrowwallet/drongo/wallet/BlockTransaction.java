@@ -6,7 +6,6 @@ import com.sparrowwallet.drongo.protocol.Transaction;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class BlockTransaction extends BlockTransactionHash implements Comparable<BlockTransaction> {
@@ -80,28 +79,4 @@ public class BlockTransaction extends BlockTransactionHash implements Comparable
                 .map(txOutput -> new HashIndex(blockchainTransaction.getHash(), txOutput.getIndex()))
                 .collect(Collectors.toList());
     }
-
-    private static class HashIndex {
-        public Sha256Hash hash;
-        public int index;
-
-        public HashIndex(Sha256Hash hash, int index) {
-            this.hash = hash;
-            this.index = index;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            HashIndex hashIndex = (HashIndex) o;
-            return index == hashIndex.index &&
-                    hash.equals(hashIndex.hash);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(hash, index);
-        }
-    }
 }
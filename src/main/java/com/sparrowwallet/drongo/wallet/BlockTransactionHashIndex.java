@@ -10,6 +10,7 @@ public class BlockTransactionHashIndex extends BlockTransactionHash implements C
     private final long value;
     private BlockTransactionHashIndex spentBy;
     private Status status;
+    private transient volatile HistoryVersion historyVersion;
 
     public BlockTransactionHashIndex(Sha256Hash hash, int height, Date date, Long fee, long index, long value) {
         this(hash, height, date, fee, index, value, null);
@@ -44,6 +45,7 @@ public class BlockTransactionHashIndex extends BlockTransactionHash implements C
 
     public void setSpentBy(BlockTransactionHashIndex spentBy) {
         this.spentBy = spentBy;
+        incrementHistoryVersion();
     }
 
     public Status getStatus() {
@@ -52,6 +54,18 @@ public class BlockTransactionHashIndex extends BlockTransactionHash implements C
 
     public void setStatus(Status status) {
         this.status = status;
+        incrementHistoryVersion();
+    }
+
+    void setHistoryVersion(HistoryVersion historyVersion) {
+        this.historyVersion = historyVersion;
+    }
+
+    private void incrementHistoryVersion() {
+        HistoryVersion version = historyVersion;
+        if(version != null) {
+            version.increment();
+        }
     }
 
     @Override
@@ -21,23 +21,39 @@ public class BnBUtxoSelector implements UtxoSelector {
 
     @Override
     public Collection<BlockTransactionHashIndex> select(long targetValue, Collection<OutputGroup> candidates) {
-        List<OutputGroup> utxoPool = new ArrayList<>(candidates);
+        return select(targetValue, new SelectionContext(candidates));
+    }
+
+    @Override
+    public Collection<BlockTransactionHashIndex> select(long targetValue, SelectionContext context) {
+        List<OutputGroup> utxoPool = context.getOutputGroups();
+        int poolSize = utxoPool.size();
 
         long currentValue = 0;
 
-        ArrayDeque<Boolean> currentSelection = new ArrayDeque<>(utxoPool.size());
+        BitSet currentSelection = new BitSet(poolSize);
+        int currentDepth = 0;
         long actualTargetValue = targetValue + noInputsFee;
-        log.debug("Selected must be: " + actualTargetValue + " < x < " + (actualTargetValue + costOfChangeValue));
+        log.debug("Selected must be: {} < x < {}", actualTargetValue, actualTargetValue + costOfChangeValue);
 
-        long currentAvailableValue = utxoPool.stream().mapToLong(OutputGroup::getEffectiveValue).sum();
+        long currentAvailableValue = context.getTotalEffectiveValue();
         if(currentAvailableValue < targetValue) {
             return Collections.emptyList();
         }
 
-        utxoPool.sort((a, b) -> Long.compare(b.getEffectiveValue(), a.getEffectiveValue()));
+        //The pool is sorted by descending effective value, and the values used in the search are held in primitive arrays to avoid repeated lookups in the inner loop
+        long[] effectiveValues = context.getEffectiveValues(0);
+        long[] fees = new long[poolSize];
+        long[] wasteValues = new long[poolSize];
+        for(int i = 0; i < poolSize; i++) {
+            OutputGroup utxo = utxoPool.get(i);
+            fees[i] = utxo.getFee();
+            wasteValues[i] = utxo.getFee() - utxo.getLongTermFee();
+        }
+        boolean positiveWaste = poolSize > 0 && wasteValues[0] > 0;
 
         long currentWasteValue = 0;
-        ArrayDeque<Boolean> bestSelection = null;
+        BitSet bestSelection = null;
         long bestWasteValue = Transaction.MAX_BITCOIN;
 
         // Depth First search loop for choosing the UTXOs
@@ -45,7 +61,7 @@ public class BnBUtxoSelector implements UtxoSelector {
             boolean backtrack = false;
             if(currentValue + currentAvailableValue < actualTargetValue ||  // Cannot possibly reach target with the amount remaining in the currentAvailableValue
                 currentValue > actualTargetValue + costOfChangeValue ||     //  Selected value is out of range, go back and try other branch
-                (currentWasteValue > bestWasteValue && !utxoPool.isEmpty() && (utxoPool.get(0).getFee() - utxoPool.get(0).getLongTermFee() > 0))) {
+                (currentWasteValue > bestWasteValue && positiveWaste)) {
                 backtrack = true;
             } else if(currentValue >= actualTargetValue) {                  // Selected value is within range
                 currentWasteValue += (currentValue - actualTargetValue);    // This is the excess value which is added to the waste for the below comparison
@@ -54,8 +70,7 @@ public class BnBUtxoSelector implements UtxoSelector {
                 // value. Adding any more UTXOs will be just burning the UTXO; it will go entirely to fees. Thus we aren't going to
                 // explore any more UTXOs to avoid burning money like that.
                 if(currentWasteValue <= bestWasteValue) {
-                    bestSelection = currentSelection;
-                    bestSelection = resize(bestSelection, utxoPool.size());
+                    bestSelection = (BitSet)currentSelection.clone();
                     bestWasteValue = currentWasteValue;
                 }
                 currentWasteValue -= (currentValue - actualTargetValue);    // Remove the excess value as we will be selecting different coins now
@@ -64,83 +79,67 @@ public class BnBUtxoSelector implements UtxoSelector {
 
             if(backtrack) {
                 // Walk backwards to find the last included UTXO that still needs to have its omission branch traversed
-                while(!currentSelection.isEmpty() && !currentSelection.getLast()) {
-                    currentSelection.removeLast();
-                    currentAvailableValue += utxoPool.get(currentSelection.size()).getEffectiveValue();
+                while(currentDepth > 0 && !currentSelection.get(currentDepth - 1)) {
+                    currentDepth--;
+                    currentAvailableValue += effectiveValues[currentDepth];
                 }
 
-                if(currentSelection.isEmpty()) {                            // We have walked back to the first utxo and no branch is untraversed. All solutions searched
+                if(currentDepth == 0) {                                     // We have walked back to the first utxo and no branch is untraversed. All solutions searched
                     break;
                 }
 
                 // Output was included on previous iterations, try excluding now
-                currentSelection.removeLast();
-                currentSelection.add(Boolean.FALSE);
-
-                OutputGroup utxo = utxoPool.get(currentSelection.size() - 1);
-                currentValue -= utxo.getEffectiveValue();
-                currentWasteValue -= (utxo.getFee() - utxo.getLongTermFee());
+                int utxoIndex = currentDepth - 1;
+                currentSelection.clear(utxoIndex);
+                currentValue -= effectiveValues[utxoIndex];
+                currentWasteValue -= wasteValues[utxoIndex];
             } else {                                                        // Moving forwards, continuing down this branch
-                OutputGroup utxo = utxoPool.get(currentSelection.size());
+                int utxoIndex = currentDepth++;
 
                 // Remove this utxo from the currentAvailableValue utxo amount
-                currentAvailableValue -= utxo.getEffectiveValue();
+                currentAvailableValue -= effectiveValues[utxoIndex];
 
                 // Avoid searching a branch if the previous UTXO has the same value and same waste and was excluded. Since the ratio of fee to
                 // long term fee is the same, we only need to check if one of those values match in order to know that the waste is the same.
-                if(!currentSelection.isEmpty() && !currentSelection.getLast() &&
-                    utxo.getEffectiveValue() == utxoPool.get(currentSelection.size() - 1).getEffectiveValue() &&
-                    utxo.getFee() == utxoPool.get(currentSelection.size() - 1).getFee()) {
-                    currentSelection.add(Boolean.FALSE);
+                if(utxoIndex > 0 && !currentSelection.get(utxoIndex - 1) &&
+                    effectiveValues[utxoIndex] == effectiveValues[utxoIndex - 1] &&
+                    fees[utxoIndex] == fees[utxoIndex - 1]) {
+                    currentSelection.clear(utxoIndex);
                 } else {
                     // Inclusion branch first (Largest First Exploration)
-                    currentSelection.add(Boolean.TRUE);
-                    currentValue += utxo.getEffectiveValue();
-                    currentWasteValue += (utxo.getFee() - utxo.getLongTermFee());
-                    printCurrentUtxoSet(utxoPool, currentSelection, currentValue);
+                    currentSelection.set(utxoIndex);
+                    currentValue += effectiveValues[utxoIndex];
+                    currentWasteValue += wasteValues[utxoIndex];
+                    if(log.isDebugEnabled()) {
+                        printCurrentUtxoSet(utxoPool, currentSelection, currentDepth, currentValue);
+                    }
                 }
             }
         }
 
         // Check for solution
-        if(bestSelection == null || bestSelection.isEmpty()) {
+        if(bestSelection == null || poolSize == 0) {
             log.debug("No result found");
             return Collections.emptyList();
         }
 
         // Create output list of UTXOs
         List<BlockTransactionHashIndex> outList = new ArrayList<>();
-        int i = 0;
-        for(Iterator<Boolean> iter = bestSelection.iterator(); iter.hasNext(); i++) {
-            if(iter.next()) {
-                outList.addAll(utxoPool.get(i).getUtxos());
-            }
+        for(int i = bestSelection.nextSetBit(0); i >= 0; i = bestSelection.nextSetBit(i + 1)) {
+            outList.addAll(utxoPool.get(i).getUtxos());
         }
 
         return outList;
     }
 
-    private ArrayDeque<Boolean> resize(ArrayDeque<Boolean> deque, int size) {
-        Boolean[] arr = new Boolean[size];
-        Arrays.fill(arr, Boolean.FALSE);
-
-        Boolean[] dequeArr = deque.toArray(new Boolean[deque.size()]);
-        System.arraycopy(dequeArr, 0, arr, 0, Math.min(arr.length, dequeArr.length));
-
-        return new ArrayDeque<>(Arrays.asList(arr));
-    }
-
-    private void printCurrentUtxoSet(List<OutputGroup> utxoPool, ArrayDeque<Boolean> currentSelection, long currentValue) {
+    private void printCurrentUtxoSet(List<OutputGroup> utxoPool, BitSet currentSelection, int currentDepth, long currentValue) {
         long inputsFee = 0;
         StringJoiner joiner = new StringJoiner(" + ");
-        int i = 0;
-        for(Iterator<Boolean> iter = currentSelection.iterator(); iter.hasNext(); i++) {
-            if(iter.next()) {
-                joiner.add(Long.toString(utxoPool.get(i).getEffectiveValue()));
-                inputsFee += utxoPool.get(i).getFee();
-            }
+        for(int i = currentSelection.nextSetBit(0); i >= 0 && i < currentDepth; i = currentSelection.nextSetBit(i + 1)) {
+            joiner.add(Long.toString(utxoPool.get(i).getEffectiveValue()));
+            inputsFee += utxoPool.get(i).getFee();
         }
         long noChangeFeeRequiredAmt = noInputsFee + inputsFee;
-        log.debug(joiner.toString() + " = " + currentValue + " (plus fee of " + noChangeFeeRequiredAmt + ")");
+        log.debug("{} = {} (plus fee of {})", joiner, currentValue, noChangeFeeRequiredAmt);
     }
 }
@@ -2,30 +2,51 @@ package com.sparrowwallet.drongo.wallet;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class ExcludeUtxoFilter implements UtxoFilter {
-    private final Collection<BlockTransactionHashIndex> excludedUtxos;
+    private final List<BlockTransactionHashIndex> excludedUtxos;
+    //The filter is used as a cache key, so equality is based on the excluded outpoints regardless of their order or spent state
+    private final Set<HashIndex> excludedOutpoints;
 
     public ExcludeUtxoFilter() {
-        this.excludedUtxos = new ArrayList<>();
+        this(Collections.emptyList());
     }
 
     public ExcludeUtxoFilter(Collection<BlockTransactionHashIndex> excludedUtxos) {
-        this.excludedUtxos = new ArrayList<>(excludedUtxos);
+        this.excludedUtxos = Collections.unmodifiableList(new ArrayList<>(excludedUtxos));
+        Set<HashIndex> outpoints = new HashSet<>();
+        for(BlockTransactionHashIndex excludedUtxo : excludedUtxos) {
+            outpoints.add(new HashIndex(excludedUtxo.getHash(), (int)excludedUtxo.getIndex()));
+        }
+        this.excludedOutpoints = Collections.unmodifiableSet(outpoints);
     }
 
     @Override
     public boolean isEligible(BlockTransactionHashIndex candidate) {
-        for(BlockTransactionHashIndex excludedUtxo : excludedUtxos) {
-            if(candidate.getHash().equals(excludedUtxo.getHash()) && candidate.getIndex() == excludedUtxo.getIndex()) {
-                return false;
-            }
-        }
-
-        return true;
+        return !excludedOutpoints.contains(new HashIndex(candidate.getHash(), (int)candidate.getIndex()));
     }
 
+    /**
+     * @return an unmodifiable collection of the excluded UTXOs
+     */
     public Collection<BlockTransactionHashIndex> getExcludedUtxos() {
         return excludedUtxos;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(o == null || getClass() != o.getClass()) return false;
+        ExcludeUtxoFilter that = (ExcludeUtxoFilter) o;
+        return excludedOutpoints.equals(that.excludedOutpoints);
+    }
+
+    @Override
+    public int hashCode() {
+        return excludedOutpoints.hashCode();
+    }
 }
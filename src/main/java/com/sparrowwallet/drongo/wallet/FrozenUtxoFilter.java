@@ -5,4 +5,14 @@ public class FrozenUtxoFilter implements UtxoFilter {
     public boolean isEligible(BlockTransactionHashIndex candidate) {
         return candidate.getStatus() == null || candidate.getStatus() != Status.FROZEN;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o != null && getClass() == o.getClass());
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
 }
@@ -0,0 +1,29 @@
+package com.sparrowwallet.drongo.wallet;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+
+import java.util.Objects;
+
+class HashIndex {
+    public Sha256Hash hash;
+    public int index;
+
+    public HashIndex(Sha256Hash hash, int index) {
+        this.hash = hash;
+        this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HashIndex hashIndex = (HashIndex) o;
+        return index == hashIndex.index &&
+                hash.equals(hashIndex.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(hash, index);
+    }
+}
@@ -0,0 +1,20 @@
+package com.sparrowwallet.drongo.wallet;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts changes to wallet node children and outputs, and to the spent and frozen states of outputs, which are otherwise mutated in place.
+ * State derived from them can be cached against the count and checked for staleness without traversing the wallet.
+ * Each wallet holds its own count, which is passed to its nodes and their outputs when they are added to the wallet.
+ */
+final class HistoryVersion {
+    private final AtomicLong version = new AtomicLong();
+
+    long get() {
+        return version.get();
+    }
+
+    void increment() {
+        version.incrementAndGet();
+    }
+}
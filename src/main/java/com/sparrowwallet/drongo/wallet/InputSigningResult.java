@@ -0,0 +1,51 @@
+package com.sparrowwallet.drongo.wallet;
+
+import com.sparrowwallet.drongo.psbt.PSBTInput;
+
+import java.util.List;
+
+/**
+ * InputSigningResult reports the outcome of signing a single PSBT input with the keystores of a wallet.
+ */
+public class InputSigningResult {
+    private final PSBTInput psbtInput;
+    private final WalletNode walletNode;
+    private final List<Keystore> signingKeystores;
+    private final Exception error;
+
+    public InputSigningResult(PSBTInput psbtInput, WalletNode walletNode, List<Keystore> signingKeystores, Exception error) {
+        this.psbtInput = psbtInput;
+        this.walletNode = walletNode;
+        this.signingKeystores = signingKeystores;
+        this.error = error;
+    }
+
+    public PSBTInput getPsbtInput() {
+        return psbtInput;
+    }
+
+    /**
+     * @return the wallet node for the spent output, or null if the input does not spend an output of the wallet
+     */
+    public WalletNode getWalletNode() {
+        return walletNode;
+    }
+
+    /**
+     * @return the keystores that added a signature to the input, in keystore order
+     */
+    public List<Keystore> getSigningKeystores() {
+        return signingKeystores;
+    }
+
+    /**
+     * @return the error that stopped the input from being signed, or null if none occurred
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSigned() {
+        return psbtInput.isSigned();
+    }
+}
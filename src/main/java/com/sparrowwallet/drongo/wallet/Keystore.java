@@ -3,10 +3,13 @@ package com.sparrowwallet.drongo.wallet;
 import com.sparrowwallet.drongo.ExtendedKey;
 import com.sparrowwallet.drongo.KeyDerivation;
 import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.SecureString;
 import com.sparrowwallet.drongo.Utils;
 import com.sparrowwallet.drongo.crypto.*;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Objects;
 
 public class Keystore extends Persistable {
     public static final String DEFAULT_LABEL = "Keystore 1";
@@ -20,6 +23,8 @@ public class Keystore extends Persistable {
     private MasterPrivateExtendedKey masterPrivateExtendedKey;
     private DeterministicSeed seed;
 
+    private transient volatile DerivedKeyCache derivedKeyCache;
+
     public Keystore() {
         this(DEFAULT_LABEL);
     }
@@ -146,6 +151,25 @@ public class Keystore extends Persistable {
         return extendedPrivateKey.getKey(derivation);
     }
 
+    /**
+     * Opens a session that holds the derived account private key, avoiding the cost of stretching the seed on each call to getKey
+     *
+     * @return a session that should be closed once keys are no longer required
+     */
+    public KeystoreSession openSession() throws MnemonicException {
+        return openSession(KeystoreSession.DEFAULT_LIFETIME);
+    }
+
+    /**
+     * Opens a session that holds the derived account private key until it is closed or its lifetime expires
+     *
+     * @param lifetime the time after which the session closes itself, or null for a session that remains open until closed by the caller
+     * @return a session that should be closed once keys are no longer required
+     */
+    public KeystoreSession openSession(Duration lifetime) throws MnemonicException {
+        return new KeystoreSession(this, lifetime);
+    }
+
     public DeterministicKey getPubKey(WalletNode walletNode) {
         return getPubKey(walletNode.getKeyPurpose(), walletNode.getIndex());
     }
@@ -213,10 +237,7 @@ public class Keystore extends Persistable {
 
             if((seed != null && !seed.isEncrypted()) || (masterPrivateExtendedKey != null && !masterPrivateExtendedKey.isEncrypted())) {
                 try {
-                    List<ChildNumber> derivation = getKeyDerivation().getDerivation();
-                    DeterministicKey derivedKey = getExtendedMasterPrivateKey().getKey(derivation);
-                    DeterministicKey derivedKeyPublicOnly = derivedKey.dropPrivateBytes().dropParent();
-                    ExtendedKey xpub = new ExtendedKey(derivedKeyPublicOnly, derivedKey.getParentFingerprint(), derivation.isEmpty() ? ChildNumber.ZERO : derivation.get(derivation.size() - 1));
+                    ExtendedKey xpub = getDerivedExtendedPublicKey();
                     if(!xpub.equals(getExtendedPublicKey())) {
                         throw new InvalidKeystoreException("Specified extended public key does not match public key derived from seed");
                     }
@@ -227,6 +248,43 @@ public class Keystore extends Persistable {
         }
     }
 
+    /**
+     * Derives the extended public key at the key derivation from the seed or master private key.
+     * As this requires stretching the seed, the result is cached until the seed, passphrase, master private key or derivation changes.
+     *
+     * @return the derived extended public key
+     */
+    private ExtendedKey getDerivedExtendedPublicKey() throws MnemonicException {
+        EncryptableItem source = (seed != null ? seed : masterPrivateExtendedKey);
+        SecureString passphrase = (seed != null ? seed.getPassphrase() : null);
+        String derivationPath = keyDerivation.getDerivationPath();
+
+        DerivedKeyCache cache = derivedKeyCache;
+        if(cache != null && cache.matches(source, passphrase, derivationPath)) {
+            return cache.extendedPublicKey;
+        }
+
+        List<ChildNumber> derivation = getKeyDerivation().getDerivation();
+        DeterministicKey derivedKey = getExtendedMasterPrivateKey().getKey(derivation);
+        DeterministicKey derivedKeyPublicOnly = derivedKey.dropPrivateBytes().dropParent();
+        ExtendedKey xpub = new ExtendedKey(derivedKeyPublicOnly, derivedKey.getParentFingerprint(), derivation.isEmpty() ? ChildNumber.ZERO : derivation.get(derivation.size() - 1));
+        derivedKeyCache = new DerivedKeyCache(source, passphrase, derivationPath, xpub);
+
+        return xpub;
+    }
+
+    /**
+     * @return true if checking this keystore requires deriving its extended public key from private key material that has not yet been derived
+     */
+    boolean requiresDerivationCheck() {
+        if(source != KeystoreSource.SW_SEED || keyDerivation == null || isEncrypted() || !hasPrivateKey()) {
+            return false;
+        }
+
+        DerivedKeyCache cache = derivedKeyCache;
+        return cache == null || !cache.matches(seed != null ? seed : masterPrivateExtendedKey, seed != null ? seed.getPassphrase() : null, keyDerivation.getDerivationPath());
+    }
+
     public Keystore copy() {
         Keystore copy = new Keystore(label);
         copy.setId(getId());
@@ -308,6 +366,7 @@ public class Keystore extends Persistable {
     }
 
     public void clearPrivate() {
+        derivedKeyCache = null;
         if(hasSeed()) {
             seed.clear();
         }
@@ -315,4 +374,22 @@ public class Keystore extends Persistable {
             masterPrivateExtendedKey.clear();
         }
     }
+
+    private static final class DerivedKeyCache {
+        private final EncryptableItem source;
+        private final SecureString passphrase;
+        private final String derivationPath;
+        private final ExtendedKey extendedPublicKey;
+
+        public DerivedKeyCache(EncryptableItem source, SecureString passphrase, String derivationPath, ExtendedKey extendedPublicKey) {
+            this.source = source;
+            this.passphrase = passphrase;
+            this.derivationPath = derivationPath;
+            this.extendedPublicKey = extendedPublicKey;
+        }
+
+        public boolean matches(EncryptableItem source, SecureString passphrase, String derivationPath) {
+            return this.source == source && this.passphrase == passphrase && Objects.equals(this.derivationPath, derivationPath);
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package com.sparrowwallet.drongo.wallet;
+
+import com.sparrowwallet.drongo.ExtendedKey;
+import com.sparrowwallet.drongo.KeyPurpose;
+import com.sparrowwallet.drongo.crypto.ChildNumber;
+import com.sparrowwallet.drongo.crypto.DeterministicKey;
+import com.sparrowwallet.drongo.crypto.HDKeyDerivation;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the account extended private key of an unlocked keystore, so that many keys can be derived
+ * without stretching the seed and deriving the account path for each one.
+ * The derived key material is cleared when the session is closed or, if it has a lifetime, expires, whichever comes first.
+ */
+public class KeystoreSession implements AutoCloseable {
+    public static final Duration DEFAULT_LIFETIME = Duration.ofMinutes(1);
+
+    private static ScheduledExecutorService expiryExecutor;
+
+    private final Keystore keystore;
+    private final long expiryNanos;
+    private final ScheduledFuture<?> expiryFuture;
+    private ExtendedKey accountKey;
+    private final Map<KeyPurpose, DeterministicKey> purposeKeys = new EnumMap<>(KeyPurpose.class);
+
+    KeystoreSession(Keystore keystore, Duration lifetime) throws MnemonicException {
+        this.keystore = keystore;
+        this.accountKey = keystore.getExtendedPrivateKey();
+        if(lifetime == null) {
+            this.expiryNanos = 0;
+            this.expiryFuture = null;
+        } else {
+            this.expiryNanos = System.nanoTime() + lifetime.toNanos();
+            this.expiryFuture = getExpiryExecutor().schedule(this::close, lifetime.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public Keystore getKeystore() {
+        return keystore;
+    }
+
+    public synchronized boolean isOpen() {
+        return accountKey != null && (expiryFuture == null || System.nanoTime() - expiryNanos < 0);
+    }
+
+    public DeterministicKey getKey(WalletNode walletNode) {
+        return getKey(walletNode.getKeyPurpose(), walletNode.getIndex());
+    }
+
+    /**
+     * Derives the private key for the given purpose and index, matching Keystore.getKey(KeyPurpose, int)
+     *
+     * @param keyPurpose the key purpose (receive or change)
+     * @param keyIndex the address index
+     * @return the derived private key
+     * @throws IllegalStateException if the session has been closed or has expired
+     */
+    public DeterministicKey getKey(KeyPurpose keyPurpose, int keyIndex) {
+        //Child keys are derived outside the lock so that keys can be derived concurrently from the same session
+        DeterministicKey childKey = HDKeyDerivation.deriveChildKey(getPurposeKey(keyPurpose), new ChildNumber(keyIndex));
+
+        //Check the session was not cleared during derivation, which would leave the chain code zeroed
+        if(!isOpen()) {
+            throw new IllegalStateException("Keystore session for " + keystore.getLabel() + " is closed");
+        }
+
+        return childKey;
+    }
+
+    private synchronized DeterministicKey getPurposeKey(KeyPurpose keyPurpose) {
+        if(!isOpen()) {
+            clear();
+            throw new IllegalStateException("Keystore session for " + keystore.getLabel() + " is closed");
+        }
+
+        DeterministicKey purposeKey = purposeKeys.get(keyPurpose);
+        if(purposeKey == null) {
+            purposeKey = accountKey.getKey(List.of(accountKey.getKeyChildNumber(), keyPurpose.getPathIndex()));
+            purposeKeys.put(keyPurpose, purposeKey);
+        }
+
+        return purposeKey;
+    }
+
+    @Override
+    public void close() {
+        if(expiryFuture != null) {
+            expiryFuture.cancel(false);
+        }
+        clear();
+    }
+
+    private synchronized void clear() {
+        if(accountKey != null) {
+            //Private keys are held as immutable BigIntegers and cannot be wiped, but the chain codes required to derive further keys can be
+            for(DeterministicKey purposeKey : purposeKeys.values()) {
+                Arrays.fill(purposeKey.getChainCode(), (byte)0);
+            }
+            Arrays.fill(accountKey.getKey().getChainCode(), (byte)0);
+            purposeKeys.clear();
+            accountKey = null;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getExpiryExecutor() {
+        if(expiryExecutor == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "KeystoreSessionExpiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            expiryExecutor = executor;
+        }
+
+        return expiryExecutor;
+    }
+}
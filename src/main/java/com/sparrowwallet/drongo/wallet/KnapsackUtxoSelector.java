@@ -3,39 +3,51 @@ package com.sparrowwallet.drongo.wallet;
 import com.sparrowwallet.drongo.protocol.Transaction;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class KnapsackUtxoSelector implements UtxoSelector {
     private static final long MIN_CHANGE = Transaction.SATOSHIS_PER_BITCOIN / 1000;
+    private static final int ITERATIONS = 1000;
 
     private final long noInputsFee;
+    private final int parallelism;
 
     public KnapsackUtxoSelector(long noInputsFee) {
+        this(noInputsFee, 1);
+    }
+
+    /**
+     * @param noInputsFee the fee for the transaction without any inputs
+     * @param parallelism the number of threads to split the stochastic approximation repetitions across
+     */
+    public KnapsackUtxoSelector(long noInputsFee, int parallelism) {
         this.noInputsFee = noInputsFee;
+        this.parallelism = Math.max(1, parallelism);
     }
 
     @Override
     public Collection<BlockTransactionHashIndex> select(long targetValue, Collection<OutputGroup> candidates) {
+        return select(targetValue, new SelectionContext(candidates));
+    }
+
+    @Override
+    public Collection<BlockTransactionHashIndex> select(long targetValue, SelectionContext context) {
         long actualTargetValue = targetValue + noInputsFee;
+        Random random = ThreadLocalRandom.current();
 
-        List<OutputGroup> shuffled = new ArrayList<>(candidates);
-        Collections.shuffle(shuffled);
-
-        OutputGroup lowestLarger = null;
-        List<OutputGroup> applicableGroups = new ArrayList<>();
-        long totalLower = 0;
-
-        for(OutputGroup outputGroup : shuffled) {
-            if(outputGroup.getEffectiveValue() == actualTargetValue) {
-                return new ArrayList<>(outputGroup.getUtxos());
-            } else if(outputGroup.getEffectiveValue() < actualTargetValue + MIN_CHANGE) {
-                applicableGroups.add(outputGroup);
-                totalLower += outputGroup.getEffectiveValue();
-            } else if(lowestLarger == null || outputGroup.getEffectiveValue() < lowestLarger.getEffectiveValue()) {
-                lowestLarger = outputGroup;
-            }
+        int exactIndex = context.getLowestLargerIndex(actualTargetValue);
+        if(exactIndex >= 0 && context.getEffectiveValue(exactIndex) == actualTargetValue) {
+            return new ArrayList<>(context.getOutputGroup(getRandomEqualIndex(context, exactIndex, random)).getUtxos());
         }
 
+        //Groups below the target plus minimum change are applicable, and the last group before them is the lowest larger group
+        int firstApplicable = context.getFirstLowerIndex(actualTargetValue + MIN_CHANGE);
+        OutputGroup lowestLarger = firstApplicable > 0 ? context.getOutputGroup(getRandomEqualIndex(context, firstApplicable - 1, random)) : null;
+        List<OutputGroup> applicableGroups = new ArrayList<>(context.getOutputGroups().subList(firstApplicable, context.size()));
+        long totalLower = context.getTotalEffectiveValue() - context.getPrefixSum(firstApplicable);
+
         if(totalLower == actualTargetValue) {
             return applicableGroups.stream().flatMap(outputGroup -> outputGroup.getUtxos().stream()).collect(Collectors.toList());
         }
@@ -50,13 +62,14 @@ public class KnapsackUtxoSelector implements UtxoSelector {
         //We now have a list of UTXOs that are all smaller than the target + MIN_CHANGE, but together sum to greater than actualTargetValue
         // Solve subset sum by stochastic approximation
 
-        applicableGroups.sort((a, b) -> Long.compare(b.getEffectiveValue(), a.getEffectiveValue()));
-        boolean[] bestSelection = new boolean[applicableGroups.size()];
+        long[] values = context.getEffectiveValues(firstApplicable);
+        shuffleEqualValues(applicableGroups, values, random);
 
-        long bestValue = findApproximateBestSubset(applicableGroups, totalLower, actualTargetValue, bestSelection);
-        if(bestValue != actualTargetValue && totalLower >= actualTargetValue + MIN_CHANGE) {
-            bestValue = findApproximateBestSubset(applicableGroups, totalLower, actualTargetValue + MIN_CHANGE, bestSelection);
+        Subset best = findApproximateBestSubset(values, totalLower, actualTargetValue);
+        if(best.value != actualTargetValue && totalLower >= actualTargetValue + MIN_CHANGE) {
+            best = findApproximateBestSubset(values, totalLower, actualTargetValue + MIN_CHANGE);
         }
+        long bestValue = best.value;
 
         // If we have a bigger coin and (either the stochastic approximation didn't find a good solution,
         //                                   or the next bigger coin is closer), return the bigger coin
@@ -65,33 +78,67 @@ public class KnapsackUtxoSelector implements UtxoSelector {
             return lowestLarger.getUtxos();
         } else {
             List<BlockTransactionHashIndex> utxos = new ArrayList<>();
-            for(int i = 0; i < applicableGroups.size(); i++) {
-                if(bestSelection[i]) {
-                    utxos.addAll(applicableGroups.get(i).getUtxos());
-                }
+            for(int i = best.selection.nextSetBit(0); i >= 0; i = best.selection.nextSetBit(i + 1)) {
+                utxos.addAll(applicableGroups.get(i).getUtxos());
             }
             return utxos;
         }
     }
 
-    private long findApproximateBestSubset(List<OutputGroup> groups, long totalLower, long actualTargetValue, boolean[] bestSelection) {
-        int iterations = 1000;
+    /**
+     * Chooses randomly between the output group at the index and the groups of equal effective value sorted before it
+     */
+    private static int getRandomEqualIndex(SelectionContext context, int index, Random random) {
+        int firstEqual = context.getFirstLowerIndex(context.getEffectiveValue(index) + 1);
+        return firstEqual + random.nextInt(index - firstEqual + 1);
+    }
 
-        boolean[] includedSelection;
+    /**
+     * Shuffles the sorted output groups among those of equal effective value, so that the approximation starts from a random order of equal groups
+     */
+    private static void shuffleEqualValues(List<OutputGroup> outputGroups, long[] values, Random random) {
+        int start = 0;
+        for(int i = 1; i <= values.length; i++) {
+            if(i == values.length || values[i] != values[start]) {
+                if(i - start > 1) {
+                    Collections.shuffle(outputGroups.subList(start, i), random);
+                }
+                start = i;
+            }
+        }
+    }
 
-        Arrays.fill(bestSelection, true);
-        long bestValue = totalLower;
+    private Subset findApproximateBestSubset(long[] values, long totalLower, long actualTargetValue) {
+        SplittableRandom random = new SplittableRandom();
+        if(parallelism == 1 || values.length < 2) {
+            return findApproximateBestSubset(values, totalLower, actualTargetValue, ITERATIONS, random);
+        }
+
+        //Each worker runs its share of the repetitions with an independent random stream, and the closest subset found is kept
+        SplittableRandom[] randoms = new SplittableRandom[parallelism];
+        for(int i = 0; i < parallelism; i++) {
+            randoms[i] = random.split();
+        }
+
+        return IntStream.range(0, parallelism).parallel()
+                .mapToObj(i -> findApproximateBestSubset(values, totalLower, actualTargetValue, ITERATIONS / parallelism + (i < ITERATIONS % parallelism ? 1 : 0), randoms[i]))
+                .min(Comparator.comparingLong(subset -> subset.value)).orElseThrow();
+    }
 
-        Random random = new Random();
+    private static Subset findApproximateBestSubset(long[] values, long totalLower, long actualTargetValue, int iterations, SplittableRandom random) {
+        BitSet includedSelection = new BitSet(values.length);
+        BitSet bestSelection = new BitSet(values.length);
+
+        bestSelection.set(0, values.length);
+        long bestValue = totalLower;
 
         for(int rep = 0; rep < iterations && bestValue != actualTargetValue; rep++) {
-            includedSelection = new boolean[groups.size()];
-            Arrays.fill(includedSelection, false);
+            includedSelection.clear();
             long total = 0;
             boolean reachedTarget = false;
 
             for(int pass = 0; pass < 2 && !reachedTarget; pass++) {
-                for(int i = 0; i < groups.size(); i++) {
+                for(int i = 0; i < values.length; i++) {
                     //The solver here uses a randomized algorithm,
                     //the randomness serves no real security purpose but is just
                     //needed to prevent degenerate behavior and it is important
@@ -99,23 +146,34 @@ public class KnapsackUtxoSelector implements UtxoSelector {
                     //because there may be some privacy improvement by making
                     //the selection random.
 
-                    if(pass == 0 ? random.nextBoolean() : !includedSelection[i]) {
-                        total += groups.get(i).getEffectiveValue();
-                        includedSelection[i] = true;
+                    if(pass == 0 ? random.nextBoolean() : !includedSelection.get(i)) {
+                        total += values[i];
+                        includedSelection.set(i);
                         if(total >= actualTargetValue) {
                             reachedTarget = true;
                             if(total < bestValue) {
                                 bestValue = total;
-                                System.arraycopy(includedSelection, 0, bestSelection, 0, groups.size());
+                                bestSelection.clear();
+                                bestSelection.or(includedSelection);
                             }
-                            total -= groups.get(i).getEffectiveValue();
-                            includedSelection[i] = false;
+                            total -= values[i];
+                            includedSelection.clear(i);
                         }
                     }
                 }
             }
         }
 
-        return bestValue;
+        return new Subset(bestValue, bestSelection);
+    }
+
+    private static class Subset {
+        private final long value;
+        private final BitSet selection;
+
+        public Subset(long value, BitSet selection) {
+            this.value = value;
+            this.selection = selection;
+        }
     }
 }
@@ -0,0 +1,37 @@
+package com.sparrowwallet.drongo.wallet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects the output groups with the largest effective values until the target is reached, minimising the number of inputs
+ */
+public class LargestFirstUtxoSelector implements UtxoSelector {
+    private final long noInputsFee;
+
+    public LargestFirstUtxoSelector(long noInputsFee) {
+        this.noInputsFee = noInputsFee;
+    }
+
+    @Override
+    public Collection<BlockTransactionHashIndex> select(long targetValue, Collection<OutputGroup> candidates) {
+        return select(targetValue, new SelectionContext(candidates));
+    }
+
+    @Override
+    public Collection<BlockTransactionHashIndex> select(long targetValue, SelectionContext context) {
+        int count = context.getLargestFirstCount(targetValue + noInputsFee);
+        if(count < 0) {
+            return Collections.emptyList();
+        }
+
+        List<BlockTransactionHashIndex> utxos = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            utxos.addAll(context.getOutputGroup(i).getUtxos());
+        }
+
+        return utxos;
+    }
+}
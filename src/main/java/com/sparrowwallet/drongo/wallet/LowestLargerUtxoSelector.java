@@ -0,0 +1,30 @@
+package com.sparrowwallet.drongo.wallet;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Selects the single output group with the lowest effective value that reaches the target
+ */
+public class LowestLargerUtxoSelector implements UtxoSelector {
+    private final long noInputsFee;
+
+    public LowestLargerUtxoSelector(long noInputsFee) {
+        this.noInputsFee = noInputsFee;
+    }
+
+    @Override
+    public Collection<BlockTransactionHashIndex> select(long targetValue, Collection<OutputGroup> candidates) {
+        return select(targetValue, new SelectionContext(candidates));
+    }
+
+    @Override
+    public Collection<BlockTransactionHashIndex> select(long targetValue, SelectionContext context) {
+        int index = context.getLowestLargerIndex(targetValue + noInputsFee);
+        if(index < 0) {
+            return Collections.emptyList();
+        }
+
+        return context.getOutputGroup(index).getUtxos();
+    }
+}
@@ -1,6 +1,7 @@
 package com.sparrowwallet.drongo.wallet;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static com.sparrowwallet.drongo.protocol.Transaction.WITNESS_SCALE_FACTOR;
@@ -17,6 +18,7 @@ public class OutputGroup {
     private long longTermFee = 0;
     private int depth = Integer.MAX_VALUE;
     private boolean allInputsFromWallet = true;
+    private boolean shared;
 
     public OutputGroup(int walletBlockHeight, long inputWeightUnits, double feeRate, double longTermFeeRate) {
         this.walletBlockHeight = walletBlockHeight;
@@ -26,6 +28,7 @@ public class OutputGroup {
     }
 
     public void add(BlockTransactionHashIndex utxo, boolean allInputsFromWallet) {
+        checkNotShared();
         utxos.add(utxo);
         value += utxo.getValue();
         effectiveValue += utxo.getValue() - (long)(inputWeightUnits * feeRate / WITNESS_SCALE_FACTOR);
@@ -36,6 +39,7 @@ public class OutputGroup {
     }
 
     public void remove(BlockTransactionHashIndex utxo) {
+        checkNotShared();
         if(utxos.remove(utxo)) {
             value -= utxo.getValue();
             effectiveValue -= (utxo.getValue() - (long)(inputWeightUnits * feeRate / WITNESS_SCALE_FACTOR));
@@ -45,7 +49,20 @@ public class OutputGroup {
     }
 
     public List<BlockTransactionHashIndex> getUtxos() {
-        return utxos;
+        return Collections.unmodifiableList(utxos);
+    }
+
+    /**
+     * Prevents further changes to this group, so that it can be shared between selections and threads
+     */
+    void share() {
+        shared = true;
+    }
+
+    private void checkNotShared() {
+        if(shared) {
+            throw new UnsupportedOperationException("Output group is shared and cannot be modified");
+        }
     }
 
     public long getValue() {
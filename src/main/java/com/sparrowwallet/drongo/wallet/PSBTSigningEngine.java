@@ -0,0 +1,95 @@
+package com.sparrowwallet.drongo.wallet;
+
+import com.sparrowwallet.drongo.crypto.ECKey;
+import com.sparrowwallet.drongo.protocol.ScriptType;
+import com.sparrowwallet.drongo.psbt.PSBT;
+import com.sparrowwallet.drongo.psbt.PSBTInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Signs the inputs of a PSBT with all keystores of a wallet that hold private keys, signing different inputs concurrently.
+ * A session is opened once for each keystore, and each input's key is derived once per keystore from that session.
+ * As with Wallet.sign(PSBT), keystores sign each input in order until it is signed, so the signatures added are the same as when signing sequentially.
+ */
+public class PSBTSigningEngine {
+    private static final Logger log = LoggerFactory.getLogger(PSBTSigningEngine.class);
+
+    private final Executor executor;
+
+    public PSBTSigningEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public PSBTSigningEngine(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Signs the PSBT inputs that spend outputs of the wallet
+     *
+     * @param wallet the wallet to sign with
+     * @param psbt the PSBT to be signed
+     * @return a result for each input of the PSBT, in input order
+     * @throws MnemonicException if a keystore session cannot be opened, in which case no inputs are signed
+     */
+    public List<InputSigningResult> sign(Wallet wallet, PSBT psbt) throws MnemonicException {
+        Map<PSBTInput, WalletNode> signingNodes = wallet.getSigningNodes(psbt);
+        ScriptType scriptType = wallet.getScriptType();
+
+        List<KeystoreSession> keystoreSessions = new ArrayList<>();
+        try {
+            for(Keystore keystore : wallet.getKeystores()) {
+                if(keystore.hasPrivateKey()) {
+                    //Sessions are closed once signing completes, so they do not expire while inputs are still queued on the executor
+                    keystoreSessions.add(keystore.openSession(null));
+                }
+            }
+
+            List<CompletableFuture<InputSigningResult>> futures = new ArrayList<>();
+            for(PSBTInput psbtInput : psbt.getPsbtInputs()) {
+                WalletNode walletNode = signingNodes.get(psbtInput);
+                if(walletNode == null) {
+                    futures.add(CompletableFuture.completedFuture(new InputSigningResult(psbtInput, null, Collections.emptyList(), null)));
+                } else {
+                    futures.add(CompletableFuture.supplyAsync(() -> signInput(scriptType, keystoreSessions, psbtInput, walletNode), executor));
+                }
+            }
+
+            List<InputSigningResult> results = new ArrayList<>(futures.size());
+            for(CompletableFuture<InputSigningResult> future : futures) {
+                results.add(future.join());
+            }
+
+            return results;
+        } finally {
+            for(KeystoreSession keystoreSession : keystoreSessions) {
+                keystoreSession.close();
+            }
+        }
+    }
+
+    private static InputSigningResult signInput(ScriptType scriptType, List<KeystoreSession> keystoreSessions, PSBTInput psbtInput, WalletNode walletNode) {
+        List<Keystore> signingKeystores = new ArrayList<>();
+        try {
+            for(KeystoreSession keystoreSession : keystoreSessions) {
+                if(!psbtInput.isSigned()) {
+                    ECKey privKey = scriptType.getOutputKey(keystoreSession.getKey(walletNode));
+                    if(psbtInput.sign(privKey)) {
+                        signingKeystores.add(keystoreSession.getKeystore());
+                    }
+                }
+            }
+        } catch(Exception e) {
+            log.error("Error signing input for " + walletNode.getDerivationPath(), e);
+            return new InputSigningResult(psbtInput, walletNode, signingKeystores, e);
+        }
+
+        return new InputSigningResult(psbtInput, walletNode, signingKeystores, null);
+    }
+}
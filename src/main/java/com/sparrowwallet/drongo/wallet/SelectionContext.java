@@ -0,0 +1,160 @@
+package com.sparrowwallet.drongo.wallet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A pool of output groups prepared once for use by many UTXO selectors.
+ * The groups are sorted by descending effective value, and the prefix sums of their effective values are precomputed,
+ * so that selectors can find the groups they need by binary search rather than by sorting and summing the pool again.
+ */
+public class SelectionContext {
+    private final Collection<OutputGroup> candidates;
+    private final List<OutputGroup> outputGroups;
+    private final long[] effectiveValues;
+    private final long[] prefixSums;
+    private final int positiveCount;
+
+    public SelectionContext(Collection<OutputGroup> candidates) {
+        this.candidates = Collections.unmodifiableCollection(candidates);
+
+        List<OutputGroup> sorted = new ArrayList<>(candidates);
+        sorted.sort((a, b) -> Long.compare(b.getEffectiveValue(), a.getEffectiveValue()));
+        this.outputGroups = Collections.unmodifiableList(sorted);
+
+        int size = sorted.size();
+        this.effectiveValues = new long[size];
+        this.prefixSums = new long[size + 1];
+        int positive = 0;
+        for(int i = 0; i < size; i++) {
+            effectiveValues[i] = sorted.get(i).getEffectiveValue();
+            prefixSums[i + 1] = prefixSums[i] + effectiveValues[i];
+            if(effectiveValues[i] > 0) {
+                positive++;
+            }
+        }
+        this.positiveCount = positive;
+    }
+
+    /**
+     * @return the output groups in the order they were provided
+     */
+    public Collection<OutputGroup> getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * @return the output groups sorted by descending effective value
+     */
+    public List<OutputGroup> getOutputGroups() {
+        return outputGroups;
+    }
+
+    public OutputGroup getOutputGroup(int index) {
+        return outputGroups.get(index);
+    }
+
+    public int size() {
+        return outputGroups.size();
+    }
+
+    public long getEffectiveValue(int index) {
+        return effectiveValues[index];
+    }
+
+    /**
+     * @return a copy of the sorted effective values from the given index to the end of the pool
+     */
+    public long[] getEffectiveValues(int fromIndex) {
+        long[] values = new long[effectiveValues.length - fromIndex];
+        System.arraycopy(effectiveValues, fromIndex, values, 0, values.length);
+        return values;
+    }
+
+    /**
+     * @return the number of output groups with a positive effective value, which are sorted before all others
+     */
+    public int getPositiveCount() {
+        return positiveCount;
+    }
+
+    /**
+     * @param count the number of output groups
+     * @return the combined effective value of the count output groups with the largest effective values
+     */
+    public long getPrefixSum(int count) {
+        return prefixSums[count];
+    }
+
+    public long getTotalEffectiveValue() {
+        return prefixSums[prefixSums.length - 1];
+    }
+
+    public long getPositiveEffectiveValue() {
+        return prefixSums[positiveCount];
+    }
+
+    /**
+     * Finds the fewest output groups, taken largest first, with a combined effective value of at least the given value
+     *
+     * @param value the required effective value
+     * @return the number of output groups required, or -1 if the pool does not hold enough value
+     */
+    public int getLargestFirstCount(long value) {
+        if(value <= 0) {
+            return 0;
+        }
+
+        //Prefix sums only increase over the groups with a positive effective value
+        int low = 1;
+        int high = positiveCount;
+        if(high == 0 || prefixSums[high] < value) {
+            return -1;
+        }
+
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(prefixSums[mid] >= value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Finds the output group with the lowest effective value that is at least the given value
+     *
+     * @param value the required effective value
+     * @return the index of the output group, or -1 if no single output group holds enough value
+     */
+    public int getLowestLargerIndex(long value) {
+        //Effective values are sorted in descending order, so find the last index at or above the value
+        int low = 0;
+        int high = effectiveValues.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(effectiveValues[mid] >= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low - 1;
+    }
+
+    /**
+     * Finds the first output group with an effective value lower than the given value
+     *
+     * @param value the effective value
+     * @return the index of the first output group below the value, or the size of the pool if there is none
+     */
+    public int getFirstLowerIndex(long value) {
+        return getLowestLargerIndex(value) + 1;
+    }
+}
@@ -0,0 +1,57 @@
+package com.sparrowwallet.drongo.wallet;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Selects output groups at random until the target plus a minimum change amount is reached.
+ * Groups with a non-positive effective value are never drawn, and only the drawn positions are tracked,
+ * so the cost of a selection depends on the number of groups drawn rather than the size of the pool.
+ */
+public class SingleRandomDrawUtxoSelector implements UtxoSelector {
+    private static final long CHANGE_LOWER = 50000;
+
+    private final long noInputsFee;
+
+    public SingleRandomDrawUtxoSelector(long noInputsFee) {
+        this.noInputsFee = noInputsFee;
+    }
+
+    @Override
+    public Collection<BlockTransactionHashIndex> select(long targetValue, Collection<OutputGroup> candidates) {
+        return select(targetValue, new SelectionContext(candidates));
+    }
+
+    @Override
+    public Collection<BlockTransactionHashIndex> select(long targetValue, SelectionContext context) {
+        long actualTargetValue = targetValue + noInputsFee;
+        int positiveCount = context.getPositiveCount();
+        if(context.getPositiveEffectiveValue() < actualTargetValue) {
+            return Collections.emptyList();
+        }
+
+        List<BlockTransactionHashIndex> utxos = new ArrayList<>();
+        if(context.getPositiveEffectiveValue() < actualTargetValue + CHANGE_LOWER) {
+            //Every group would be drawn before reaching the target plus minimum change
+            for(int i = 0; i < positiveCount; i++) {
+                utxos.addAll(context.getOutputGroup(i).getUtxos());
+            }
+            return utxos;
+        }
+
+        //Partial Fisher-Yates shuffle, recording only the positions that have been swapped
+        Map<Integer, Integer> swapped = new HashMap<>();
+        Random random = ThreadLocalRandom.current();
+        long total = 0;
+        for(int drawn = 0; total < actualTargetValue + CHANGE_LOWER; drawn++) {
+            int position = drawn + random.nextInt(positiveCount - drawn);
+            int index = swapped.getOrDefault(position, position);
+            swapped.put(position, swapped.getOrDefault(drawn, drawn));
+
+            utxos.addAll(context.getOutputGroup(index).getUtxos());
+            total += context.getEffectiveValue(index);
+        }
+
+        return utxos;
+    }
+}
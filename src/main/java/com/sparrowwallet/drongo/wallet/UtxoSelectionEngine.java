@@ -0,0 +1,176 @@
+package com.sparrowwallet.drongo.wallet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a set of UTXO selectors concurrently over the filtered UTXO pools, and chooses the selection with the lowest waste.
+ * As with sequential selection, pools are considered in order of preference, so a result from a stricter filter is preferred over a result from a later filter.
+ * Results that have not completed within the time budget are ignored, unless no selection has succeeded by then.
+ */
+public class UtxoSelectionEngine {
+    private static final Logger log = LoggerFactory.getLogger(UtxoSelectionEngine.class);
+
+    public static final Duration DEFAULT_BUDGET = Duration.ofMillis(100);
+
+    private final Executor executor;
+    private final Duration budget;
+
+    public UtxoSelectionEngine() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BUDGET);
+    }
+
+    public UtxoSelectionEngine(Executor executor, Duration budget) {
+        this.executor = executor;
+        this.budget = budget;
+    }
+
+    public Duration getBudget() {
+        return budget;
+    }
+
+    /**
+     * Selects UTXOs for the target value
+     *
+     * @param utxoSelectors the selectors to run against each pool
+     * @param filteredPools the UTXO pools to select from, in order of preference
+     * @param targetValue the value the selected UTXOs must exceed
+     * @param noInputsFee the fee for the transaction without any inputs
+     * @param costOfChange the cost of creating and later spending a change output
+     * @return the selected UTXOs, or an empty collection if no selection succeeded
+     */
+    public Collection<BlockTransactionHashIndex> select(List<UtxoSelector> utxoSelectors, List<List<OutputGroup>> filteredPools, long targetValue, long noInputsFee, long costOfChange) {
+        CompletionService<Selection> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Selection>> futures = new ArrayList<>();
+        for(int poolIndex = 0; poolIndex < filteredPools.size(); poolIndex++) {
+            SelectionContext context = new SelectionContext(filteredPools.get(poolIndex));
+            for(int selectorIndex = 0; selectorIndex < utxoSelectors.size(); selectorIndex++) {
+                UtxoSelector utxoSelector = utxoSelectors.get(selectorIndex);
+                int order = poolIndex * utxoSelectors.size() + selectorIndex;
+                futures.add(completionService.submit(() -> new Selection(order, context, utxoSelector.select(targetValue, context))));
+            }
+        }
+
+        Selection best = null;
+        try {
+            long deadline = System.nanoTime() + budget.toNanos();
+            int outstanding = futures.size();
+            while(outstanding > 0) {
+                Future<Selection> future;
+                try {
+                    long remaining = deadline - System.nanoTime();
+                    if(remaining > 0) {
+                        future = completionService.poll(remaining, TimeUnit.NANOSECONDS);
+                    } else if(best == null) {
+                        //The budget is spent without a successful selection, so wait for the remaining selectors
+                        future = completionService.take();
+                    } else {
+                        break;
+                    }
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+                if(future == null) {
+                    continue;
+                }
+                outstanding--;
+
+                Selection selection;
+                try {
+                    selection = future.get();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch(ExecutionException e) {
+                    log.error("Error selecting UTXOs", e.getCause());
+                    continue;
+                }
+
+                if(selection.getTotalValue() > targetValue) {
+                    selection.calculateWaste(targetValue + noInputsFee, costOfChange);
+                    if(best == null || selection.isPreferredTo(best, utxoSelectors.size())) {
+                        best = selection;
+                    }
+                }
+            }
+        } finally {
+            //Selectors still queued or running past the budget are cancelled, so they do not occupy the executor after this call returns
+            for(Future<Selection> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return best == null ? Collections.emptyList() : best.selectedUtxos;
+    }
+
+    private static class Selection {
+        private final int order;
+        private final SelectionContext context;
+        private final Collection<BlockTransactionHashIndex> selectedUtxos;
+        private long waste;
+
+        public Selection(int order, SelectionContext context, Collection<BlockTransactionHashIndex> selectedUtxos) {
+            this.order = order;
+            this.context = context;
+            this.selectedUtxos = selectedUtxos;
+        }
+
+        public long getTotalValue() {
+            long total = 0;
+            for(BlockTransactionHashIndex utxo : selectedUtxos) {
+                total += utxo.getValue();
+            }
+
+            return total;
+        }
+
+        /**
+         * Calculates the waste of this selection as the difference between the fees paid now and those paid at the long term fee rate,
+         * plus either the excess over the target going to fees or the cost of creating a change output
+         */
+        public void calculateWaste(long actualTargetValue, long costOfChange) {
+            Map<BlockTransactionHashIndex, OutputGroup> utxoGroups = new HashMap<>();
+            for(OutputGroup outputGroup : context.getOutputGroups()) {
+                for(BlockTransactionHashIndex utxo : outputGroup.getUtxos()) {
+                    utxoGroups.put(utxo, outputGroup);
+                }
+            }
+
+            long inputsWaste = 0;
+            long effectiveValue = 0;
+            for(BlockTransactionHashIndex utxo : selectedUtxos) {
+                OutputGroup outputGroup = utxoGroups.get(utxo);
+                if(outputGroup != null) {
+                    int size = outputGroup.getUtxos().size();
+                    inputsWaste += (outputGroup.getFee() - outputGroup.getLongTermFee()) / size;
+                    effectiveValue += utxo.getValue() - outputGroup.getFee() / size;
+                } else {
+                    effectiveValue += utxo.getValue();
+                }
+            }
+
+            long excess = effectiveValue - actualTargetValue;
+            waste = inputsWaste + (excess > costOfChange ? costOfChange : Math.max(excess, 0));
+        }
+
+        public boolean isPreferredTo(Selection selection, int selectorsPerPool) {
+            int poolIndex = order / selectorsPerPool;
+            int otherPoolIndex = selection.order / selectorsPerPool;
+            if(poolIndex != otherPoolIndex) {
+                return poolIndex < otherPoolIndex;
+            }
+
+            if(waste != selection.waste) {
+                return waste < selection.waste;
+            }
+
+            return order < selection.order;
+        }
+    }
+}
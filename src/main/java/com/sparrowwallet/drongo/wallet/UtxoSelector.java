@@ -4,4 +4,12 @@ import java.util.Collection;
 
 public interface UtxoSelector {
     Collection<BlockTransactionHashIndex> select(long targetValue, Collection<OutputGroup> candidates);
+
+    /**
+     * Selects from a pool that has already been sorted and summed, so that it can be shared between selectors.
+     * Selectors that sort candidates by effective value should override this method to avoid doing so again.
+     */
+    default Collection<BlockTransactionHashIndex> select(long targetValue, SelectionContext context) {
+        return select(targetValue, context.getCandidates());
+    }
 }
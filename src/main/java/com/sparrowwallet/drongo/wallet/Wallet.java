@@ -31,12 +31,17 @@ public class Wallet extends Persistable {
     private ScriptType scriptType;
     private Policy defaultPolicy;
     private List<Keystore> keystores = new ArrayList<>();
-    private final TreeSet<WalletNode> purposeNodes = new TreeSet<>();
-    private final Map<Sha256Hash, BlockTransaction> transactions = new HashMap<>();
+    //Purpose nodes and transactions are replaced rather than modified on update, so readers always see a complete and unchanging snapshot without locking
+    private volatile TreeSet<WalletNode> purposeNodes = new TreeSet<>();
+    private volatile Map<Sha256Hash, BlockTransaction> transactions = Collections.emptyMap();
     private Integer storedBlockHeight;
     private Integer gapLimit;
     private Date birthDate;
 
+    private transient volatile InputWeight inputWeight;
+    private transient volatile UtxoGroupCache utxoGroupCache;
+    private final transient HistoryVersion historyVersion = new HistoryVersion();
+
     public Wallet() {
     }
 
@@ -117,21 +122,37 @@ public class Wallet extends Persistable {
         return keystores;
     }
 
+    /**
+     * Returns the wallet transactions as an unmodifiable snapshot. Later updates are published as a new map and do not change a returned snapshot.
+     * Use {@link #setTransactions(Map)} or {@link #updateTransactions(Map)} to change the transactions.
+     *
+     * @return the transactions keyed by txid
+     */
     public Map<Sha256Hash, BlockTransaction> getTransactions() {
-        return Collections.unmodifiableMap(transactions);
+        return transactions;
+    }
+
+    public synchronized void setTransactions(Map<Sha256Hash, BlockTransaction> transactions) {
+        this.transactions = Collections.unmodifiableMap(new HashMap<>(transactions));
     }
 
     public synchronized void updateTransactions(Map<Sha256Hash, BlockTransaction> updatedTransactions) {
+        Map<Sha256Hash, BlockTransaction> currentTransactions = transactions;
         for(BlockTransaction blockTx : updatedTransactions.values()) {
-            Optional<String> optionalLabel = transactions.values().stream().filter(oldBlTx -> oldBlTx.getHash().equals(blockTx.getHash())).map(BlockTransaction::getLabel).filter(Objects::nonNull).findFirst();
-            optionalLabel.ifPresent(blockTx::setLabel);
+            BlockTransaction oldBlkTx = currentTransactions.get(blockTx.getHash());
+            if(oldBlkTx != null && oldBlkTx.getLabel() != null) {
+                blockTx.setLabel(oldBlkTx.getLabel());
+            }
         }
 
-        transactions.putAll(updatedTransactions);
+        Map<Sha256Hash, BlockTransaction> newTransactions = new HashMap<>(currentTransactions);
+        newTransactions.putAll(updatedTransactions);
 
-        if(!transactions.isEmpty()) {
-            birthDate = transactions.values().stream().map(BlockTransactionHash::getDate).filter(Objects::nonNull).min(Date::compareTo).orElse(birthDate);
+        if(!newTransactions.isEmpty()) {
+            birthDate = newTransactions.values().stream().map(BlockTransactionHash::getDate).filter(Objects::nonNull).min(Date::compareTo).orElse(birthDate);
         }
+
+        transactions = Collections.unmodifiableMap(newTransactions);
     }
 
     public Integer getStoredBlockHeight() {
@@ -190,8 +211,22 @@ public class Wallet extends Persistable {
         this.childWallets = childWallets;
     }
 
-    public TreeSet<WalletNode> getPurposeNodes() {
-        return purposeNodes;
+    /**
+     * Returns the purpose nodes as an unmodifiable snapshot. Nodes added later are published as a new set and do not change a returned snapshot.
+     * Use {@link #setPurposeNodes(Collection)} to replace the purpose nodes.
+     *
+     * @return the purpose nodes in derivation order
+     */
+    public NavigableSet<WalletNode> getPurposeNodes() {
+        return Collections.unmodifiableNavigableSet(purposeNodes);
+    }
+
+    public synchronized void setPurposeNodes(Collection<WalletNode> purposeNodes) {
+        TreeSet<WalletNode> newPurposeNodes = new TreeSet<>(purposeNodes);
+        for(WalletNode purposeNode : newPurposeNodes) {
+            purposeNode.setHistoryVersion(historyVersion);
+        }
+        this.purposeNodes = newPurposeNodes;
     }
 
     public synchronized WalletNode getNode(KeyPurpose keyPurpose) {
@@ -199,7 +234,10 @@ public class Wallet extends Persistable {
         Optional<WalletNode> optionalPurposeNode = purposeNodes.stream().filter(node -> node.getKeyPurpose().equals(keyPurpose)).findFirst();
         if(optionalPurposeNode.isEmpty()) {
             purposeNode = new WalletNode(keyPurpose);
-            purposeNodes.add(purposeNode);
+            purposeNode.setHistoryVersion(historyVersion);
+            TreeSet<WalletNode> newPurposeNodes = new TreeSet<>(purposeNodes);
+            newPurposeNodes.add(purposeNode);
+            purposeNodes = newPurposeNodes;
         } else {
             purposeNode = optionalPurposeNode.get();
         }
@@ -482,6 +520,24 @@ public class Wallet extends Persistable {
      * @return the number of weight units (WU)
      */
     public int getInputWeightUnits() {
+        return getInputWeight().weightUnits;
+    }
+
+    private InputWeight getInputWeight() {
+        //The weight only depends on the script type and policy, so it is calculated once for each combination
+        Integer threshold = PolicyType.MULTI.equals(getPolicyType()) ? getDefaultPolicy().getNumSignaturesRequired() : null;
+        List<Object> weightKey = Arrays.asList(getPolicyType(), getScriptType(), getKeystores().size(), threshold);
+        InputWeight cachedWeight = inputWeight;
+        if(cachedWeight != null && cachedWeight.key.equals(weightKey)) {
+            return cachedWeight;
+        }
+
+        cachedWeight = calculateInputWeight(weightKey);
+        inputWeight = cachedWeight;
+        return cachedWeight;
+    }
+
+    private InputWeight calculateInputWeight(List<Object> weightKey) {
         //Estimate assuming an input spending from a fresh receive node - it does not matter this node has no real utxos
         WalletNode receiveNode = getFreshNode(KeyPurpose.RECEIVE);
 
@@ -509,7 +565,7 @@ public class Wallet extends Persistable {
             wu += txInput.getWitness().getLength();
         }
 
-        return wu;
+        return new InputWeight(weightKey, wu, transaction.isSegwit());
     }
 
     public long getCostOfChange(double feeRate, double longTermFeeRate) {
@@ -519,15 +575,64 @@ public class Wallet extends Persistable {
     }
 
     public WalletTransaction createWalletTransaction(List<UtxoSelector> utxoSelectors, List<UtxoFilter> utxoFilters, List<Payment> payments, List<WalletNode> excludedChangeNodes, double feeRate, double longTermFeeRate, Long fee, Integer currentBlockHeight, boolean groupByAddress, boolean includeMempoolOutputs, boolean includeSpentMempoolOutputs) throws InsufficientFundsException {
-        boolean sendMax = payments.stream().anyMatch(Payment::isSendMax);
-        long totalPaymentAmount = payments.stream().map(Payment::getAmount).mapToLong(v -> v).sum();
-        long totalUtxoValue = getWalletUtxos().keySet().stream().mapToLong(BlockTransactionHashIndex::getValue).sum();
+        return createWalletTransaction(utxoSelectors, utxoFilters, payments, excludedChangeNodes, feeRate, longTermFeeRate, fee, currentBlockHeight, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs, null);
+    }
 
+    /**
+     * Creates a wallet transaction, optionally using a selection engine to run the UTXO selectors concurrently and choose the lowest waste selection.
+     * When the selection engine is null, the selectors are tried in order and the first successful selection is used.
+     */
+    public WalletTransaction createWalletTransaction(List<UtxoSelector> utxoSelectors, List<UtxoFilter> utxoFilters, List<Payment> payments, List<WalletNode> excludedChangeNodes, double feeRate, double longTermFeeRate, Long fee, Integer currentBlockHeight, boolean groupByAddress, boolean includeMempoolOutputs, boolean includeSpentMempoolOutputs, UtxoSelectionEngine selectionEngine) throws InsufficientFundsException {
+        WalletTransactionPlan plan = planWalletTransaction(utxoSelectors, utxoFilters, payments, excludedChangeNodes, feeRate, longTermFeeRate, fee, currentBlockHeight, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs, selectionEngine);
+        return createWalletTransaction(plan);
+    }
+
+    /**
+     * Plans a wallet transaction without building it. Input selection, fees and change are determined as for createWalletTransaction,
+     * but transaction weights are calculated from the input and output sizes of this wallet rather than by adding dummy signed inputs to a transaction.
+     * As with createWalletTransaction, the amount of a send max payment is set on the provided payment.
+     *
+     * @return the plan, which can be converted to a wallet transaction with createWalletTransaction(WalletTransactionPlan)
+     */
+    public WalletTransactionPlan planWalletTransaction(List<UtxoSelector> utxoSelectors, List<UtxoFilter> utxoFilters, List<Payment> payments, List<WalletNode> excludedChangeNodes, double feeRate, double longTermFeeRate, Long fee, Integer currentBlockHeight, boolean groupByAddress, boolean includeMempoolOutputs, boolean includeSpentMempoolOutputs, UtxoSelectionEngine selectionEngine) throws InsufficientFundsException {
         if(fee != null && feeRate != Transaction.DEFAULT_MIN_RELAY_FEE) {
             throw new IllegalArgumentException("Use an input fee rate of 1 sat/vB when using a defined fee amount so UTXO selectors overestimate effective value");
         }
 
-        long maxSpendableAmt = getMaxSpendable(payments.stream().map(Payment::getAddress).collect(Collectors.toList()), feeRate);
+        PlanningContext planningContext = new PlanningContext(payments, excludedChangeNodes);
+        return planWalletTransaction(planningContext, utxoSelectors, utxoFilters, payments, feeRate, longTermFeeRate, fee, currentBlockHeight, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs, selectionEngine);
+    }
+
+    /**
+     * Plans a wallet transaction for each of a number of fee rates, sharing the work that does not depend on the fee rate.
+     * The UTXOs, their grouping and wallet origin, input and output sizes and change node are determined once for all of the fee rates.
+     * Each plan is made with its own copy of the payments, so the amount of a send max payment is set in the plan and not on the provided payment.
+     *
+     * @param utxoSelectors provides the selectors to use for each fee rate, as selectors such as BnBUtxoSelector are configured for a fee rate
+     * @param feeRates the fee rates in sats/vB
+     * @return the plans keyed by fee rate, in the order provided, omitting fee rates at which the payments cannot be funded
+     */
+    public Map<Double, WalletTransactionPlan> planWalletTransactions(Function<Double, List<UtxoSelector>> utxoSelectors, List<UtxoFilter> utxoFilters, List<Payment> payments, List<WalletNode> excludedChangeNodes, List<Double> feeRates, double longTermFeeRate, Integer currentBlockHeight, boolean groupByAddress, boolean includeMempoolOutputs, boolean includeSpentMempoolOutputs) {
+        PlanningContext planningContext = new PlanningContext(payments, excludedChangeNodes);
+        Map<Double, WalletTransactionPlan> plans = new LinkedHashMap<>();
+        for(Double feeRate : feeRates) {
+            List<Payment> feeRatePayments = payments.stream().map(payment -> new Payment(payment.getAddress(), payment.getLabel(), payment.getAmount(), payment.isSendMax())).collect(Collectors.toList());
+            try {
+                plans.put(feeRate, planWalletTransaction(planningContext, utxoSelectors.apply(feeRate), utxoFilters, feeRatePayments, feeRate, longTermFeeRate, null, currentBlockHeight, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs, null));
+            } catch(InsufficientFundsException e) {
+                //Omit fee rates that cannot be afforded
+            }
+        }
+
+        return plans;
+    }
+
+    private WalletTransactionPlan planWalletTransaction(PlanningContext planningContext, List<UtxoSelector> utxoSelectors, List<UtxoFilter> utxoFilters, List<Payment> payments, double feeRate, double longTermFeeRate, Long fee, Integer currentBlockHeight, boolean groupByAddress, boolean includeMempoolOutputs, boolean includeSpentMempoolOutputs, UtxoSelectionEngine selectionEngine) throws InsufficientFundsException {
+        boolean sendMax = payments.stream().anyMatch(Payment::isSendMax);
+        long totalPaymentAmount = payments.stream().map(Payment::getAmount).mapToLong(v -> v).sum();
+        long totalUtxoValue = planningContext.totalUtxoValue;
+
+        long maxSpendableAmt = planningContext.getMaxSpendable(feeRate);
         if(maxSpendableAmt < 0) {
             throw new InsufficientFundsException("Not enough combined value in all available UTXOs to send a transaction to the provided addresses at this fee rate");
         }
@@ -539,32 +644,15 @@ public class Wallet extends Persistable {
             throw new InsufficientFundsException("Not enough combined value in all available UTXOs to send a transaction to send the provided payments at the user set fee" + (fee == null ? " rate" : ""));
         }
 
+        InputWeight inputWeight = planningContext.inputWeight;
+        int paymentOutputsLength = planningContext.paymentOutputsLength;
+
         while(true) {
-            Map<BlockTransactionHashIndex, WalletNode> selectedUtxos = selectInputs(utxoSelectors, utxoFilters, valueRequiredAmt, feeRate, longTermFeeRate, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs, sendMax);
+            Map<BlockTransactionHashIndex, WalletNode> selectedUtxos = selectInputs(utxoSelectors, utxoFilters, payments, valueRequiredAmt, feeRate, longTermFeeRate, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs, sendMax, selectionEngine);
             long totalSelectedAmt = selectedUtxos.keySet().stream().mapToLong(BlockTransactionHashIndex::getValue).sum();
 
-            Transaction transaction = new Transaction();
-            transaction.setVersion(2);
-            if(currentBlockHeight != null) {
-                transaction.setLocktime(currentBlockHeight.longValue());
-            }
-
-            //Add inputs
-            for(Map.Entry<BlockTransactionHashIndex, WalletNode> selectedUtxo : selectedUtxos.entrySet()) {
-                Transaction prevTx = getTransactions().get(selectedUtxo.getKey().getHash()).getTransaction();
-                TransactionOutput prevTxOut = prevTx.getOutputs().get((int)selectedUtxo.getKey().getIndex());
-                TransactionInput txInput = addDummySpendingInput(transaction, selectedUtxo.getValue(), prevTxOut);
-
-                //Enable opt-in RBF by default, matching Bitcoin Core and Electrum
-                txInput.setSequenceNumber(TransactionInput.SEQUENCE_RBF_ENABLED);
-            }
-
-            //Add recipient outputs
-            for(Payment payment : payments) {
-                transaction.addOutput(payment.getAmount(), payment.getAddress());
-            }
-
-            double noChangeVSize = transaction.getVirtualSize();
+            int noChangeWeightUnits = getTransactionWeightUnits(inputWeight, selectedUtxos.size(), payments.size(), paymentOutputsLength);
+            double noChangeVSize = (double)noChangeWeightUnits / (double)WITNESS_SCALE_FACTOR;
             long noChangeFeeRequiredAmt = (fee == null ? (long)Math.floor(feeRate * noChangeVSize) : fee);
 
             //Add 1 satoshi to accommodate longer signatures when feeRate equals default min relay fee to ensure fee is sufficient
@@ -591,25 +679,23 @@ public class Wallet extends Persistable {
             if(differenceAmt < noChangeFeeRequiredAmt) {
                 valueRequiredAmt = totalSelectedAmt + 1;
                 //If we haven't selected all UTXOs yet, don't require more than the max spendable amount
-                if(valueRequiredAmt > maxSpendableAmt && transaction.getInputs().size() < getWalletUtxos().size()) {
+                if(valueRequiredAmt > maxSpendableAmt && selectedUtxos.size() < planningContext.utxoValues.size()) {
                     valueRequiredAmt =  maxSpendableAmt;
                 }
 
                 continue;
             }
 
+            WalletNode changeNode = planningContext.getChangeNode();
+            int changeOutputLength = planningContext.changeOutputLength;
+
             //Determine if a change output is required by checking if its value is greater than its dust threshold
             long changeAmt = differenceAmt - noChangeFeeRequiredAmt;
-            double noChangeFeeRate = (fee == null ? feeRate : noChangeFeeRequiredAmt / transaction.getVirtualSize());
-            long costOfChangeAmt = getCostOfChange(noChangeFeeRate, longTermFeeRate);
+            double noChangeFeeRate = (fee == null ? feeRate : noChangeFeeRequiredAmt / noChangeVSize);
+            long costOfChangeAmt = (long)(noChangeFeeRate * changeOutputLength + longTermFeeRate * getInputVbytes());
             if(changeAmt > costOfChangeAmt) {
                 //Change output is required, determine new fee once change output has been added
-                WalletNode changeNode = getFreshNode(KeyPurpose.CHANGE);
-                while(excludedChangeNodes.contains(changeNode)) {
-                    changeNode = getFreshNode(KeyPurpose.CHANGE, changeNode);
-                }
-                TransactionOutput changeOutput = new TransactionOutput(transaction, changeAmt, getOutputScript(changeNode));
-                double changeVSize = noChangeVSize + changeOutput.getLength();
+                double changeVSize = noChangeVSize + changeOutputLength;
                 long changeFeeRequiredAmt = (fee == null ? (long)Math.floor(feeRate * changeVSize) : fee);
                 changeFeeRequiredAmt = (fee == null && feeRate == Transaction.DEFAULT_MIN_RELAY_FEE ? changeFeeRequiredAmt + 1 : changeFeeRequiredAmt);
 
@@ -621,14 +707,222 @@ public class Wallet extends Persistable {
                     continue;
                 }
 
-                //Add change output
-                transaction.addOutput(changeAmt, getOutputScript(changeNode));
+                int changeWeightUnits = getTransactionWeightUnits(inputWeight, selectedUtxos.size(), payments.size() + 1, paymentOutputsLength + changeOutputLength);
+                return new WalletTransactionPlan(utxoSelectors, selectedUtxos, payments, changeNode, changeAmt, changeFeeRequiredAmt, currentBlockHeight, changeWeightUnits);
+            }
 
-                return new WalletTransaction(this, transaction, utxoSelectors, selectedUtxos, payments, changeNode, changeAmt, changeFeeRequiredAmt);
+            return new WalletTransactionPlan(utxoSelectors, selectedUtxos, payments, null, 0L, differenceAmt, currentBlockHeight, noChangeWeightUnits);
+        }
+    }
+
+    /**
+     * Builds the wallet transaction described by a plan, with dummy signatures on each input
+     *
+     * @param plan the plan created by planWalletTransaction
+     * @return the wallet transaction
+     */
+    public WalletTransaction createWalletTransaction(WalletTransactionPlan plan) {
+        Transaction transaction = new Transaction();
+        transaction.setVersion(2);
+        if(plan.getCurrentBlockHeight() != null) {
+            transaction.setLocktime(plan.getCurrentBlockHeight().longValue());
+        }
+
+        //Add inputs
+        for(Map.Entry<BlockTransactionHashIndex, WalletNode> selectedUtxo : plan.getSelectedUtxos().entrySet()) {
+            Transaction prevTx = getTransactions().get(selectedUtxo.getKey().getHash()).getTransaction();
+            TransactionOutput prevTxOut = prevTx.getOutputs().get((int)selectedUtxo.getKey().getIndex());
+            TransactionInput txInput = addDummySpendingInput(transaction, selectedUtxo.getValue(), prevTxOut);
+
+            //Enable opt-in RBF by default, matching Bitcoin Core and Electrum
+            txInput.setSequenceNumber(TransactionInput.SEQUENCE_RBF_ENABLED);
+        }
+
+        //Add recipient outputs
+        for(Payment payment : plan.getPayments()) {
+            transaction.addOutput(payment.getAmount(), payment.getAddress());
+        }
+
+        if(plan.getChangeNode() != null) {
+            //Add change output
+            transaction.addOutput(plan.getChangeAmount(), getOutputScript(plan.getChangeNode()));
+            return new WalletTransaction(this, transaction, plan.getUtxoSelectors(), plan.getSelectedUtxos(), plan.getPayments(), plan.getChangeNode(), plan.getChangeAmount(), plan.getFee());
+        }
+
+        return new WalletTransaction(this, transaction, plan.getUtxoSelectors(), plan.getSelectedUtxos(), plan.getPayments(), plan.getFee());
+    }
+
+    /**
+     * Creates as few wallet transactions as possible to make a large number of payments, keeping each transaction within a weight limit.
+     * Payments are assigned to transactions in order. Each transaction selects from, and is funded by the value of, the UTXOs that have not been selected
+     * by earlier transactions, and is given its own change node. The selectors are shared across transactions, so they should not depend on the payments being made.
+     *
+     * @param payments the payments to make, none of which may be send max payments
+     * @param maxWeightUnits the maximum weight of each transaction, for example Transaction.MAX_STANDARD_TX_WEIGHT
+     * @return the wallet transactions, from which PSBTs can be created
+     * @throws InsufficientFundsException if the wallet cannot fund all of the payments
+     */
+    public List<WalletTransaction> createBatchWalletTransactions(List<UtxoSelector> utxoSelectors, List<UtxoFilter> utxoFilters, List<Payment> payments, double feeRate, double longTermFeeRate, Integer currentBlockHeight, int maxWeightUnits, boolean groupByAddress, boolean includeMempoolOutputs, boolean includeSpentMempoolOutputs) throws InsufficientFundsException {
+        if(payments.stream().anyMatch(Payment::isSendMax)) {
+            throw new IllegalArgumentException("Send max payments cannot be batched");
+        }
+
+        int[] paymentOutputLengths = new int[payments.size()];
+        for(int i = 0; i < payments.size(); i++) {
+            paymentOutputLengths[i] = getOutputLength(payments.get(i).getAddress().getOutputScript());
+        }
+
+        InputWeight inputWeight = getInputWeight();
+        int changeOutputLength = getOutputLength(getOutputScript(getFreshNode(KeyPurpose.CHANGE)));
+        Set<HashIndex> consumedUtxos = new HashSet<>();
+        List<WalletNode> changeNodes = new ArrayList<>();
+        List<WalletTransactionPlan> plans = new ArrayList<>();
+
+        int start = 0;
+        while(start < payments.size()) {
+            //Start with as many payments as fit alongside a single input and a change output
+            int end = start;
+            int outputsLength = 0;
+            while(end < payments.size() && getTransactionWeightUnits(inputWeight, 1, end - start + 2, outputsLength + paymentOutputLengths[end] + changeOutputLength) <= maxWeightUnits) {
+                outputsLength += paymentOutputLengths[end];
+                end++;
+            }
+            if(end == start) {
+                throw new IllegalArgumentException("The maximum transaction weight of " + maxWeightUnits + " WU is too low to make a payment");
+            }
+
+            List<UtxoFilter> batchFilters = new ArrayList<>(utxoFilters);
+            batchFilters.add(new ConsumedUtxoFilter(consumedUtxos));
+            UtxoValues utxoValues = getUtxoValues(consumedUtxos);
+
+            WalletTransactionPlan plan;
+            while(true) {
+                List<Payment> batchPayments = new ArrayList<>(payments.subList(start, end));
+                PlanningContext planningContext = new PlanningContext(batchPayments, changeNodes, utxoValues);
+                plan = planWalletTransaction(planningContext, utxoSelectors, batchFilters, batchPayments, feeRate, longTermFeeRate, null, currentBlockHeight, groupByAddress, includeMempoolOutputs, includeSpentMempoolOutputs, null);
+                if(plan.getWeightUnits() <= maxWeightUnits) {
+                    break;
+                }
+                if(end - start == 1) {
+                    throw new InsufficientFundsException("A single payment requires more inputs than fit within the maximum transaction weight of " + maxWeightUnits + " WU");
+                }
+
+                //The excess weight is mostly from the inputs the payments require, so reduce the payments in proportion to the excess and plan again
+                int numPayments = (int)((long)(end - start) * maxWeightUnits / plan.getWeightUnits());
+                end = start + Math.max(1, Math.min(end - start - 1, numPayments));
+            }
+
+            for(BlockTransactionHashIndex utxo : plan.getSelectedUtxos().keySet()) {
+                consumedUtxos.add(new HashIndex(utxo.getHash(), (int)utxo.getIndex()));
+            }
+            if(plan.getChangeNode() != null) {
+                changeNodes.add(plan.getChangeNode());
             }
+            plans.add(plan);
+            start = end;
+        }
 
-            return new WalletTransaction(this, transaction, utxoSelectors, selectedUtxos, payments, differenceAmt);
+        List<WalletTransaction> walletTransactions = new ArrayList<>(plans.size());
+        for(WalletTransactionPlan plan : plans) {
+            walletTransactions.add(createWalletTransaction(plan));
         }
+
+        return walletTransactions;
+    }
+
+    /**
+     * Plans transactions that consolidate the confirmed UTXOs of this wallet into fewer outputs while fees are low.
+     * A UTXO group is consolidated when it is worth more than the fee to spend it now, and spending it now is cheaper than at the long term fee rate.
+     * The groups are spent smallest first into transactions within the weight limit, each paying to its own fresh change address.
+     *
+     * @param feeRate the fee rate for the consolidation transactions in sats/vB, which must be below the long term fee rate
+     * @param maxWeightUnits the maximum weight of each transaction, for example Transaction.MAX_STANDARD_TX_WEIGHT
+     * @return the plans, which are empty when no consolidation is worthwhile
+     */
+    public List<WalletTransactionPlan> planConsolidation(List<UtxoFilter> utxoFilters, double feeRate, double longTermFeeRate, Integer currentBlockHeight, int maxWeightUnits, boolean groupByAddress) {
+        OutputGroup.Filter confirmedFilter = new OutputGroup.Filter(1, 1);
+        List<OutputGroup> candidates = getGroupedUtxos(utxoFilters, feeRate, longTermFeeRate, groupByAddress, false).stream()
+                .filter(confirmedFilter::isEligible)
+                .filter(outputGroup -> outputGroup.getEffectiveValue() > 0 && outputGroup.getFee() < outputGroup.getLongTermFee())
+                .sorted(Comparator.comparingLong(OutputGroup::getEffectiveValue))
+                .collect(Collectors.toList());
+
+        InputWeight inputWeight = getInputWeight();
+        Map<BlockTransactionHashIndex, WalletNode> walletUtxos = getWalletUtxos();
+        List<WalletNode> changeNodes = new ArrayList<>();
+        List<WalletTransactionPlan> plans = new ArrayList<>();
+
+        int start = 0;
+        while(start < candidates.size()) {
+            WalletNode changeNode = getFreshNode(KeyPurpose.CHANGE, changeNodes.isEmpty() ? null : changeNodes.get(changeNodes.size() - 1));
+            Address address = getAddress(changeNode);
+            int outputLength = getOutputLength(address.getOutputScript());
+
+            Map<BlockTransactionHashIndex, WalletNode> selectedUtxos = new LinkedHashMap<>();
+            int end = start;
+            while(end < candidates.size()) {
+                List<BlockTransactionHashIndex> groupUtxos = candidates.get(end).getUtxos();
+                if(getTransactionWeightUnits(inputWeight, selectedUtxos.size() + groupUtxos.size(), 1, outputLength) > maxWeightUnits) {
+                    break;
+                }
+                for(BlockTransactionHashIndex utxo : groupUtxos) {
+                    selectedUtxos.put(utxo, walletUtxos.get(utxo));
+                }
+                end++;
+            }
+            if(end == start) {
+                throw new IllegalArgumentException("The maximum transaction weight of " + maxWeightUnits + " WU is too low to consolidate a UTXO group");
+            }
+
+            //Spending a single UTXO to a new address does not reduce the number of UTXOs
+            if(selectedUtxos.size() > 1) {
+                int weightUnits = getTransactionWeightUnits(inputWeight, selectedUtxos.size(), 1, outputLength);
+                long fee = (long)Math.floor(feeRate * ((double)weightUnits / (double)WITNESS_SCALE_FACTOR));
+                fee = (feeRate == Transaction.DEFAULT_MIN_RELAY_FEE ? fee + 1 : fee);
+                long totalSelectedAmt = selectedUtxos.keySet().stream().mapToLong(BlockTransactionHashIndex::getValue).sum();
+                long amount = totalSelectedAmt - fee;
+                if(amount > getDustThreshold(new TransactionOutput(new Transaction(), amount, address.getOutputScript()), feeRate)) {
+                    List<Payment> payments = List.of(new Payment(address, "Consolidation", amount, true));
+                    plans.add(new WalletTransactionPlan(List.of(new PresetUtxoSelector(selectedUtxos.keySet())), selectedUtxos, payments, null, 0L, fee, currentBlockHeight, weightUnits));
+                    changeNodes.add(changeNode);
+                }
+            }
+
+            start = end;
+        }
+
+        return plans;
+    }
+
+    /**
+     * Creates the PSBTs for a number of planned transactions in parallel
+     * Keys derived from the shared keystores are cached in a synchronized hierarchy, and the wallet nodes and transactions are read from their published snapshots
+     *
+     * @param plans the plans, which must not spend the same UTXOs
+     * @return the PSBTs, in the same order as the plans
+     */
+    public List<PSBT> createPSBTs(List<WalletTransactionPlan> plans) {
+        return plans.parallelStream().map(plan -> createWalletTransaction(plan).createPSBT()).collect(Collectors.toList());
+    }
+
+    private int getTransactionWeightUnits(InputWeight inputWeight, int numInputs, int numOutputs, int outputsLength) {
+        //Matches Transaction.getWeightUnits for a transaction spending inputs from this wallet
+        int wu = 4 * WITNESS_SCALE_FACTOR;
+        if(inputWeight.segwit && numInputs > 0) {
+            wu += 2;
+        }
+        wu += VarInt.sizeOf(numInputs) * WITNESS_SCALE_FACTOR;
+        wu += numInputs * inputWeight.weightUnits;
+        wu += VarInt.sizeOf(numOutputs) * WITNESS_SCALE_FACTOR;
+        wu += outputsLength * WITNESS_SCALE_FACTOR;
+        wu += 4 * WITNESS_SCALE_FACTOR;
+        return wu;
+    }
+
+    private static int getOutputLength(Script outputScript) {
+        //Value, script length and script
+        int scriptLength = outputScript.getProgram().length;
+        return 8 + VarInt.sizeOf(scriptLength) + scriptLength;
     }
 
     public TransactionInput addDummySpendingInput(Transaction transaction, WalletNode walletNode, TransactionOutput prevTxOut) {
@@ -648,7 +942,7 @@ public class Wallet extends Persistable {
         }
     }
 
-    private Map<BlockTransactionHashIndex, WalletNode> selectInputs(List<UtxoSelector> utxoSelectors, List<UtxoFilter> utxoFilters, Long targetValue, double feeRate, double longTermFeeRate, boolean groupByAddress, boolean includeMempoolOutputs, boolean includeSpentMempoolOutputs, boolean sendMax) throws InsufficientFundsException {
+    private Map<BlockTransactionHashIndex, WalletNode> selectInputs(List<UtxoSelector> utxoSelectors, List<UtxoFilter> utxoFilters, List<Payment> payments, Long targetValue, double feeRate, double longTermFeeRate, boolean groupByAddress, boolean includeMempoolOutputs, boolean includeSpentMempoolOutputs, boolean sendMax, UtxoSelectionEngine selectionEngine) throws InsufficientFundsException {
         List<OutputGroup> utxoPool = getGroupedUtxos(utxoFilters, feeRate, longTermFeeRate, groupByAddress, includeSpentMempoolOutputs);
 
         List<OutputGroup.Filter> filters = new ArrayList<>();
@@ -662,11 +956,30 @@ public class Wallet extends Persistable {
             Collections.reverse(filters);
         }
 
+        if(selectionEngine != null) {
+            List<List<OutputGroup>> filteredPools = new ArrayList<>();
+            for(OutputGroup.Filter filter : filters) {
+                filteredPools.add(utxoPool.stream().filter(filter::isEligible).collect(Collectors.toList()));
+            }
+
+            long noInputsFee = getNoInputsFee(payments, feeRate);
+            long costOfChange = getCostOfChange(feeRate, longTermFeeRate);
+            Collection<BlockTransactionHashIndex> selectedInputs = selectionEngine.select(utxoSelectors, filteredPools, targetValue, noInputsFee, costOfChange);
+            if(!selectedInputs.isEmpty()) {
+                Map<BlockTransactionHashIndex, WalletNode> utxos = getWalletUtxos(includeSpentMempoolOutputs);
+                utxos.keySet().retainAll(selectedInputs);
+                return utxos;
+            }
+
+            throw new InsufficientFundsException("Not enough combined value in UTXOs for output value " + targetValue);
+        }
+
         for(OutputGroup.Filter filter : filters) {
             List<OutputGroup> filteredPool = utxoPool.stream().filter(filter::isEligible).collect(Collectors.toList());
+            SelectionContext selectionContext = new SelectionContext(filteredPool);
 
             for(UtxoSelector utxoSelector : utxoSelectors) {
-                Collection<BlockTransactionHashIndex> selectedInputs = utxoSelector.select(targetValue, filteredPool);
+                Collection<BlockTransactionHashIndex> selectedInputs = utxoSelector.select(targetValue, selectionContext);
                 long total = selectedInputs.stream().mapToLong(BlockTransactionHashIndex::getValue).sum();
                 if(total > targetValue) {
                     Map<BlockTransactionHashIndex, WalletNode> utxos = getWalletUtxos(includeSpentMempoolOutputs);
@@ -680,13 +993,31 @@ public class Wallet extends Persistable {
     }
 
     private List<OutputGroup> getGroupedUtxos(List<UtxoFilter> utxoFilters, double feeRate, double longTermFeeRate, boolean groupByAddress, boolean includeSpentMempoolOutputs) {
-        List<OutputGroup> outputGroups = new ArrayList<>();
-        getGroupedUtxos(outputGroups, getNode(KeyPurpose.RECEIVE), utxoFilters, feeRate, longTermFeeRate, groupByAddress, includeSpentMempoolOutputs);
-        getGroupedUtxos(outputGroups, getNode(KeyPurpose.CHANGE), utxoFilters, feeRate, longTermFeeRate, groupByAddress, includeSpentMempoolOutputs);
+        //Groups are reused while the wallet history, node outputs and their spent and frozen states are unchanged
+        UtxoState utxoState = getUtxoState();
+        UtxoGroupCache cache = utxoGroupCache;
+        if(cache == null || !cache.utxoState.equals(utxoState)) {
+            cache = new UtxoGroupCache(utxoState);
+            utxoGroupCache = cache;
+        }
+
+        GroupedUtxosKey groupedUtxosKey = new GroupedUtxosKey(utxoFilters, feeRate, longTermFeeRate, groupByAddress, includeSpentMempoolOutputs);
+        List<OutputGroup> outputGroups = cache.getOutputGroups(groupedUtxosKey);
+        if(outputGroups == null) {
+            List<OutputGroup> groups = new ArrayList<>();
+            int inputWeightUnits = getInputWeightUnits();
+            getGroupedUtxos(groups, getNode(KeyPurpose.RECEIVE), cache, inputWeightUnits, utxoFilters, feeRate, longTermFeeRate, groupByAddress, includeSpentMempoolOutputs);
+            getGroupedUtxos(groups, getNode(KeyPurpose.CHANGE), cache, inputWeightUnits, utxoFilters, feeRate, longTermFeeRate, groupByAddress, includeSpentMempoolOutputs);
+            //Cached groups are returned to every caller, so they are made unmodifiable
+            groups.forEach(OutputGroup::share);
+            outputGroups = Collections.unmodifiableList(groups);
+            cache.putOutputGroups(groupedUtxosKey, outputGroups);
+        }
+
         return outputGroups;
     }
 
-    private void getGroupedUtxos(List<OutputGroup> outputGroups, WalletNode purposeNode, List<UtxoFilter> utxoFilters, double feeRate, double longTermFeeRate, boolean groupByAddress, boolean includeSpentMempoolOutputs) {
+    private void getGroupedUtxos(List<OutputGroup> outputGroups, WalletNode purposeNode, UtxoGroupCache cache, int inputWeightUnits, List<UtxoFilter> utxoFilters, double feeRate, double longTermFeeRate, boolean groupByAddress, boolean includeSpentMempoolOutputs) {
         for(WalletNode addressNode : purposeNode.getChildren()) {
             OutputGroup outputGroup = null;
             for(BlockTransactionHashIndex utxo : addressNode.getUnspentTransactionOutputs(includeSpentMempoolOutputs)) {
@@ -696,15 +1027,26 @@ public class Wallet extends Persistable {
                 }
 
                 if(outputGroup == null || !groupByAddress) {
-                    outputGroup = new OutputGroup(getStoredBlockHeight(), getInputWeightUnits(), feeRate, longTermFeeRate);
+                    outputGroup = new OutputGroup(getStoredBlockHeight(), inputWeightUnits, feeRate, longTermFeeRate);
                     outputGroups.add(outputGroup);
                 }
 
-                outputGroup.add(utxo, allInputsFromWallet(utxo.getHash()));
+                outputGroup.add(utxo, cache.allInputsFromWallet(utxo.getHash(), this));
             }
         }
     }
 
+    /**
+     * Captures the state that grouped UTXOs depend on without traversing the wallet.
+     * Changes to node outputs and to the spent and frozen states of outputs are counted by the wallet's HistoryVersion.
+     */
+    private UtxoState getUtxoState() {
+        //Filling the purpose nodes to the gap limit may add nodes, so this is done before the version is read
+        getNode(KeyPurpose.RECEIVE);
+        getNode(KeyPurpose.CHANGE);
+        return new UtxoState(historyVersion.get(), purposeNodes, transactions, storedBlockHeight);
+    }
+
     /**
      * Determines if the provided wallet transaction was created from a purely internal transaction
      *
@@ -712,6 +1054,10 @@ public class Wallet extends Persistable {
      * @return Whether the transaction was created entirely from inputs that reference outputs that belong to this wallet
      */
     public boolean allInputsFromWallet(Sha256Hash txId) {
+        return allInputsFromWallet(txId, getWalletTxos());
+    }
+
+    private boolean allInputsFromWallet(Sha256Hash txId, Map<BlockTransactionHashIndex, WalletNode> walletTxos) {
         BlockTransaction utxoBlkTx = getTransactions().get(txId);
         if(utxoBlkTx == null) {
             //Provided txId was not a wallet transaction
@@ -729,7 +1075,7 @@ public class Wallet extends Persistable {
             TransactionOutput prevTxOut = prevBlkTx.getTransaction().getOutputs().get(index);
             BlockTransactionHashIndex spendingTXI = new BlockTransactionHashIndex(utxoBlkTx.getHash(), utxoBlkTx.getHeight(), utxoBlkTx.getDate(), utxoBlkTx.getFee(), i, prevTxOut.getValue());
             BlockTransactionHashIndex spentTXO = new BlockTransactionHashIndex(prevBlkTx.getHash(), prevBlkTx.getHeight(), prevBlkTx.getDate(), prevBlkTx.getFee(), index, prevTxOut.getValue(), spendingTXI);
-            if(!isWalletTxo(spentTXO)) {
+            if(!walletTxos.containsKey(spentTXO)) {
                 return false;
             }
         }
@@ -745,28 +1091,44 @@ public class Wallet extends Persistable {
      * @return the maximum spendable amount (can be negative if the fee is higher than the combined UTXO value)
      */
     public long getMaxSpendable(List<Address> paymentAddresses, double feeRate) {
-        long maxInputValue = 0;
-        int inputWeightUnits = getInputWeightUnits();
-        long minInputValue = (long)Math.ceil(feeRate * inputWeightUnits / WITNESS_SCALE_FACTOR);
-
-        Transaction transaction = new Transaction();
-        for(Map.Entry<BlockTransactionHashIndex, WalletNode> utxo : getWalletUtxos().entrySet()) {
-            if(utxo.getKey().getValue() > minInputValue) {
-                Transaction prevTx = getTransactions().get(utxo.getKey().getHash()).getTransaction();
-                TransactionOutput prevTxOut = prevTx.getOutputs().get((int)utxo.getKey().getIndex());
-                addDummySpendingInput(transaction, utxo.getValue(), prevTxOut);
-                maxInputValue += utxo.getKey().getValue();
-            }
-        }
-
+        int outputsLength = 0;
         for(Address address : paymentAddresses) {
-            transaction.addOutput(1L, address);
+            outputsLength += getOutputLength(address.getOutputScript());
         }
 
-        long fee = (long)Math.floor(transaction.getVirtualSize() * feeRate);
+        return getMaxSpendable(getUtxoValues(), getInputWeight(), paymentAddresses.size(), outputsLength, feeRate);
+    }
+
+    private long getMaxSpendable(UtxoValues utxoValues, InputWeight inputWeight, int numOutputs, int outputsLength, double feeRate) {
+        //Spend every UTXO worth more than the fee to spend it, calculating the weight of the transaction rather than building it
+        long minInputValue = (long)Math.ceil(feeRate * inputWeight.weightUnits / WITNESS_SCALE_FACTOR);
+        int numInputs = utxoValues.countAbove(minInputValue);
+        long maxInputValue = utxoValues.sumAbove(minInputValue);
+
+        int weightUnits = getTransactionWeightUnits(inputWeight, numInputs, numOutputs, outputsLength);
+        long fee = (long)Math.floor((double)weightUnits / (double)WITNESS_SCALE_FACTOR * feeRate);
         return maxInputValue - fee;
     }
 
+    private UtxoValues getUtxoValues() {
+        return getUtxoValues(Collections.emptySet());
+    }
+
+    private UtxoValues getUtxoValues(Set<HashIndex> excludedUtxos) {
+        List<Long> values = new ArrayList<>();
+        for(KeyPurpose keyPurpose : List.of(KeyPurpose.RECEIVE, KeyPurpose.CHANGE)) {
+            for(WalletNode addressNode : getNode(keyPurpose).getChildren()) {
+                for(BlockTransactionHashIndex txo : addressNode.getTransactionOutputs()) {
+                    if(!txo.isSpent() && (excludedUtxos.isEmpty() || !excludedUtxos.contains(new HashIndex(txo.getHash(), (int)txo.getIndex())))) {
+                        values.add(txo.getValue());
+                    }
+                }
+            }
+        }
+
+        return new UtxoValues(values.stream().mapToLong(v -> v).toArray());
+    }
+
     public boolean canSign(Transaction transaction) {
         return isValid() && !getSigningNodes(transaction).isEmpty();
     }
@@ -939,12 +1301,25 @@ public class Wallet extends Persistable {
         Map<PSBTInput, WalletNode> signingNodes = getSigningNodes(psbt);
         for(Keystore keystore : getKeystores()) {
             if(keystore.hasPrivateKey()) {
-                for(Map.Entry<PSBTInput, WalletNode> signingEntry : signingNodes.entrySet()) {
-                    ECKey privKey = getScriptType().getOutputKey(keystore.getKey(signingEntry.getValue()));
-                    PSBTInput psbtInput = signingEntry.getKey();
-
-                    if(!psbtInput.isSigned()) {
-                        psbtInput.sign(privKey);
+                //The session is opened on the first input to sign, so the seed is only stretched when a signature is required
+                //It is closed once signing completes, so it does not expire part way through signing a large transaction
+                KeystoreSession keystoreSession = null;
+                try {
+                    for(Map.Entry<PSBTInput, WalletNode> signingEntry : signingNodes.entrySet()) {
+                        PSBTInput psbtInput = signingEntry.getKey();
+
+                        if(!psbtInput.isSigned()) {
+                            if(keystoreSession == null) {
+                                keystoreSession = keystore.openSession(null);
+                            }
+
+                            ECKey privKey = getScriptType().getOutputKey(keystoreSession.getKey(signingEntry.getValue()));
+                            psbtInput.sign(privKey);
+                        }
+                    }
+                } finally {
+                    if(keystoreSession != null) {
+                        keystoreSession.close();
                     }
                 }
             }
@@ -1031,18 +1406,18 @@ public class Wallet extends Persistable {
         return BitcoinUnit.SATOSHIS;
     }
 
-    public void clearNodes() {
-        purposeNodes.clear();
-        transactions.clear();
+    public synchronized void clearNodes() {
+        purposeNodes = new TreeSet<>();
+        transactions = Collections.emptyMap();
         storedBlockHeight = 0;
     }
 
-    public void clearHistory() {
+    public synchronized void clearHistory() {
         for(WalletNode purposeNode : purposeNodes) {
             purposeNode.clearHistory();
         }
 
-        transactions.clear();
+        transactions = Collections.emptyMap();
         storedBlockHeight = 0;
     }
 
@@ -1096,6 +1471,12 @@ public class Wallet extends Persistable {
             throw new InvalidWalletException("Wallet keystores have duplicate labels");
         }
 
+        List<Keystore> derivationCheckKeystores = keystores.stream().filter(Keystore::requiresDerivationCheck).collect(Collectors.toList());
+        if(derivationCheckKeystores.size() > 1) {
+            //Derive keys from multiple seeds in parallel, so the checks below use cached results and report errors in keystore order
+            derivationCheckKeystores.parallelStream().forEach(Keystore::isValid);
+        }
+
         for(Keystore keystore : keystores) {
             try {
                 keystore.checkKeystore();
@@ -1180,12 +1561,14 @@ public class Wallet extends Persistable {
         for(Keystore keystore : keystores) {
             copy.getKeystores().add(keystore.copy());
         }
+        TreeSet<WalletNode> copyPurposeNodes = new TreeSet<>();
         for(WalletNode node : purposeNodes) {
-            copy.purposeNodes.add(node.copy());
-        }
-        for(Sha256Hash hash : transactions.keySet()) {
-            copy.transactions.put(hash, transactions.get(hash));
+            WalletNode copyNode = node.copy();
+            copyNode.setHistoryVersion(copy.historyVersion);
+            copyPurposeNodes.add(copyNode);
         }
+        copy.purposeNodes = copyPurposeNodes;
+        copy.transactions = transactions;
         copy.setStoredBlockHeight(getStoredBlockHeight());
         copy.gapLimit = gapLimit;
         copy.birthDate = birthDate;
@@ -1251,4 +1634,240 @@ public class Wallet extends Persistable {
     public String toString() {
         return getFullName();
     }
+
+    /**
+     * Holds the state used in planning transactions that does not depend on the fee rate
+     */
+    private final class PlanningContext {
+        private final UtxoValues utxoValues;
+        private final long totalUtxoValue;
+        private final InputWeight inputWeight;
+        private final int paymentOutputsLength;
+        private final int numPayments;
+        private final List<WalletNode> excludedChangeNodes;
+        private WalletNode changeNode;
+        private int changeOutputLength;
+
+        public PlanningContext(List<Payment> payments, List<WalletNode> excludedChangeNodes) {
+            this(payments, excludedChangeNodes, getUtxoValues());
+        }
+
+        public PlanningContext(List<Payment> payments, List<WalletNode> excludedChangeNodes, UtxoValues utxoValues) {
+            this.utxoValues = utxoValues;
+            this.totalUtxoValue = utxoValues.sumAbove(Long.MIN_VALUE);
+            this.inputWeight = getInputWeight();
+
+            //Output lengths do not depend on their amounts, so they only need to be determined once
+            int outputsLength = 0;
+            for(Payment payment : payments) {
+                outputsLength += getOutputLength(payment.getAddress().getOutputScript());
+            }
+            this.paymentOutputsLength = outputsLength;
+            this.numPayments = payments.size();
+            this.excludedChangeNodes = excludedChangeNodes;
+        }
+
+        public WalletNode getChangeNode() {
+            if(changeNode == null) {
+                WalletNode freshNode = getFreshNode(KeyPurpose.CHANGE);
+                while(excludedChangeNodes.contains(freshNode)) {
+                    freshNode = getFreshNode(KeyPurpose.CHANGE, freshNode);
+                }
+                changeOutputLength = getOutputLength(getOutputScript(freshNode));
+                changeNode = freshNode;
+            }
+
+            return changeNode;
+        }
+
+        public long getMaxSpendable(double feeRate) {
+            return Wallet.this.getMaxSpendable(utxoValues, inputWeight, numPayments, paymentOutputsLength, feeRate);
+        }
+    }
+
+    /**
+     * Excludes UTXOs already selected by earlier transactions in a batch, looking each candidate up by outpoint
+     */
+    private static final class ConsumedUtxoFilter implements UtxoFilter {
+        private final Set<HashIndex> consumedUtxos;
+
+        public ConsumedUtxoFilter(Set<HashIndex> consumedUtxos) {
+            //Copied so that grouped UTXOs cached against this filter are not affected by later batches
+            this.consumedUtxos = new HashSet<>(consumedUtxos);
+        }
+
+        @Override
+        public boolean isEligible(BlockTransactionHashIndex candidate) {
+            return consumedUtxos.isEmpty() || !consumedUtxos.contains(new HashIndex(candidate.getHash(), (int)candidate.getIndex()));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(o == null || getClass() != o.getClass()) return false;
+            ConsumedUtxoFilter that = (ConsumedUtxoFilter) o;
+            return consumedUtxos.equals(that.consumedUtxos);
+        }
+
+        @Override
+        public int hashCode() {
+            return consumedUtxos.hashCode();
+        }
+    }
+
+    /**
+     * Holds UTXO values in ascending order with their cumulative sums, so the UTXOs worth more than a given amount can be counted and summed by binary search
+     */
+    private static final class UtxoValues {
+        private final long[] values;
+        private final long[] sums;
+
+        public UtxoValues(long[] values) {
+            this.values = values;
+            Arrays.sort(values);
+            this.sums = new long[values.length + 1];
+            for(int i = 0; i < values.length; i++) {
+                sums[i + 1] = sums[i] + values[i];
+            }
+        }
+
+        public int size() {
+            return values.length;
+        }
+
+        private int firstAbove(long value) {
+            int low = 0;
+            int high = values.length;
+            while(low < high) {
+                int mid = (low + high) >>> 1;
+                if(values[mid] > value) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+
+            return low;
+        }
+
+        public int countAbove(long value) {
+            return values.length - firstAbove(value);
+        }
+
+        public long sumAbove(long value) {
+            return sums[values.length] - sums[firstAbove(value)];
+        }
+    }
+
+    private static final class InputWeight {
+        private final List<Object> key;
+        private final int weightUnits;
+        private final boolean segwit;
+
+        public InputWeight(List<Object> key, int weightUnits, boolean segwit) {
+            this.key = key;
+            this.weightUnits = weightUnits;
+            this.segwit = segwit;
+        }
+    }
+
+    private static final class GroupedUtxosKey {
+        private final List<UtxoFilter> utxoFilters;
+        private final double feeRate;
+        private final double longTermFeeRate;
+        private final boolean groupByAddress;
+        private final boolean includeSpentMempoolOutputs;
+
+        public GroupedUtxosKey(List<UtxoFilter> utxoFilters, double feeRate, double longTermFeeRate, boolean groupByAddress, boolean includeSpentMempoolOutputs) {
+            this.utxoFilters = new ArrayList<>(utxoFilters);
+            this.feeRate = feeRate;
+            this.longTermFeeRate = longTermFeeRate;
+            this.groupByAddress = groupByAddress;
+            this.includeSpentMempoolOutputs = includeSpentMempoolOutputs;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(o == null || getClass() != o.getClass()) return false;
+            GroupedUtxosKey that = (GroupedUtxosKey) o;
+            return Double.compare(that.feeRate, feeRate) == 0 &&
+                    Double.compare(that.longTermFeeRate, longTermFeeRate) == 0 &&
+                    groupByAddress == that.groupByAddress &&
+                    includeSpentMempoolOutputs == that.includeSpentMempoolOutputs &&
+                    utxoFilters.equals(that.utxoFilters);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(utxoFilters, feeRate, longTermFeeRate, groupByAddress, includeSpentMempoolOutputs);
+        }
+    }
+
+    private static final class UtxoState {
+        private final long historyVersion;
+        private final Set<WalletNode> purposeNodes;
+        private final Map<Sha256Hash, BlockTransaction> transactions;
+        private final Integer storedBlockHeight;
+
+        public UtxoState(long historyVersion, Set<WalletNode> purposeNodes, Map<Sha256Hash, BlockTransaction> transactions, Integer storedBlockHeight) {
+            this.historyVersion = historyVersion;
+            this.purposeNodes = purposeNodes;
+            this.transactions = transactions;
+            this.storedBlockHeight = storedBlockHeight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(o == null || getClass() != o.getClass()) return false;
+            UtxoState that = (UtxoState) o;
+            //Purpose nodes and transactions are published as new instances when changed, so are compared by identity
+            return historyVersion == that.historyVersion && purposeNodes == that.purposeNodes && transactions == that.transactions && Objects.equals(storedBlockHeight, that.storedBlockHeight);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(historyVersion, System.identityHashCode(purposeNodes), System.identityHashCode(transactions), storedBlockHeight);
+        }
+    }
+
+    private static final class UtxoGroupCache {
+        private static final int MAX_GROUPINGS = 32;
+
+        private final UtxoState utxoState;
+        private Map<BlockTransactionHashIndex, WalletNode> walletTxos;
+        private final Map<Sha256Hash, Boolean> walletOrigins = new HashMap<>();
+        private final Map<GroupedUtxosKey, List<OutputGroup>> outputGroups = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<GroupedUtxosKey, List<OutputGroup>> eldest) {
+                return size() > MAX_GROUPINGS;
+            }
+        };
+
+        public UtxoGroupCache(UtxoState utxoState) {
+            this.utxoState = utxoState;
+        }
+
+        public synchronized List<OutputGroup> getOutputGroups(GroupedUtxosKey key) {
+            return outputGroups.get(key);
+        }
+
+        public synchronized void putOutputGroups(GroupedUtxosKey key, List<OutputGroup> groups) {
+            outputGroups.put(key, groups);
+        }
+
+        public synchronized boolean allInputsFromWallet(Sha256Hash txId, Wallet wallet) {
+            Boolean fromWallet = walletOrigins.get(txId);
+            if(fromWallet == null) {
+                if(walletTxos == null) {
+                    walletTxos = wallet.getWalletTxos();
+                }
+                fromWallet = wallet.allInputsFromWallet(txId, walletTxos);
+                walletOrigins.put(txId, fromWallet);
+            }
+
+            return fromWallet;
+        }
+    }
 }
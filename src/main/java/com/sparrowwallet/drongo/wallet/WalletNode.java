@@ -10,8 +10,10 @@ import java.util.stream.Collectors;
 public class WalletNode extends Persistable implements Comparable<WalletNode> {
     private final String derivationPath;
     private String label;
-    private TreeSet<WalletNode> children = new TreeSet<>();
-    private TreeSet<BlockTransactionHashIndex> transactionOutputs = new TreeSet<>();
+    //Updates within this class publish new sets rather than modifying the current ones, so readers can iterate without locking
+    private volatile TreeSet<WalletNode> children = new TreeSet<>();
+    private volatile TreeSet<BlockTransactionHashIndex> transactionOutputs = new TreeSet<>();
+    private transient volatile HistoryVersion historyVersion;
 
     private transient KeyPurpose keyPurpose;
     private transient int index = -1;
@@ -36,6 +38,13 @@ public class WalletNode extends Persistable implements Comparable<WalletNode> {
         this.index = index;
     }
 
+    private WalletNode(WalletNode node) {
+        this.derivationPath = node.derivationPath;
+        this.derivation = node.getDerivation();
+        this.keyPurpose = node.getKeyPurpose();
+        this.index = node.getIndex();
+    }
+
     public String getDerivationPath() {
         return derivationPath;
     }
@@ -86,30 +95,63 @@ public class WalletNode extends Persistable implements Comparable<WalletNode> {
         return getUnspentTransactionOutputs().stream().mapToLong(BlockTransactionHashIndex::getValue).sum();
     }
 
+    /**
+     * Use {@link #setChildren(TreeSet)} to replace the child nodes.
+     *
+     * @return an unmodifiable snapshot of the child nodes, which is not changed by nodes added later
+     */
     public Set<WalletNode> getChildren() {
-        return children;
+        return Collections.unmodifiableSet(children);
     }
 
-    public void setChildren(TreeSet<WalletNode> children) {
-        this.children = children;
+    public synchronized void setChildren(TreeSet<WalletNode> children) {
+        this.children = new TreeSet<>(children);
+        for(WalletNode childNode : this.children) {
+            childNode.setHistoryVersion(historyVersion);
+        }
+        incrementHistoryVersion();
     }
 
+    /**
+     * Use {@link #setTransactionOutputs(TreeSet)} or {@link #updateTransactionOutputs(Set)} to change the transaction outputs.
+     *
+     * @return an unmodifiable snapshot of the transaction outputs, which is not changed by later updates
+     */
     public Set<BlockTransactionHashIndex> getTransactionOutputs() {
-        return transactionOutputs;
+        return Collections.unmodifiableSet(transactionOutputs);
     }
 
-    public void setTransactionOutputs(TreeSet<BlockTransactionHashIndex> transactionOutputs) {
-        this.transactionOutputs = transactionOutputs;
+    public synchronized void setTransactionOutputs(TreeSet<BlockTransactionHashIndex> transactionOutputs) {
+        this.transactionOutputs = new TreeSet<>(transactionOutputs);
+        for(BlockTransactionHashIndex txo : this.transactionOutputs) {
+            txo.setHistoryVersion(historyVersion);
+        }
+        incrementHistoryVersion();
     }
 
     public synchronized void updateTransactionOutputs(Set<BlockTransactionHashIndex> updatedOutputs) {
+        Map<HashIndex, String> labels = new HashMap<>();
+        for(BlockTransactionHashIndex oldTxo : transactionOutputs) {
+            if(oldTxo.getLabel() != null) {
+                labels.putIfAbsent(new HashIndex(oldTxo.getHash(), (int)oldTxo.getIndex()), oldTxo.getLabel());
+            }
+        }
+
+        if(!labels.isEmpty()) {
+            for(BlockTransactionHashIndex txo : updatedOutputs) {
+                String label = labels.get(new HashIndex(txo.getHash(), (int)txo.getIndex()));
+                if(label != null) {
+                    txo.setLabel(label);
+                }
+            }
+        }
+
         for(BlockTransactionHashIndex txo : updatedOutputs) {
-            Optional<String> optionalLabel = transactionOutputs.stream().filter(oldTxo -> oldTxo.getHash().equals(txo.getHash()) && oldTxo.getIndex() == txo.getIndex()).map(BlockTransactionHash::getLabel).filter(Objects::nonNull).findFirst();
-            optionalLabel.ifPresent(txo::setLabel);
+            txo.setHistoryVersion(historyVersion);
         }
 
-        transactionOutputs.clear();
-        transactionOutputs.addAll(updatedOutputs);
+        transactionOutputs = new TreeSet<>(updatedOutputs);
+        incrementHistoryVersion();
     }
 
     public Set<BlockTransactionHashIndex> getUnspentTransactionOutputs() {
@@ -117,8 +159,7 @@ public class WalletNode extends Persistable implements Comparable<WalletNode> {
     }
 
     public Set<BlockTransactionHashIndex> getUnspentTransactionOutputs(boolean includeSpentMempoolOutputs) {
-        Set<BlockTransactionHashIndex> unspentTXOs = new TreeSet<>(transactionOutputs);
-        return unspentTXOs.stream().filter(txo -> !txo.isSpent() || (includeSpentMempoolOutputs && txo.getSpentBy().getHeight() <= 0)).collect(Collectors.toCollection(HashSet::new));
+        return transactionOutputs.stream().filter(txo -> !txo.isSpent() || (includeSpentMempoolOutputs && txo.getSpentBy().getHeight() <= 0)).collect(Collectors.toCollection(HashSet::new));
     }
 
     public long getUnspentValue() {
@@ -131,9 +172,21 @@ public class WalletNode extends Persistable implements Comparable<WalletNode> {
     }
 
     public synchronized void fillToIndex(int index) {
+        TreeSet<WalletNode> newChildren = null;
         for(int i = 0; i <= index; i++) {
             WalletNode node = new WalletNode(getKeyPurpose(), i);
-            children.add(node);
+            if(!children.contains(node)) {
+                if(newChildren == null) {
+                    newChildren = new TreeSet<>(children);
+                }
+                node.historyVersion = historyVersion;
+                newChildren.add(node);
+            }
+        }
+
+        if(newChildren != null) {
+            children = newChildren;
+            incrementHistoryVersion();
         }
     }
 
@@ -186,25 +239,51 @@ public class WalletNode extends Persistable implements Comparable<WalletNode> {
         return 0;
     }
 
+    /**
+     * Sets the change count of the wallet this node has been added to, on this node, its descendants and their outputs
+     */
+    synchronized void setHistoryVersion(HistoryVersion historyVersion) {
+        this.historyVersion = historyVersion;
+        for(WalletNode childNode : children) {
+            childNode.setHistoryVersion(historyVersion);
+        }
+        for(BlockTransactionHashIndex txo : transactionOutputs) {
+            txo.setHistoryVersion(historyVersion);
+        }
+    }
+
+    private void incrementHistoryVersion() {
+        HistoryVersion version = historyVersion;
+        if(version != null) {
+            version.increment();
+        }
+    }
+
     public synchronized void clearHistory() {
-        transactionOutputs.clear();
+        transactionOutputs = new TreeSet<>();
+        incrementHistoryVersion();
         for(WalletNode childNode : getChildren()) {
             childNode.clearHistory();
         }
     }
 
     public WalletNode copy() {
-        WalletNode copy = new WalletNode(derivationPath);
+        //Reuse the parsed derivation of this node rather than parsing the derivation path again
+        WalletNode copy = new WalletNode(this);
         copy.setId(getId());
         copy.setLabel(label);
 
+        TreeSet<WalletNode> copyChildren = new TreeSet<>();
         for(WalletNode child : getChildren()) {
-            copy.children.add(child.copy());
+            copyChildren.add(child.copy());
         }
+        copy.children = copyChildren;
 
+        TreeSet<BlockTransactionHashIndex> copyTransactionOutputs = new TreeSet<>();
         for(BlockTransactionHashIndex txo : getTransactionOutputs()) {
-            copy.transactionOutputs.add(txo.copy());
+            copyTransactionOutputs.add(txo.copy());
         }
+        copy.transactionOutputs = copyTransactionOutputs;
 
         return copy;
     }
@@ -221,10 +300,14 @@ public class WalletNode extends Persistable implements Comparable<WalletNode> {
             changed = true;
         }
 
+        Map<BlockTransactionHashIndex, BlockTransactionHashIndex> pastTxos = new HashMap<>();
+        for(BlockTransactionHashIndex pastTxo : pastNode.getTransactionOutputs()) {
+            pastTxos.putIfAbsent(pastTxo, pastTxo);
+        }
+
         for(BlockTransactionHashIndex txo : getTransactionOutputs()) {
-            Optional<BlockTransactionHashIndex> optPastTxo = pastNode.getTransactionOutputs().stream().filter(pastTxo -> pastTxo.equals(txo)).findFirst();
-            if(optPastTxo.isPresent()) {
-                BlockTransactionHashIndex pastTxo = optPastTxo.get();
+            BlockTransactionHashIndex pastTxo = pastTxos.get(txo);
+            if(pastTxo != null) {
                 if(txo.getLabel() == null && pastTxo.getLabel() != null) {
                     txo.setLabel(pastTxo.getLabel());
                     changed = true;
@@ -236,10 +319,15 @@ public class WalletNode extends Persistable implements Comparable<WalletNode> {
             }
         }
 
+        Map<String, WalletNode> pastChildNodes = new HashMap<>();
+        for(WalletNode pastChildNode : pastNode.getChildren()) {
+            pastChildNodes.putIfAbsent(pastChildNode.getDerivationPath(), pastChildNode);
+        }
+
         for(WalletNode childNode : getChildren()) {
-            Optional<WalletNode> optPastChildNode = pastNode.getChildren().stream().filter(node -> node.equals(childNode)).findFirst();
-            if(optPastChildNode.isPresent()) {
-                changed |= childNode.copyLabels(optPastChildNode.get());
+            WalletNode pastChildNode = pastChildNodes.get(childNode.getDerivationPath());
+            if(pastChildNode != null) {
+                changed |= childNode.copyLabels(pastChildNode);
             }
         }
 
@@ -0,0 +1,79 @@
+package com.sparrowwallet.drongo.wallet;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.sparrowwallet.drongo.protocol.Transaction.WITNESS_SCALE_FACTOR;
+
+/**
+ * WalletTransactionPlan contains the inputs, outputs and fee chosen for a transaction without the transaction itself.
+ * Plans are cheap to create, and can be compared before one is converted into a WalletTransaction using Wallet.createWalletTransaction(WalletTransactionPlan).
+ */
+public class WalletTransactionPlan {
+    private final List<UtxoSelector> utxoSelectors;
+    private final Map<BlockTransactionHashIndex, WalletNode> selectedUtxos;
+    private final List<Payment> payments;
+    private final WalletNode changeNode;
+    private final long changeAmount;
+    private final long fee;
+    private final Integer currentBlockHeight;
+    private final int weightUnits;
+
+    public WalletTransactionPlan(List<UtxoSelector> utxoSelectors, Map<BlockTransactionHashIndex, WalletNode> selectedUtxos, List<Payment> payments, WalletNode changeNode, long changeAmount, long fee, Integer currentBlockHeight, int weightUnits) {
+        this.utxoSelectors = utxoSelectors;
+        this.selectedUtxos = selectedUtxos;
+        this.payments = payments;
+        this.changeNode = changeNode;
+        this.changeAmount = changeAmount;
+        this.fee = fee;
+        this.currentBlockHeight = currentBlockHeight;
+        this.weightUnits = weightUnits;
+    }
+
+    public List<UtxoSelector> getUtxoSelectors() {
+        return utxoSelectors;
+    }
+
+    public Map<BlockTransactionHashIndex, WalletNode> getSelectedUtxos() {
+        return selectedUtxos;
+    }
+
+    public List<Payment> getPayments() {
+        return payments;
+    }
+
+    public WalletNode getChangeNode() {
+        return changeNode;
+    }
+
+    public long getChangeAmount() {
+        return changeAmount;
+    }
+
+    public long getFee() {
+        return fee;
+    }
+
+    public Integer getCurrentBlockHeight() {
+        return currentBlockHeight;
+    }
+
+    /**
+     * @return the weight of the planned transaction once signed, using the same dummy signature sizes as WalletTransaction
+     */
+    public int getWeightUnits() {
+        return weightUnits;
+    }
+
+    public double getVirtualSize() {
+        return (double)weightUnits / (double)WITNESS_SCALE_FACTOR;
+    }
+
+    public double getFeeRate() {
+        return fee / getVirtualSize();
+    }
+
+    public long getTotalSelectedAmount() {
+        return selectedUtxos.keySet().stream().mapToLong(BlockTransactionHashIndex::getValue).sum();
+    }
+}
@@ -6,11 +6,27 @@ import com.sparrowwallet.drongo.Network;
 import com.sparrowwallet.drongo.Utils;
 import com.sparrowwallet.drongo.crypto.ECKey;
 import com.sparrowwallet.drongo.protocol.*;
+import org.bouncycastle.util.encoders.Base64;
 import org.bouncycastle.util.encoders.Hex;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class PSBTTest {
 
     @Test(expected = PSBTParseException.class)
@@ -316,6 +332,21 @@ public class PSBTTest {
         Assert.assertEquals(noWitnessDataPsbt, psbt4.toBase64String());
     }
 
+    @Test
+    public void serializeToStream() throws PSBTParseException, IOException {
+        String psbtStr = "cHNidP8BAHUCAAAAASaBcTce3/KF6Tet7qSze3gADAVmy7OtZGQXE8pCFxv2AAAAAAD+////AtPf9QUAAAAAGXapFNDFmQPFusKGh2DpD9UhpGZap2UgiKwA4fUFAAAAABepFDVF5uM7gyxHBQ8k0+65PJwDlIvHh7MuEwAAAQD9pQEBAAAAAAECiaPHHqtNIOA3G7ukzGmPopXJRjr6Ljl/hTPMti+VZ+UBAAAAFxYAFL4Y0VKpsBIDna89p95PUzSe7LmF/////4b4qkOnHf8USIk6UwpyN+9rRgi7st0tAXHmOuxqSJC0AQAAABcWABT+Pp7xp0XpdNkCxDVZQ6vLNL1TU/////8CAMLrCwAAAAAZdqkUhc/xCX/Z4Ai7NK9wnGIZeziXikiIrHL++E4sAAAAF6kUM5cluiHv1irHU6m80GfWx6ajnQWHAkcwRAIgJxK+IuAnDzlPVoMR3HyppolwuAJf3TskAinwf4pfOiQCIAGLONfc0xTnNMkna9b7QPZzMlvEuqFEyADS8vAtsnZcASED0uFWdJQbrUqZY3LLh+GFbTZSYG2YVi/jnF6efkE/IQUCSDBFAiEA0SuFLYXc2WHS9fSrZgZU327tzHlMDDPOXMMJ/7X85Y0CIGczio4OFyXBl/saiK9Z9R5E5CVbIBZ8hoQDHAXR8lkqASECI7cr7vCWXRC+B3jv7NYfysb3mk6haTkzgHNEZPhPKrMAAAAAAQMEAQAAAAAAAA==";
+        PSBT psbt = PSBT.fromString(psbtStr);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        psbt.serialize(baos, true);
+        Assert.assertArrayEquals(psbt.serialize(), baos.toByteArray());
+
+        ByteArrayOutputStream base64 = new ByteArrayOutputStream();
+        psbt.toBase64Stream(base64, true);
+        Assert.assertEquals(psbt.toBase64String(), base64.toString(StandardCharsets.US_ASCII));
+        Assert.assertEquals(psbt.toBase64String(), PSBT.fromString(psbt.toBase64String()).toBase64String());
+    }
+
     @Test
     public void creatorBip() throws PSBTParseException {
         Transaction transaction = new Transaction();
@@ -368,6 +399,47 @@ public class PSBTTest {
         Assert.assertEquals("70736274ff01009a020000000258e87a21b56daf0c23be8e7070456c336f7cbaa5c8757924f545887bb2abdd750000000000ffffffff838d0427d0ec650a68aa46bb0b098aea4422c071b2ca78352a077959d07cea1d0100000000ffffffff0270aaf00800000000160014d85c2b71d0060b09c9886aeb815e50991dda124d00e1f5050000000016001400aea9a2e5f0f876a588df5546e8742d1d87008f00000000000100bb0200000001aad73931018bd25f84ae400b68848be09db706eac2ac18298babee71ab656f8b0000000048473044022058f6fc7c6a33e1b31548d481c826c015bd30135aad42cd67790dab66d2ad243b02204a1ced2604c6735b6393e5b41691dd78b00f0c5942fb9f751856faa938157dba01feffffff0280f0fa020000000017a9140fb9463421696b82c833af241c78c17ddbde493487d0f20a270100000017a91429ca74f8a08f81999428185c97b5d852e4063f6187650000002202029583bf39ae0a609747ad199addd634fa6108559d6c5cd39b4c2183f1ab96e07f473044022074018ad4180097b873323c0015720b3684cc8123891048e7dbcd9b55ad679c99022073d369b740e3eb53dcefa33823c8070514ca55a7dd9544f157c167913261118c01220202dab61ff49a14db6a7d02b0cd1fbb78fc4b18312b5b4e54dae4dba2fbfef536d7483045022100f61038b308dc1da865a34852746f015772934208c6d24454393cd99bdf2217770220056e675a675a6d0a02b85b14e5e29074d8a25a9b5760bea2816f661910a006ea01010304010000000104475221029583bf39ae0a609747ad199addd634fa6108559d6c5cd39b4c2183f1ab96e07f2102dab61ff49a14db6a7d02b0cd1fbb78fc4b18312b5b4e54dae4dba2fbfef536d752ae2206029583bf39ae0a609747ad199addd634fa6108559d6c5cd39b4c2183f1ab96e07f10d90c6a4f000000800000008000000080220602dab61ff49a14db6a7d02b0cd1fbb78fc4b18312b5b4e54dae4dba2fbfef536d710d90c6a4f0000008000000080010000800001012000c2eb0b0000000017a914b7f5faf40e3d40a5a459b1db3535f2b72fa921e887220203089dc10c7ac6db54f91329af617333db388cead0c231f723379d1b99030b02dc473044022062eb7a556107a7c73f45ac4ab5a1dddf6f7075fb1275969a7f383efff784bcb202200c05dbb7470dbf2f08557dd356c7325c1ed30913e996cd3840945db12228da5f012202023add904f3d6dcf59ddb906b0dee23529b7ffb9ed50e5e86151926860221f0e73473044022065f45ba5998b59a27ffe1a7bed016af1f1f90d54b3aa8f7450aa5f56a25103bd02207f724703ad1edb96680b284b56d4ffcb88f7fb759eabbe08aa30f29b851383d2010103040100000001042200208c2353173743b595dfb4a07b72ba8e42e3797da74e87fe7d9d7497e3b2028903010547522103089dc10c7ac6db54f91329af617333db388cead0c231f723379d1b99030b02dc21023add904f3d6dcf59ddb906b0dee23529b7ffb9ed50e5e86151926860221f0e7352ae2206023add904f3d6dcf59ddb906b0dee23529b7ffb9ed50e5e86151926860221f0e7310d90c6a4f000000800000008003000080220603089dc10c7ac6db54f91329af617333db388cead0c231f723379d1b99030b02dc10d90c6a4f00000080000000800200008000220203a9a4c37f5996d3aa25dbac6b570af0650394492942460b354753ed9eeca5877110d90c6a4f000000800000008004000080002202027f6399757d2eff55a136ad02c684b1838b6556e5f1b6b34282a94b6b5005109610d90c6a4f00000080000000800500008000", psbt1.toString());
     }
 
+    @Test
+    public void combineParallel() throws PSBTParseException {
+        String strPsbt1 = "cHNidP8BAJoCAAAAAljoeiG1ba8MI76OcHBFbDNvfLqlyHV5JPVFiHuyq911AAAAAAD/////g40EJ9DsZQpoqka7CwmK6kQiwHGyyng1Kgd5WdB86h0BAAAAAP////8CcKrwCAAAAAAWABTYXCtx0AYLCcmIauuBXlCZHdoSTQDh9QUAAAAAFgAUAK6pouXw+HaliN9VRuh0LR2HAI8AAAAAAAEAuwIAAAABqtc5MQGL0l+ErkALaISL4J23BurCrBgpi6vucatlb4sAAAAASEcwRAIgWPb8fGoz4bMVSNSByCbAFb0wE1qtQs1neQ2rZtKtJDsCIEoc7SYExnNbY5PltBaR3XiwDwxZQvufdRhW+qk4FX26Af7///8CgPD6AgAAAAAXqRQPuUY0IWlrgsgzryQceMF9295JNIfQ8gonAQAAABepFCnKdPigj4GZlCgYXJe12FLkBj9hh2UAAAAiAgKVg785rgpgl0etGZrd1jT6YQhVnWxc05tMIYPxq5bgf0cwRAIgdAGK1BgAl7hzMjwAFXILNoTMgSOJEEjn282bVa1nnJkCIHPTabdA4+tT3O+jOCPIBwUUylWn3ZVE8VfBZ5EyYRGMAQEDBAEAAAABBEdSIQKVg785rgpgl0etGZrd1jT6YQhVnWxc05tMIYPxq5bgfyEC2rYf9JoU22p9ArDNH7t4/EsYMStbTlTa5Nui+/71NtdSriIGApWDvzmuCmCXR60Zmt3WNPphCFWdbFzTm0whg/GrluB/ENkMak8AAACAAAAAgAAAAIAiBgLath/0mhTban0CsM0fu3j8SxgxK1tOVNrk26L7/vU21xDZDGpPAAAAgAAAAIABAACAAAEBIADC6wsAAAAAF6kUt/X69A49QKWkWbHbNTXyty+pIeiHIgIDCJ3BDHrG21T5EymvYXMz2ziM6tDCMfcjN50bmQMLAtxHMEQCIGLrelVhB6fHP0WsSrWh3d9vcHX7EnWWmn84Pv/3hLyyAiAMBdu3Rw2/LwhVfdNWxzJcHtMJE+mWzThAlF2xIijaXwEBAwQBAAAAAQQiACCMI1MXN0O1ld+0oHtyuo5C43l9p06H/n2ddJfjsgKJAwEFR1IhAwidwQx6xttU+RMpr2FzM9s4jOrQwjH3IzedG5kDCwLcIQI63ZBPPW3PWd25BrDe4jUpt/+57VDl6GFRkmhgIh8Oc1KuIgYCOt2QTz1tz1nduQaw3uI1Kbf/ue1Q5ehhUZJoYCIfDnMQ2QxqTwAAAIAAAACAAwAAgCIGAwidwQx6xttU+RMpr2FzM9s4jOrQwjH3IzedG5kDCwLcENkMak8AAACAAAAAgAIAAIAAIgIDqaTDf1mW06ol26xrVwrwZQOUSSlCRgs1R1Ptnuylh3EQ2QxqTwAAAIAAAACABAAAgAAiAgJ/Y5l1fS7/VaE2rQLGhLGDi2VW5fG2s0KCqUtrUAUQlhDZDGpPAAAAgAAAAIAFAACAAA==";
+        String strPsbt2 = "cHNidP8BAJoCAAAAAljoeiG1ba8MI76OcHBFbDNvfLqlyHV5JPVFiHuyq911AAAAAAD/////g40EJ9DsZQpoqka7CwmK6kQiwHGyyng1Kgd5WdB86h0BAAAAAP////8CcKrwCAAAAAAWABTYXCtx0AYLCcmIauuBXlCZHdoSTQDh9QUAAAAAFgAUAK6pouXw+HaliN9VRuh0LR2HAI8AAAAAAAEAuwIAAAABqtc5MQGL0l+ErkALaISL4J23BurCrBgpi6vucatlb4sAAAAASEcwRAIgWPb8fGoz4bMVSNSByCbAFb0wE1qtQs1neQ2rZtKtJDsCIEoc7SYExnNbY5PltBaR3XiwDwxZQvufdRhW+qk4FX26Af7///8CgPD6AgAAAAAXqRQPuUY0IWlrgsgzryQceMF9295JNIfQ8gonAQAAABepFCnKdPigj4GZlCgYXJe12FLkBj9hh2UAAAAiAgLath/0mhTban0CsM0fu3j8SxgxK1tOVNrk26L7/vU210gwRQIhAPYQOLMI3B2oZaNIUnRvAVdyk0IIxtJEVDk82ZvfIhd3AiAFbmdaZ1ptCgK4WxTl4pB02KJam1dgvqKBb2YZEKAG6gEBAwQBAAAAAQRHUiEClYO/Oa4KYJdHrRma3dY0+mEIVZ1sXNObTCGD8auW4H8hAtq2H/SaFNtqfQKwzR+7ePxLGDErW05U2uTbovv+9TbXUq4iBgKVg785rgpgl0etGZrd1jT6YQhVnWxc05tMIYPxq5bgfxDZDGpPAAAAgAAAAIAAAACAIgYC2rYf9JoU22p9ArDNH7t4/EsYMStbTlTa5Nui+/71NtcQ2QxqTwAAAIAAAACAAQAAgAABASAAwusLAAAAABepFLf1+vQOPUClpFmx2zU18rcvqSHohyICAjrdkE89bc9Z3bkGsN7iNSm3/7ntUOXoYVGSaGAiHw5zRzBEAiBl9FulmYtZon/+GnvtAWrx8fkNVLOqj3RQql9WolEDvQIgf3JHA60e25ZoCyhLVtT/y4j3+3Weq74IqjDym4UTg9IBAQMEAQAAAAEEIgAgjCNTFzdDtZXftKB7crqOQuN5fadOh/59nXSX47ICiQMBBUdSIQMIncEMesbbVPkTKa9hczPbOIzq0MIx9yM3nRuZAwsC3CECOt2QTz1tz1nduQaw3uI1Kbf/ue1Q5ehhUZJoYCIfDnNSriIGAjrdkE89bc9Z3bkGsN7iNSm3/7ntUOXoYVGSaGAiHw5zENkMak8AAACAAAAAgAMAAIAiBgMIncEMesbbVPkTKa9hczPbOIzq0MIx9yM3nRuZAwsC3BDZDGpPAAAAgAAAAIACAACAACICA6mkw39ZltOqJdusa1cK8GUDlEkpQkYLNUdT7Z7spYdxENkMak8AAACAAAAAgAQAAIAAIgICf2OZdX0u/1WhNq0CxoSxg4tlVuXxtrNCgqlLa1AFEJYQ2QxqTwAAAIAAAACABQAAgAA=";
+
+        PSBT expected = PSBT.fromString(strPsbt1);
+        expected.combine(PSBT.fromString(strPsbt2));
+
+        PSBT psbt = PSBT.fromString(strPsbt1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            psbt.combine(List.of(PSBT.fromString(strPsbt2), PSBT.fromString(strPsbt1)), executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(expected.toString(), psbt.toString());
+    }
+
+    @Test
+    public void combineModifiedTransaction() throws PSBTParseException {
+        String strPsbt1 = "cHNidP8BAJoCAAAAAljoeiG1ba8MI76OcHBFbDNvfLqlyHV5JPVFiHuyq911AAAAAAD/////g40EJ9DsZQpoqka7CwmK6kQiwHGyyng1Kgd5WdB86h0BAAAAAP////8CcKrwCAAAAAAWABTYXCtx0AYLCcmIauuBXlCZHdoSTQDh9QUAAAAAFgAUAK6pouXw+HaliN9VRuh0LR2HAI8AAAAAAAEAuwIAAAABqtc5MQGL0l+ErkALaISL4J23BurCrBgpi6vucatlb4sAAAAASEcwRAIgWPb8fGoz4bMVSNSByCbAFb0wE1qtQs1neQ2rZtKtJDsCIEoc7SYExnNbY5PltBaR3XiwDwxZQvufdRhW+qk4FX26Af7///8CgPD6AgAAAAAXqRQPuUY0IWlrgsgzryQceMF9295JNIfQ8gonAQAAABepFCnKdPigj4GZlCgYXJe12FLkBj9hh2UAAAAiAgKVg785rgpgl0etGZrd1jT6YQhVnWxc05tMIYPxq5bgf0cwRAIgdAGK1BgAl7hzMjwAFXILNoTMgSOJEEjn282bVa1nnJkCIHPTabdA4+tT3O+jOCPIBwUUylWn3ZVE8VfBZ5EyYRGMAQEDBAEAAAABBEdSIQKVg785rgpgl0etGZrd1jT6YQhVnWxc05tMIYPxq5bgfyEC2rYf9JoU22p9ArDNH7t4/EsYMStbTlTa5Nui+/71NtdSriIGApWDvzmuCmCXR60Zmt3WNPphCFWdbFzTm0whg/GrluB/ENkMak8AAACAAAAAgAAAAIAiBgLath/0mhTban0CsM0fu3j8SxgxK1tOVNrk26L7/vU21xDZDGpPAAAAgAAAAIABAACAAAEBIADC6wsAAAAAF6kUt/X69A49QKWkWbHbNTXyty+pIeiHIgIDCJ3BDHrG21T5EymvYXMz2ziM6tDCMfcjN50bmQMLAtxHMEQCIGLrelVhB6fHP0WsSrWh3d9vcHX7EnWWmn84Pv/3hLyyAiAMBdu3Rw2/LwhVfdNWxzJcHtMJE+mWzThAlF2xIijaXwEBAwQBAAAAAQQiACCMI1MXN0O1ld+0oHtyuo5C43l9p06H/n2ddJfjsgKJAwEFR1IhAwidwQx6xttU+RMpr2FzM9s4jOrQwjH3IzedG5kDCwLcIQI63ZBPPW3PWd25BrDe4jUpt/+57VDl6GFRkmhgIh8Oc1KuIgYCOt2QTz1tz1nduQaw3uI1Kbf/ue1Q5ehhUZJoYCIfDnMQ2QxqTwAAAIAAAACAAwAAgCIGAwidwQx6xttU+RMpr2FzM9s4jOrQwjH3IzedG5kDCwLcENkMak8AAACAAAAAgAIAAIAAIgIDqaTDf1mW06ol26xrVwrwZQOUSSlCRgs1R1Ptnuylh3EQ2QxqTwAAAIAAAACABAAAgAAiAgJ/Y5l1fS7/VaE2rQLGhLGDi2VW5fG2s0KCqUtrUAUQlhDZDGpPAAAAgAAAAIAFAACAAA==";
+
+        PSBT psbt = PSBT.fromString(strPsbt1);
+        PSBT modified = PSBT.fromString(strPsbt1);
+        Assert.assertEquals(psbt.getTransaction().getTxId(), modified.getTransaction().getTxId());
+
+        //The txid was cached above, and must be recalculated once an input changes
+        modified.getTransaction().getInputs().get(0).setSequenceNumber(TransactionInput.SEQUENCE_RBF_ENABLED);
+        Assert.assertNotEquals(psbt.getTransaction().getTxId(), modified.getTransaction().getTxId());
+
+        try {
+            psbt.combine(List.of(PSBT.fromString(strPsbt1), modified), null);
+            Assert.fail("Combined a PSBT with a different global transaction");
+        } catch(IllegalArgumentException e) {
+            //expected
+        }
+
+        Assert.assertEquals(strPsbt1, psbt.toBase64String());
+    }
+
     @Test
     public void extractorBip() throws PSBTParseException {
         String strPsbt = "cHNidP8BAJoCAAAAAljoeiG1ba8MI76OcHBFbDNvfLqlyHV5JPVFiHuyq911AAAAAAD/////g40EJ9DsZQpoqka7CwmK6kQiwHGyyng1Kgd5WdB86h0BAAAAAP////8CcKrwCAAAAAAWABTYXCtx0AYLCcmIauuBXlCZHdoSTQDh9QUAAAAAFgAUAK6pouXw+HaliN9VRuh0LR2HAI8AAAAAAAEAuwIAAAABqtc5MQGL0l+ErkALaISL4J23BurCrBgpi6vucatlb4sAAAAASEcwRAIgWPb8fGoz4bMVSNSByCbAFb0wE1qtQs1neQ2rZtKtJDsCIEoc7SYExnNbY5PltBaR3XiwDwxZQvufdRhW+qk4FX26Af7///8CgPD6AgAAAAAXqRQPuUY0IWlrgsgzryQceMF9295JNIfQ8gonAQAAABepFCnKdPigj4GZlCgYXJe12FLkBj9hh2UAAAABB9oARzBEAiB0AYrUGACXuHMyPAAVcgs2hMyBI4kQSOfbzZtVrWecmQIgc9Npt0Dj61Pc76M4I8gHBRTKVafdlUTxV8FnkTJhEYwBSDBFAiEA9hA4swjcHahlo0hSdG8BV3KTQgjG0kRUOTzZm98iF3cCIAVuZ1pnWm0KArhbFOXikHTYolqbV2C+ooFvZhkQoAbqAUdSIQKVg785rgpgl0etGZrd1jT6YQhVnWxc05tMIYPxq5bgfyEC2rYf9JoU22p9ArDNH7t4/EsYMStbTlTa5Nui+/71NtdSrgABASAAwusLAAAAABepFLf1+vQOPUClpFmx2zU18rcvqSHohwEHIyIAIIwjUxc3Q7WV37Sge3K6jkLjeX2nTof+fZ10l+OyAokDAQjaBABHMEQCIGLrelVhB6fHP0WsSrWh3d9vcHX7EnWWmn84Pv/3hLyyAiAMBdu3Rw2/LwhVfdNWxzJcHtMJE+mWzThAlF2xIijaXwFHMEQCIGX0W6WZi1mif/4ae+0BavHx+Q1Us6qPdFCqX1aiUQO9AiB/ckcDrR7blmgLKEtW1P/LiPf7dZ6rvgiqMPKbhROD0gFHUiEDCJ3BDHrG21T5EymvYXMz2ziM6tDCMfcjN50bmQMLAtwhAjrdkE89bc9Z3bkGsN7iNSm3/7ntUOXoYVGSaGAiHw5zUq4AIgIDqaTDf1mW06ol26xrVwrwZQOUSSlCRgs1R1Ptnuylh3EQ2QxqTwAAAIAAAACABAAAgAAiAgJ/Y5l1fS7/VaE2rQLGhLGDi2VW5fG2s0KCqUtrUAUQlhDZDGpPAAAAgAAAAIAFAACAAA==";
@@ -377,6 +449,332 @@ public class PSBTTest {
         Assert.assertEquals("0200000000010258e87a21b56daf0c23be8e7070456c336f7cbaa5c8757924f545887bb2abdd7500000000da00473044022074018ad4180097b873323c0015720b3684cc8123891048e7dbcd9b55ad679c99022073d369b740e3eb53dcefa33823c8070514ca55a7dd9544f157c167913261118c01483045022100f61038b308dc1da865a34852746f015772934208c6d24454393cd99bdf2217770220056e675a675a6d0a02b85b14e5e29074d8a25a9b5760bea2816f661910a006ea01475221029583bf39ae0a609747ad199addd634fa6108559d6c5cd39b4c2183f1ab96e07f2102dab61ff49a14db6a7d02b0cd1fbb78fc4b18312b5b4e54dae4dba2fbfef536d752aeffffffff838d0427d0ec650a68aa46bb0b098aea4422c071b2ca78352a077959d07cea1d01000000232200208c2353173743b595dfb4a07b72ba8e42e3797da74e87fe7d9d7497e3b2028903ffffffff0270aaf00800000000160014d85c2b71d0060b09c9886aeb815e50991dda124d00e1f5050000000016001400aea9a2e5f0f876a588df5546e8742d1d87008f000400473044022062eb7a556107a7c73f45ac4ab5a1dddf6f7075fb1275969a7f383efff784bcb202200c05dbb7470dbf2f08557dd356c7325c1ed30913e996cd3840945db12228da5f01473044022065f45ba5998b59a27ffe1a7bed016af1f1f90d54b3aa8f7450aa5f56a25103bd02207f724703ad1edb96680b284b56d4ffcb88f7fb759eabbe08aa30f29b851383d20147522103089dc10c7ac6db54f91329af617333db388cead0c231f723379d1b99030b02dc21023add904f3d6dcf59ddb906b0dee23529b7ffb9ed50e5e86151926860221f0e7352ae00000000", Utils.bytesToHex(transaction.bitcoinSerialize()));
     }
 
+    @Test
+    public void parseByteBuffer() throws PSBTParseException {
+        String psbtStr = "cHNidP8BAJoCAAAAAljoeiG1ba8MI76OcHBFbDNvfLqlyHV5JPVFiHuyq911AAAAAAD/////g40EJ9DsZQpoqka7CwmK6kQiwHGyyng1Kgd5WdB86h0BAAAAAP////8CcKrwCAAAAAAWABTYXCtx0AYLCcmIauuBXlCZHdoSTQDh9QUAAAAAFgAUAK6pouXw+HaliN9VRuh0LR2HAI8AAAAAAAEAuwIAAAABqtc5MQGL0l+ErkALaISL4J23BurCrBgpi6vucatlb4sAAAAASEcwRAIgWPb8fGoz4bMVSNSByCbAFb0wE1qtQs1neQ2rZtKtJDsCIEoc7SYExnNbY5PltBaR3XiwDwxZQvufdRhW+qk4FX26Af7///8CgPD6AgAAAAAXqRQPuUY0IWlrgsgzryQceMF9295JNIfQ8gonAQAAABepFCnKdPigj4GZlCgYXJe12FLkBj9hh2UAAAABB9oARzBEAiB0AYrUGACXuHMyPAAVcgs2hMyBI4kQSOfbzZtVrWecmQIgc9Npt0Dj61Pc76M4I8gHBRTKVafdlUTxV8FnkTJhEYwBSDBFAiEA9hA4swjcHahlo0hSdG8BV3KTQgjG0kRUOTzZm98iF3cCIAVuZ1pnWm0KArhbFOXikHTYolqbV2C+ooFvZhkQoAbqAUdSIQKVg785rgpgl0etGZrd1jT6YQhVnWxc05tMIYPxq5bgfyEC2rYf9JoU22p9ArDNH7t4/EsYMStbTlTa5Nui+/71NtdSrgABASAAwusLAAAAABepFLf1+vQOPUClpFmx2zU18rcvqSHohwEHIyIAIIwjUxc3Q7WV37Sge3K6jkLjeX2nTof+fZ10l+OyAokDAQjaBABHMEQCIGLrelVhB6fHP0WsSrWh3d9vcHX7EnWWmn84Pv/3hLyyAiAMBdu3Rw2/LwhVfdNWxzJcHtMJE+mWzThAlF2xIijaXwFHMEQCIGX0W6WZi1mif/4ae+0BavHx+Q1Us6qPdFCqX1aiUQO9AiB/ckcDrR7blmgLKEtW1P/LiPf7dZ6rvgiqMPKbhROD0gFHUiEDCJ3BDHrG21T5EymvYXMz2ziM6tDCMfcjN50bmQMLAtwhAjrdkE89bc9Z3bkGsN7iNSm3/7ntUOXoYVGSaGAiHw5zUq4AIgIDqaTDf1mW06ol26xrVwrwZQOUSSlCRgs1R1Ptnuylh3EQ2QxqTwAAAIAAAACABAAAgAAiAgJ/Y5l1fS7/VaE2rQLGhLGDi2VW5fG2s0KCqUtrUAUQlhDZDGpPAAAAgAAAAIAFAACAAA==";
+        byte[] psbtBytes = Base64.decode(psbtStr);
+        ByteBuffer psbtBuffer = ByteBuffer.allocateDirect(psbtBytes.length + 3);
+        psbtBuffer.put(new byte[3]).put(psbtBytes).position(3);
+
+        PSBT psbt = new PSBT(psbtBuffer, true);
+        Assert.assertTrue(psbt.getPsbtInputs().get(0).hasNonWitnessUtxo());
+        Assert.assertEquals(psbtStr, psbt.toBase64String());
+        Assert.assertEquals("75ddabb27b8845f5247975c8a5ba7c6f336c4570708ebe230caf6db5217ae858", psbt.getPsbtInputs().get(0).getNonWitnessUtxo().getTxId().toString());
+        Assert.assertEquals(psbtStr, psbt.toBase64String());
+    }
+
+    @Test
+    public void parseParallel() throws PSBTParseException {
+        String psbtStr = "cHNidP8BAJoCAAAAAljoeiG1ba8MI76OcHBFbDNvfLqlyHV5JPVFiHuyq911AAAAAAD/////g40EJ9DsZQpoqka7CwmK6kQiwHGyyng1Kgd5WdB86h0BAAAAAP////8CcKrwCAAAAAAWABTYXCtx0AYLCcmIauuBXlCZHdoSTQDh9QUAAAAAFgAUAK6pouXw+HaliN9VRuh0LR2HAI8AAAAAAAEAuwIAAAABqtc5MQGL0l+ErkALaISL4J23BurCrBgpi6vucatlb4sAAAAASEcwRAIgWPb8fGoz4bMVSNSByCbAFb0wE1qtQs1neQ2rZtKtJDsCIEoc7SYExnNbY5PltBaR3XiwDwxZQvufdRhW+qk4FX26Af7///8CgPD6AgAAAAAXqRQPuUY0IWlrgsgzryQceMF9295JNIfQ8gonAQAAABepFCnKdPigj4GZlCgYXJe12FLkBj9hh2UAAAAiAgLath/0mhTban0CsM0fu3j8SxgxK1tOVNrk26L7/vU210gwRQIhAPYQOLMI3B2oZaNIUnRvAVdyk0IIxtJEVDk82ZvfIhd3AiAFbmdaZ1ptCgK4WxTl4pB02KJam1dgvqKBb2YZEKAG6gEBAwQBAAAAAQRHUiEClYO/Oa4KYJdHrRma3dY0+mEIVZ1sXNObTCGD8auW4H8hAtq2H/SaFNtqfQKwzR+7ePxLGDErW05U2uTbovv+9TbXUq4iBgKVg785rgpgl0etGZrd1jT6YQhVnWxc05tMIYPxq5bgfxDZDGpPAAAAgAAAAIAAAACAIgYC2rYf9JoU22p9ArDNH7t4/EsYMStbTlTa5Nui+/71NtcQ2QxqTwAAAIAAAACAAQAAgAABASAAwusLAAAAABepFLf1+vQOPUClpFmx2zU18rcvqSHohyICAjrdkE89bc9Z3bkGsN7iNSm3/7ntUOXoYVGSaGAiHw5zRzBEAiBl9FulmYtZon/+GnvtAWrx8fkNVLOqj3RQql9WolEDvQIgf3JHA60e25ZoCyhLVtT/y4j3+3Weq74IqjDym4UTg9IBAQMEAQAAAAEEIgAgjCNTFzdDtZXftKB7crqOQuN5fadOh/59nXSX47ICiQMBBUdSIQMIncEMesbbVPkTKa9hczPbOIzq0MIx9yM3nRuZAwsC3CECOt2QTz1tz1nduQaw3uI1Kbf/ue1Q5ehhUZJoYCIfDnNSriIGAjrdkE89bc9Z3bkGsN7iNSm3/7ntUOXoYVGSaGAiHw5zENkMak8AAACAAAAAgAMAAIAiBgMIncEMesbbVPkTKa9hczPbOIzq0MIx9yM3nRuZAwsC3BDZDGpPAAAAgAAAAIACAACAACICA6mkw39ZltOqJdusa1cK8GUDlEkpQkYLNUdT7Z7spYdxENkMak8AAACAAAAAgAQAAIAAIgICf2OZdX0u/1WhNq0CxoSxg4tlVuXxtrNCgqlLa1AFEJYQ2QxqTwAAAIAAAACABQAAgAA=";
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            PSBT psbt = PSBT.fromString(psbtStr, true, executor);
+            Assert.assertEquals(2, psbt.getPsbtInputs().size());
+            Assert.assertEquals(PSBT.fromString(psbtStr).toBase64String(), psbt.toBase64String());
+            psbt.verifySignatures(executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parseParallelLowestIndexError() throws PSBTParseException {
+        String psbtStr = "cHNidP8BAJoCAAAAAljoeiG1ba8MI76OcHBFbDNvfLqlyHV5JPVFiHuyq911AAAAAAD/////g40EJ9DsZQpoqka7CwmK6kQiwHGyyng1Kgd5WdB86h0BAAAAAP////8CcKrwCAAAAAAWABTYXCtx0AYLCcmIauuBXlCZHdoSTQDh9QUAAAAAFgAUAK6pouXw+HaliN9VRuh0LR2HAI8AAAAAAAEAuwIAAAABqtc5MQGL0l+ErkALaISL4J23BurCrBgpi6vucatlb4sAAAAASEcwRAIgWPb8fGoz4bMVSNSByCbAFb0wE1qtQs1neQ2rZtKtJDsCIEoc7SYExnNbY5PltBaR3XiwDwxZQvufdRhW+qk4FX26Af7///8CgPD6AgAAAAAXqRQPuUY0IWlrgsgzryQceMF9295JNIfQ8gonAQAAABepFCnKdPigj4GZlCgYXJe12FLkBj9hh2UAAAAiAgLath/0mhTban0CsM0fu3j8SxgxK1tOVNrk26L7/vU210gwRQIhAPYQOLMI3B2oZaNIUnRvAVdyk0IIxtJEVDk82ZvfIhd3AiAFbmdaZ1ptCgK4WxTl4pB02KJam1dgvqKBb2YZEKAG6gEBAwQBAAAAAQRHUiEClYO/Oa4KYJdHrRma3dY0+mEIVZ1sXNObTCGD8auW4H8hAtq2H/SaFNtqfQKwzR+7ePxLGDErW05U2uTbovv+9TbXUq4iBgKVg785rgpgl0etGZrd1jT6YQhVnWxc05tMIYPxq5bgfxDZDGpPAAAAgAAAAIAAAACAIgYC2rYf9JoU22p9ArDNH7t4/EsYMStbTlTa5Nui+/71NtcQ2QxqTwAAAIAAAACAAQAAgAABASAAwusLAAAAABepFLf1+vQOPUClpFmx2zU18rcvqSHohyICAjrdkE89bc9Z3bkGsN7iNSm3/7ntUOXoYVGSaGAiHw5zRzBEAiBl9FulmYtZon/+GnvtAWrx8fkNVLOqj3RQql9WolEDvQIgf3JHA60e25ZoCyhLVtT/y4j3+3Weq74IqjDym4UTg9IBAQMEAQAAAAEEIgAgjCNTFzdDtZXftKB7crqOQuN5fadOh/59nXSX47ICiQMBBUdSIQMIncEMesbbVPkTKa9hczPbOIzq0MIx9yM3nRuZAwsC3CECOt2QTz1tz1nduQaw3uI1Kbf/ue1Q5ehhUZJoYCIfDnNSriIGAjrdkE89bc9Z3bkGsN7iNSm3/7ntUOXoYVGSaGAiHw5zENkMak8AAACAAAAAgAMAAIAiBgMIncEMesbbVPkTKa9hczPbOIzq0MIx9yM3nRuZAwsC3BDZDGpPAAAAgAAAAIACAACAACICA6mkw39ZltOqJdusa1cK8GUDlEkpQkYLNUdT7Z7spYdxENkMak8AAACAAAAAgAQAAIAAIgICf2OZdX0u/1WhNq0CxoSxg4tlVuXxtrNCgqlLa1AFEJYQ2QxqTwAAAIAAAACABQAAgAA=";
+        byte[] psbtBytes = Base64.decode(psbtStr);
+
+        //Find the separators ending the global map and each input map
+        List<Integer> separators = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(psbtBytes);
+        buffer.position(5);
+        while(separators.size() < 3) {
+            if(new PSBTEntry(buffer).isSeparator()) {
+                separators.add(buffer.position() - 1);
+            }
+        }
+
+        //Give each input a duplicated key that identifies the input in the parse error
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(psbtBytes, 0, separators.get(1));
+        baos.writeBytes(new byte[] {0x02, 0x70, 0x00, 0x00, 0x02, 0x70, 0x00, 0x00});
+        baos.write(psbtBytes, separators.get(1), separators.get(2) - separators.get(1));
+        baos.writeBytes(new byte[] {0x02, 0x70, 0x01, 0x00, 0x02, 0x70, 0x01, 0x00});
+        baos.write(psbtBytes, separators.get(2), psbtBytes.length - separators.get(2));
+
+        //Delay the first input so that the second input fails first
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        AtomicInteger submitted = new AtomicInteger();
+        Executor executor = task -> {
+            boolean first = submitted.getAndIncrement() == 0;
+            pool.execute(() -> {
+                if(first) {
+                    try {
+                        Thread.sleep(200);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                task.run();
+            });
+        };
+
+        try {
+            PSBT.fromString(Base64.toBase64String(baos.toByteArray()), false, executor);
+            Assert.fail("Parsed inputs with duplicate keys");
+        } catch(PSBTParseException e) {
+            Assert.assertEquals("Found duplicate key for PSBT input: 7000", e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void sharedNonWitnessUtxo() throws PSBTParseException {
+        Transaction parent = new Transaction();
+        parent.addInput(Sha256Hash.twiceOf(new byte[32]), 0, new Script(new byte[0]));
+        parent.addOutput(100000L, ScriptType.P2PKH.getOutputScript(new byte[20]));
+        parent.addOutput(200000L, ScriptType.P2PKH.getOutputScript(new byte[20]));
+
+        Transaction transaction = new Transaction();
+        transaction.addInput(parent.getTxId(), 0, new Script(new byte[0]));
+        transaction.addInput(parent.getTxId(), 1, new Script(new byte[0]));
+        transaction.addOutput(290000L, ScriptType.P2PKH.getOutputScript(new byte[20]));
+
+        PSBT created = new PSBT(transaction);
+        for(PSBTInput psbtInput : created.getPsbtInputs()) {
+            psbtInput.setNonWitnessUtxo(parent);
+        }
+
+        PSBT psbt = new PSBT(created.serialize());
+        Transaction utxo0 = psbt.getPsbtInputs().get(0).getNonWitnessUtxo();
+        Assert.assertEquals(parent.getTxId(), utxo0.getTxId());
+        Assert.assertSame(utxo0, psbt.getPsbtInputs().get(1).getNonWitnessUtxo());
+        Assert.assertEquals(Long.valueOf(10000L), psbt.getFee());
+        Assert.assertArrayEquals(created.serialize(), psbt.serialize());
+
+        //A retained parent transaction provides the spent output itself
+        TransactionOutput utxo = psbt.getPsbtInputs().get(1).getUtxo();
+        Assert.assertSame(utxo0.getOutputs().get(1), utxo);
+        Assert.assertEquals(parent.getTxId(), utxo.getHash());
+        Assert.assertEquals(1, utxo.getIndex());
+    }
+
+    @Test
+    public void parseByteArrayCopy() throws PSBTParseException {
+        Transaction parent = new Transaction();
+        parent.addInput(Sha256Hash.twiceOf(new byte[32]), 0, new Script(new byte[0]));
+        parent.addOutput(100000L, ScriptType.P2PKH.getOutputScript(new byte[20]));
+
+        Transaction transaction = new Transaction();
+        transaction.addInput(parent.getTxId(), 0, new Script(new byte[0]));
+        transaction.addOutput(90000L, ScriptType.P2PKH.getOutputScript(new byte[20]));
+
+        PSBT created = new PSBT(transaction);
+        created.getPsbtInputs().get(0).setNonWitnessUtxo(parent);
+        byte[] psbtBytes = created.serialize();
+
+        //Reusing the array after parsing must not change the PSBT
+        PSBT psbt = new PSBT(psbtBytes);
+        Arrays.fill(psbtBytes, (byte)0);
+        Assert.assertEquals(parent.getTxId(), psbt.getPsbtInputs().get(0).getNonWitnessUtxo().getTxId());
+        Assert.assertArrayEquals(created.serialize(), psbt.serialize());
+    }
+
+    @Test(expected = PSBTParseException.class)
+    public void nonWitnessUtxoOutpointIndexTooLarge() throws PSBTParseException {
+        Transaction parent = new Transaction();
+        parent.addInput(Sha256Hash.twiceOf(new byte[32]), 0, new Script(new byte[0]));
+        parent.addOutput(100000L, ScriptType.P2PKH.getOutputScript(new byte[20]));
+
+        //The outpoint index is negative when read as an int
+        Transaction transaction = new Transaction();
+        transaction.addInput(parent.getTxId(), 0x80000000L, new Script(new byte[0]));
+        transaction.addOutput(90000L, ScriptType.P2PKH.getOutputScript(new byte[20]));
+
+        PSBT created = new PSBT(transaction);
+        created.getPsbtInputs().get(0).setNonWitnessUtxo(parent);
+        new PSBT(created.serialize());
+    }
+
+    @Test
+    public void mappedFile() throws PSBTParseException, IOException {
+        Transaction parent = new Transaction();
+        parent.addInput(Sha256Hash.twiceOf(new byte[32]), 0, new Script(new byte[0]));
+        parent.addOutput(100000L, ScriptType.P2PKH.getOutputScript(new byte[20]));
+        parent.addOutput(200000L, ScriptType.P2SH.getOutputScript(new byte[20]));
+
+        Transaction transaction = new Transaction();
+        transaction.addInput(parent.getTxId(), 1, new Script(new byte[0]));
+        transaction.addOutput(190000L, ScriptType.P2PKH.getOutputScript(new byte[20]));
+
+        PSBT created = new PSBT(transaction);
+        created.getPsbtInputs().get(0).setNonWitnessUtxo(parent);
+
+        Path path = Files.createTempFile("drongo", ".psbt");
+        try {
+            Files.write(path, created.serialize());
+            PSBT psbt = PSBT.fromFile(path, true);
+            PSBTInput psbtInput = psbt.getPsbtInputs().get(0);
+            Assert.assertEquals(200000L, psbtInput.getUtxo().getValue());
+            Assert.assertEquals(Long.valueOf(10000L), psbt.getFee());
+
+            Transaction utxo = psbtInput.getNonWitnessUtxo();
+            Assert.assertEquals(parent.getTxId(), utxo.getTxId());
+            Assert.assertNotSame(utxo, psbtInput.getNonWitnessUtxo());
+            Assert.assertArrayEquals(created.serialize(), psbt.serialize());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void signingPlan() throws PSBTSignatureException {
+        ECKey segwitKey = ECKey.fromPrivate(Sha256Hash.hash("segwit".getBytes(StandardCharsets.UTF_8)));
+        ECKey taprootKey = ECKey.fromPrivate(Sha256Hash.hash("taproot".getBytes(StandardCharsets.UTF_8)));
+
+        Transaction transaction = new Transaction();
+        transaction.addInput(Sha256Hash.twiceOf(new byte[] {0}), 0, new Script(new byte[0]));
+        transaction.addInput(Sha256Hash.twiceOf(new byte[] {1}), 1, new Script(new byte[0]));
+        transaction.addInput(Sha256Hash.twiceOf(new byte[] {2}), 2, new Script(new byte[0]));
+        transaction.addOutput(290000L, ScriptType.P2WPKH.getOutputScript(segwitKey));
+
+        PSBT psbt = new PSBT(transaction);
+        List<TransactionOutput> spentUtxos = List.of(new TransactionOutput(transaction, 100000L, ScriptType.P2WPKH.getOutputScript(segwitKey)),
+                new TransactionOutput(transaction, 100000L, ScriptType.P2TR.getOutputScript(taprootKey)),
+                new TransactionOutput(transaction, 100000L, ScriptType.P2WPKH.getOutputScript(segwitKey)));
+        for(int i = 0; i < spentUtxos.size(); i++) {
+            psbt.getPsbtInputs().get(i).setWitnessUtxo(spentUtxos.get(i));
+        }
+
+        PSBTInput segwitInput = psbt.getPsbtInputs().get(0);
+        PSBTInput taprootInput = psbt.getPsbtInputs().get(1);
+        Assert.assertSame(segwitInput.getSigningScript(), segwitInput.getSigningScript());
+        Assert.assertTrue(segwitInput.sign(segwitKey));
+        Assert.assertTrue(taprootInput.sign(ScriptType.P2TR.getOutputKey(taprootKey)));
+        Assert.assertTrue(psbt.getPsbtInputs().get(2).sign(segwitKey));
+        psbt.verifySignatures();
+
+        Sha256Hash segwitHash = transaction.hashForWitnessSignature(0, ScriptType.P2PKH.getOutputScript(segwitKey), 100000L, SigHash.ALL);
+        Assert.assertTrue(segwitKey.verify(segwitHash, segwitInput.getPartialSignature(ECKey.fromPublicOnly(segwitKey))));
+        Sha256Hash taprootHash = transaction.hashForTaprootSignature(spentUtxos, 1, false, spentUtxos.get(1).getScript(), SigHash.ALL_TAPROOT, null);
+        Assert.assertTrue(ScriptType.P2TR.getOutputKey(taprootKey).verify(taprootHash, taprootInput.getTapKeyPathSignature()));
+
+        segwitInput.setSigHash(SigHash.ANYONECANPAY_ALL);
+        Assert.assertTrue(segwitInput.sign(segwitKey));
+        psbt.verifySignatures();
+        Assert.assertEquals(1, segwitInput.getSigningKeys(Set.of(ECKey.fromPublicOnly(segwitKey))).size());
+
+        //Changing the transaction directly rather than through the PSBT must not leave stale signature hashes
+        transaction.getInputs().get(0).setSequenceNumber(TransactionInput.SEQUENCE_RBF_ENABLED);
+        Assert.assertTrue(segwitInput.sign(segwitKey));
+        Sha256Hash changedHash = transaction.hashForWitnessSignature(0, ScriptType.P2PKH.getOutputScript(segwitKey), 100000L, SigHash.ANYONECANPAY_ALL);
+        Assert.assertTrue(segwitKey.verify(changedHash, segwitInput.getPartialSignature(ECKey.fromPublicOnly(segwitKey))));
+    }
+
+    @Test
+    public void psbtVersion2() throws PSBTParseException {
+        ECKey key = ECKey.fromPrivate(Sha256Hash.hash("v2".getBytes(StandardCharsets.UTF_8)));
+        Script script = ScriptType.P2WPKH.getOutputScript(key);
+
+        PSBT psbt = new PSBT(2, 800000L);
+        for(int i = 0; i < 3; i++) {
+            PSBTInput psbtInput = psbt.addInput(Sha256Hash.twiceOf(new byte[] {(byte)i}), i, TransactionInput.SEQUENCE_RBF_ENABLED);
+            psbtInput.setWitnessUtxo(new TransactionOutput(new Transaction(), 100000L, script));
+        }
+        psbt.getPsbtInputs().get(1).setRequiredHeightLocktime(800100L);
+        psbt.addOutput(150000L, script);
+        psbt.addOutput(40000L, script);
+        psbt.removeInput(0);
+        Assert.assertEquals(800100L, psbt.getTransaction().getLocktime());
+        Assert.assertEquals(2, psbt.getPsbtInputs().get(1).getInput().getOutpoint().getIndex());
+
+        PSBT parsed = new PSBT(psbt.serialize());
+        Assert.assertEquals(Integer.valueOf(2), parsed.getVersion());
+        Assert.assertEquals(psbt.getTransaction().getTxId(), parsed.getTransaction().getTxId());
+        Assert.assertEquals(Long.valueOf(800100L), parsed.getPsbtInputs().get(0).getRequiredHeightLocktime());
+        Assert.assertEquals(Long.valueOf(10000L), parsed.getFee());
+        Assert.assertArrayEquals(psbt.serialize(), parsed.serialize());
+
+        Assert.assertTrue(parsed.getPsbtInputs().get(0).sign(key));
+        Assert.assertEquals(Integer.valueOf(0), parsed.getTxModifiable());
+        try {
+            parsed.addInput(Sha256Hash.ZERO_HASH, 0, TransactionInput.SEQUENCE_RBF_ENABLED);
+            Assert.fail("Added an input to a signed PSBT");
+        } catch(IllegalStateException e) {
+            //expected
+        }
+
+        PSBT empty = new PSBT(new PSBT(2, null).serialize());
+        Assert.assertEquals(0, empty.getPsbtInputs().size());
+        Assert.assertEquals(0L, empty.getTransaction().getLocktime());
+    }
+
+    @Test
+    public void psbtVersion2SigHashSingle() {
+        ECKey key = ECKey.fromPrivate(Sha256Hash.hash("v2".getBytes(StandardCharsets.UTF_8)));
+        Script script = ScriptType.P2WPKH.getOutputScript(key);
+
+        for(SigHash sigHash : List.of(SigHash.SINGLE, SigHash.ANYONECANPAY_SINGLE)) {
+            PSBT psbt = new PSBT(2, null);
+            for(int i = 0; i < 2; i++) {
+                PSBTInput psbtInput = psbt.addInput(Sha256Hash.twiceOf(new byte[] {(byte)i}), i, TransactionInput.SEQUENCE_RBF_ENABLED);
+                psbtInput.setWitnessUtxo(new TransactionOutput(new Transaction(), 100000L, script));
+                psbt.addOutput(90000L, script);
+            }
+
+            PSBTInput psbtInput = psbt.getPsbtInputs().get(0);
+            psbtInput.setSigHash(sigHash);
+            Assert.assertTrue(psbtInput.sign(key));
+
+            //The signature commits to the output at its own index, so outputs can no longer be modified
+            int inputsModifiable = sigHash == SigHash.ANYONECANPAY_SINGLE ? PSBT.TX_MODIFIABLE_INPUTS : 0;
+            Assert.assertEquals(Integer.valueOf(inputsModifiable | PSBT.TX_MODIFIABLE_SIGHASH_SINGLE), psbt.getTxModifiable());
+        }
+    }
+
+    @Test(expected = PSBTParseException.class)
+    public void psbtVersion2TxVersion1() throws PSBTParseException {
+        try {
+            new PSBT(1, null);
+            Assert.fail("Created a PSBTv2 with a transaction version of 1");
+        } catch(IllegalArgumentException e) {
+            //expected
+        }
+
+        PSBT psbt = new PSBT(2, null);
+        psbt.getTransaction().setVersion(1);
+        new PSBT(psbt.serialize());
+    }
+
+    @Test
+    public void truncatedPSBT() throws PSBTParseException {
+        byte[] bytes = Base64.decode("cHNidP8BAHUCAAAAASaBcTce3/KF6Tet7qSze3gADAVmy7OtZGQXE8pCFxv2AAAAAAD+////AtPf9QUAAAAAGXapFNDFmQPFusKGh2DpD9UhpGZap2UgiKwA4fUFAAAAABepFDVF5uM7gyxHBQ8k0+65PJwDlIvHh7MuEwAAAQD9pQEBAAAAAAECiaPHHqtNIOA3G7ukzGmPopXJRjr6Ljl/hTPMti+VZ+UBAAAAFxYAFL4Y0VKpsBIDna89p95PUzSe7LmF/////4b4qkOnHf8USIk6UwpyN+9rRgi7st0tAXHmOuxqSJC0AQAAABcWABT+Pp7xp0XpdNkCxDVZQ6vLNL1TU/////8CAMLrCwAAAAAZdqkUhc/xCX/Z4Ai7NK9wnGIZeziXikiIrHL++E4sAAAAF6kUM5cluiHv1irHU6m80GfWx6ajnQWHAkcwRAIgJxK+IuAnDzlPVoMR3HyppolwuAJf3TskAinwf4pfOiQCIAGLONfc0xTnNMkna9b7QPZzMlvEuqFEyADS8vAtsnZcASED0uFWdJQbrUqZY3LLh+GFbTZSYG2YVi/jnF6efkE/IQUCSDBFAiEA0SuFLYXc2WHS9fSrZgZU327tzHlMDDPOXMMJ/7X85Y0CIGczio4OFyXBl/saiK9Z9R5E5CVbIBZ8hoQDHAXR8lkqASECI7cr7vCWXRC+B3jv7NYfysb3mk6haTkzgHNEZPhPKrMAAAAAAAAA");
+        new PSBT(bytes);
+
+        for(int length = 0; length < bytes.length; length++) {
+            try {
+                new PSBT(Arrays.copyOf(bytes, length));
+                Assert.fail("Parsed a PSBT truncated to " + length + " bytes");
+            } catch(PSBTParseException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test(expected = PSBTParseException.class)
+    public void truncatedUnsignedTx() throws PSBTParseException {
+        byte[] bytes = Base64.decode("cHNidP8BAHUCAAAAASaBcTce3/KF6Tet7qSze3gADAVmy7OtZGQXE8pCFxv2AAAAAAD+////AtPf9QUAAAAAGXapFNDFmQPFusKGh2DpD9UhpGZap2UgiKwA4fUFAAAAABepFDVF5uM7gyxHBQ8k0+65PJwDlIvHh7MuEwAAAQD9pQEBAAAAAAECiaPHHqtNIOA3G7ukzGmPopXJRjr6Ljl/hTPMti+VZ+UBAAAAFxYAFL4Y0VKpsBIDna89p95PUzSe7LmF/////4b4qkOnHf8USIk6UwpyN+9rRgi7st0tAXHmOuxqSJC0AQAAABcWABT+Pp7xp0XpdNkCxDVZQ6vLNL1TU/////8CAMLrCwAAAAAZdqkUhc/xCX/Z4Ai7NK9wnGIZeziXikiIrHL++E4sAAAAF6kUM5cluiHv1irHU6m80GfWx6ajnQWHAkcwRAIgJxK+IuAnDzlPVoMR3HyppolwuAJf3TskAinwf4pfOiQCIAGLONfc0xTnNMkna9b7QPZzMlvEuqFEyADS8vAtsnZcASED0uFWdJQbrUqZY3LLh+GFbTZSYG2YVi/jnF6efkE/IQUCSDBFAiEA0SuFLYXc2WHS9fSrZgZU327tzHlMDDPOXMMJ/7X85Y0CIGczio4OFyXBl/saiK9Z9R5E5CVbIBZ8hoQDHAXR8lkqASECI7cr7vCWXRC+B3jv7NYfysb3mk6haTkzgHNEZPhPKrMAAAAAAAAA");
+
+        //Shorten the unsigned transaction by its final locktime byte, so that the following separator would be read in its place
+        int txLength = bytes[7] & 0xff;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(bytes, 0, 7);
+        baos.write(txLength - 1);
+        baos.write(bytes, 8, txLength - 1);
+        baos.write(bytes, 8 + txLength, bytes.length - 8 - txLength);
+
+        new PSBT(baos.toByteArray());
+    }
+
     @Test
     public void isPSBT() {
         String s = null;
@@ -1,5 +1,6 @@
 package com.sparrowwallet.drongo.wallet;
 
+import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.Utils;
 import com.sparrowwallet.drongo.protocol.ScriptType;
 import org.junit.Assert;
@@ -25,4 +26,45 @@ public class KeystoreTest {
 
         Assert.assertEquals("xpub6D9jqMkBdgTqrzTxXVo2w8yZCa7HvzJTybFevJ2StHSxBRhs8dzsVEke9TQ9QjZCKbWZvzbc8iSScBbsCiA11wT28hZmCv3YmjSFEqCLmMn", keystore.getExtendedPublicKey().toString());
     }
+
+    @Test
+    public void testCheckKeystoreCached() throws MnemonicException, InvalidKeystoreException {
+        DeterministicSeed seed = new DeterministicSeed("absent essay fox snake vast pumpkin height crouch silent bulb excuse razor", "", 0, DeterministicSeed.Type.BIP39);
+        Keystore keystore = Keystore.fromSeed(seed, ScriptType.P2PKH.getDefaultDerivation());
+        Assert.assertTrue(keystore.requiresDerivationCheck());
+        keystore.checkKeystore();
+        Assert.assertFalse(keystore.requiresDerivationCheck());
+        keystore.checkKeystore();
+
+        seed.setPassphrase("pp");
+        Assert.assertTrue(keystore.requiresDerivationCheck());
+        Assert.assertFalse(keystore.isValid());
+    }
+
+    @Test
+    public void testKeystoreSession() throws MnemonicException {
+        DeterministicSeed seed = new DeterministicSeed("absent essay fox snake vast pumpkin height crouch silent bulb excuse razor", "", 0, DeterministicSeed.Type.BIP39);
+        Keystore keystore = Keystore.fromSeed(seed, ScriptType.P2WPKH.getDefaultDerivation());
+
+        KeystoreSession keystoreSession = keystore.openSession();
+        Assert.assertTrue(keystoreSession.isOpen());
+        Assert.assertArrayEquals(keystore.getKey(KeyPurpose.RECEIVE, 3).getPrivKeyBytes(), keystoreSession.getKey(KeyPurpose.RECEIVE, 3).getPrivKeyBytes());
+        Assert.assertArrayEquals(keystore.getKey(KeyPurpose.CHANGE, 1).getPrivKeyBytes(), keystoreSession.getKey(KeyPurpose.CHANGE, 1).getPrivKeyBytes());
+
+        keystoreSession.close();
+        Assert.assertFalse(keystoreSession.isOpen());
+        try {
+            keystoreSession.getKey(KeyPurpose.RECEIVE, 0);
+            Assert.fail("Closed session returned a key");
+        } catch(IllegalStateException e) {
+            //expected
+        }
+
+        try(KeystoreSession unboundedSession = keystore.openSession(null)) {
+            Assert.assertTrue(unboundedSession.isOpen());
+            Assert.assertArrayEquals(keystore.getKey(KeyPurpose.RECEIVE, 3).getPrivKeyBytes(), unboundedSession.getKey(KeyPurpose.RECEIVE, 3).getPrivKeyBytes());
+            unboundedSession.close();
+            Assert.assertFalse(unboundedSession.isOpen());
+        }
+    }
 }
@@ -0,0 +1,150 @@
+package com.sparrowwallet.drongo.wallet;
+
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class UtxoSelectorTest {
+    private static final int INPUT_WEIGHT_UNITS = 272;
+
+    @Test
+    public void bnbExactMatch() {
+        List<OutputGroup> pool = createPool(1.0, 1.0, 100000L, 50000L, 30000L, 20000L, 10000L);
+        long inputFee = 68;
+
+        Collection<BlockTransactionHashIndex> selected = new BnBUtxoSelector(0, 0).select(60000L - 2 * inputFee, pool);
+        Assert.assertEquals(2, selected.size());
+        Assert.assertEquals(60000L, selected.stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+    }
+
+    @Test
+    public void bnbNoMatch() {
+        List<OutputGroup> pool = createPool(1.0, 1.0, 100000L, 50000L);
+        Assert.assertTrue(new BnBUtxoSelector(0, 0).select(70000L, pool).isEmpty());
+        Assert.assertTrue(new BnBUtxoSelector(0, 0).select(200000L, pool).isEmpty());
+    }
+
+    @Test
+    public void knapsackExactSubset() {
+        List<OutputGroup> pool = createPool(0.0, 0.0, 30000L, 20000L, 15000L, 12000L, 7000L, 500000L);
+
+        for(int parallelism : new int[] {1, 4}) {
+            Collection<BlockTransactionHashIndex> selected = new KnapsackUtxoSelector(0, parallelism).select(42000L, pool);
+            Assert.assertEquals(42000L, selected.stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+        }
+    }
+
+    @Test
+    public void knapsackEqualValuesRandom() {
+        SelectionContext context = new SelectionContext(createPool(0.0, 0.0, 20000L, 20000L, 20000L, 20000L, 200000L, 200000L, 200000L, 200000L));
+
+        //Groups of equal value are chosen between randomly, for both an exact match and the lowest larger group
+        Set<Collection<BlockTransactionHashIndex>> exactMatches = new HashSet<>();
+        Set<Collection<BlockTransactionHashIndex>> lowestLarger = new HashSet<>();
+        for(int i = 0; i < 50; i++) {
+            exactMatches.add(new KnapsackUtxoSelector(0).select(20000L, context));
+            lowestLarger.add(new ArrayList<>(new KnapsackUtxoSelector(0).select(45000L, context)));
+        }
+
+        Assert.assertTrue(exactMatches.size() > 1);
+        Assert.assertTrue(lowestLarger.size() > 1);
+        for(Collection<BlockTransactionHashIndex> selected : lowestLarger) {
+            Assert.assertEquals(200000L, selected.stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+        }
+    }
+
+    @Test
+    public void presortedSelectors() {
+        SelectionContext context = new SelectionContext(createPool(0.0, 0.0, 20000L, 100000L, 50000L, 10000L, 30000L));
+        Assert.assertEquals(210000L, context.getTotalEffectiveValue());
+        Assert.assertEquals(180000L, context.getPrefixSum(3));
+
+        Collection<BlockTransactionHashIndex> largestFirst = new LargestFirstUtxoSelector(0).select(120000L, context);
+        Assert.assertEquals(2, largestFirst.size());
+        Assert.assertEquals(150000L, largestFirst.stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+        Assert.assertTrue(new LargestFirstUtxoSelector(0).select(220000L, context).isEmpty());
+
+        Collection<BlockTransactionHashIndex> lowestLarger = new LowestLargerUtxoSelector(0).select(25000L, context);
+        Assert.assertEquals(30000L, lowestLarger.stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+        Assert.assertTrue(new LowestLargerUtxoSelector(0).select(100001L, context).isEmpty());
+
+        for(int i = 0; i < 20; i++) {
+            Collection<BlockTransactionHashIndex> randomDraw = new SingleRandomDrawUtxoSelector(0).select(40000L, context);
+            Assert.assertTrue(randomDraw.stream().mapToLong(BlockTransactionHashIndex::getValue).sum() >= 90000L);
+            Assert.assertEquals(randomDraw.size(), randomDraw.stream().distinct().count());
+        }
+        Assert.assertTrue(new SingleRandomDrawUtxoSelector(0).select(210001L, context).isEmpty());
+    }
+
+    @Test
+    public void selectionEngineLowestWaste() {
+        List<OutputGroup> pool = createPool(1.0, 1.0, 100000L, 50000L, 30000L, 20000L, 10000L);
+        long inputFee = 68;
+        long targetValue = 60000L - 2 * inputFee;
+
+        UtxoSelectionEngine selectionEngine = new UtxoSelectionEngine();
+        List<UtxoSelector> utxoSelectors = List.of(new MaxUtxoSelector(), new BnBUtxoSelector(0, 10));
+        Collection<BlockTransactionHashIndex> selected = selectionEngine.select(utxoSelectors, List.of(pool), targetValue - 1, 0, 1000);
+        Assert.assertEquals(60000L, selected.stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+
+        Collection<BlockTransactionHashIndex> preferred = selectionEngine.select(utxoSelectors, List.of(pool.subList(0, 1), pool), targetValue - 1, 0, 1000);
+        Assert.assertEquals(100000L, preferred.stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+    }
+
+    @Test
+    public void selectionEngineCancelsOutstanding() throws InterruptedException {
+        List<OutputGroup> pool = createPool(1.0, 1.0, 100000L, 50000L);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AtomicBoolean queuedStarted = new AtomicBoolean();
+        UtxoSelector blockingSelector = (targetValue, candidates) -> {
+            try {
+                Thread.sleep(60000);
+            } catch(InterruptedException e) {
+                interrupted.countDown();
+            }
+            return List.of();
+        };
+        UtxoSelector queuedSelector = (targetValue, candidates) -> {
+            queuedStarted.set(true);
+            return List.of();
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            UtxoSelectionEngine selectionEngine = new UtxoSelectionEngine(executor, Duration.ofMillis(50));
+            Collection<BlockTransactionHashIndex> selected = selectionEngine.select(List.of(new MaxUtxoSelector(), blockingSelector, queuedSelector), List.of(pool), 1000L, 0, 1000);
+            Assert.assertEquals(150000L, selected.stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+            Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertFalse(queuedStarted.get());
+    }
+
+    static List<OutputGroup> createPool(double feeRate, double longTermFeeRate, long... values) {
+        List<OutputGroup> pool = new ArrayList<>();
+        for(int i = 0; i < values.length; i++) {
+            byte[] hash = new byte[32];
+            hash[0] = (byte)i;
+            OutputGroup outputGroup = new OutputGroup(1000, INPUT_WEIGHT_UNITS, feeRate, longTermFeeRate);
+            outputGroup.add(new BlockTransactionHashIndex(Sha256Hash.wrap(hash), 900, null, null, 0, values[i]), true);
+            pool.add(outputGroup);
+        }
+
+        return pool;
+    }
+}
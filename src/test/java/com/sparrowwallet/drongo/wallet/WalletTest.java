@@ -4,6 +4,7 @@ import com.sparrowwallet.drongo.ExtendedKey;
 import com.sparrowwallet.drongo.KeyDerivation;
 import com.sparrowwallet.drongo.KeyPurpose;
 import com.sparrowwallet.drongo.Utils;
+import com.sparrowwallet.drongo.address.Address;
 import com.sparrowwallet.drongo.crypto.Argon2KeyDeriver;
 import com.sparrowwallet.drongo.crypto.ChildNumber;
 import com.sparrowwallet.drongo.crypto.Key;
@@ -11,10 +12,30 @@ import com.sparrowwallet.drongo.crypto.KeyDeriver;
 import com.sparrowwallet.drongo.policy.Policy;
 import com.sparrowwallet.drongo.policy.PolicyType;
 import com.sparrowwallet.drongo.protocol.ScriptType;
+import com.sparrowwallet.drongo.protocol.Sha256Hash;
+import com.sparrowwallet.drongo.protocol.Transaction;
+import com.sparrowwallet.drongo.protocol.TransactionInput;
+import com.sparrowwallet.drongo.protocol.TransactionOutput;
+import com.sparrowwallet.drongo.psbt.PSBT;
+import com.sparrowwallet.drongo.psbt.PSBTInput;
+import com.sparrowwallet.drongo.psbt.PSBTParseException;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 public class WalletTest {
     @Test
@@ -229,4 +250,572 @@ public class WalletTest {
 
         Assert.assertEquals("bc1qarzeu6ncapyvjzdeayjq8vnzp6uvcn4eaeuuqq", wallet.getAddress(KeyPurpose.RECEIVE, 0).toString());
     }
+
+    @Test
+    public void copyIsolationTest() {
+        WalletNode receiveNode = new WalletNode(KeyPurpose.RECEIVE);
+        receiveNode.fillToIndex(1);
+        WalletNode addressNode = receiveNode.getChildren().iterator().next();
+        BlockTransactionHashIndex txo = new BlockTransactionHashIndex(Sha256Hash.ZERO_HASH, 100, null, null, 0, 1000L);
+        addressNode.updateTransactionOutputs(Set.of(txo));
+
+        WalletNode copy = receiveNode.copy();
+        WalletNode copyAddressNode = copy.getChildren().iterator().next();
+        Assert.assertNotSame(addressNode, copyAddressNode);
+        BlockTransactionHashIndex copyTxo = copyAddressNode.getTransactionOutputs().iterator().next();
+        Assert.assertNotSame(txo, copyTxo);
+
+        copyTxo.setLabel("copy");
+        copy.fillToIndex(5);
+        Assert.assertNull(txo.getLabel());
+        Assert.assertEquals(2, receiveNode.getChildren().size());
+        Assert.assertEquals(6, copy.getChildren().size());
+
+        receiveNode.clearHistory();
+        Assert.assertTrue(addressNode.getTransactionOutputs().isEmpty());
+        Assert.assertEquals(1, copyAddressNode.getTransactionOutputs().size());
+        Assert.assertEquals(Long.valueOf(1000L), copyAddressNode.getValue());
+    }
+
+    @Test
+    public void loadHistoryTest() throws MnemonicException {
+        Wallet wallet = createSpendingWallet(10000L, 20000L);
+        Wallet loaded = createSpendingWallet();
+
+        TreeSet<WalletNode> purposeNodes = new TreeSet<>();
+        for(WalletNode purposeNode : wallet.getPurposeNodes()) {
+            WalletNode loadedPurposeNode = new WalletNode(purposeNode.getDerivationPath());
+            TreeSet<WalletNode> children = new TreeSet<>();
+            for(WalletNode childNode : purposeNode.getChildren()) {
+                WalletNode loadedChildNode = new WalletNode(childNode.getDerivationPath());
+                TreeSet<BlockTransactionHashIndex> transactionOutputs = new TreeSet<>(childNode.getTransactionOutputs());
+                loadedChildNode.setTransactionOutputs(transactionOutputs);
+                transactionOutputs.clear();
+                children.add(loadedChildNode);
+            }
+            loadedPurposeNode.setChildren(children);
+            children.clear();
+            purposeNodes.add(loadedPurposeNode);
+        }
+        loaded.setPurposeNodes(purposeNodes);
+        purposeNodes.clear();
+
+        Map<Sha256Hash, BlockTransaction> transactions = new HashMap<>(wallet.getTransactions());
+        loaded.setTransactions(transactions);
+        transactions.clear();
+
+        Assert.assertEquals(wallet.getPurposeNodes().size(), loaded.getPurposeNodes().size());
+        Assert.assertEquals(wallet.getTransactions().keySet(), loaded.getTransactions().keySet());
+        Assert.assertEquals(2, loaded.getWalletUtxos().size());
+        Assert.assertEquals(30000L, loaded.getWalletUtxos().keySet().stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+
+        try {
+            loaded.getTransactions().putAll(wallet.getTransactions());
+            Assert.fail("Modified the transactions snapshot");
+        } catch(UnsupportedOperationException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void concurrentHistoryReadTest() throws Exception {
+        long[] values = new long[10];
+        Arrays.fill(values, 10000L);
+        Wallet wallet = createSpendingWallet(values);
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        List<WalletNode> addressNodes = new ArrayList<>(receiveNode.getChildren()).subList(0, values.length);
+        List<Set<BlockTransactionHashIndex>> outputs = new ArrayList<>();
+        for(WalletNode addressNode : addressNodes) {
+            outputs.add(addressNode.getTransactionOutputs());
+        }
+
+        try {
+            receiveNode.getChildren().clear();
+            Assert.fail("Modified the child nodes snapshot");
+        } catch(UnsupportedOperationException e) {
+            //expected
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> writer = executor.submit(() -> {
+                for(int i = 0; i < 500; i++) {
+                    receiveNode.fillToIndex(values.length + i);
+                    addressNodes.get(i % values.length).updateTransactionOutputs(outputs.get(i % values.length));
+                    wallet.updateTransactions(Map.of());
+                    if(i == 250) {
+                        wallet.getNode(KeyPurpose.CHANGE);
+                    }
+                }
+            });
+            Future<?> reader = executor.submit(() -> {
+                while(!writer.isDone()) {
+                    Assert.assertEquals(values.length, wallet.getWalletUtxos().size());
+                    Assert.assertEquals(values.length * 10000L, wallet.getWalletUtxos().keySet().stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+                    Assert.assertEquals(values.length, wallet.getWalletTxos().size());
+                }
+            });
+            writer.get();
+            reader.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(2, wallet.getPurposeNodes().size());
+    }
+
+    @Test
+    public void copyLabelsTest() throws MnemonicException {
+        Wallet wallet = createSpendingWallet(100000L, 200000L);
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        WalletNode addressNode = receiveNode.getChildren().iterator().next();
+        BlockTransactionHashIndex txo = addressNode.getTransactionOutputs().iterator().next();
+        Sha256Hash spendingTxId = Sha256Hash.twiceOf(new byte[] {1});
+        BlockTransactionHashIndex spentTxo = new BlockTransactionHashIndex(txo.getHash(), txo.getHeight(), null, null, txo.getIndex(), txo.getValue(),
+                new BlockTransactionHashIndex(spendingTxId, 950, null, null, 0, txo.getValue(), null, "spending input"), "received output");
+        addressNode.updateTransactionOutputs(Set.of(spentTxo));
+        addressNode.setLabel("address");
+        wallet.getTransactions().get(txo.getHash()).setLabel("received");
+        WalletNode pastReceiveNode = receiveNode.copy();
+
+        //Refreshed history arrives as new unlabelled objects
+        Map<Sha256Hash, BlockTransaction> updatedTransactions = new HashMap<>();
+        for(BlockTransaction blockTx : wallet.getTransactions().values()) {
+            updatedTransactions.put(blockTx.getHash(), new BlockTransaction(blockTx.getHash(), blockTx.getHeight(), blockTx.getDate(), blockTx.getFee(), blockTx.getTransaction()));
+        }
+        wallet.updateTransactions(updatedTransactions);
+        Assert.assertEquals("received", wallet.getTransactions().get(txo.getHash()).getLabel());
+
+        receiveNode.clearHistory();
+        addressNode.setLabel(null);
+        addressNode.updateTransactionOutputs(Set.of(new BlockTransactionHashIndex(txo.getHash(), txo.getHeight(), null, null, txo.getIndex(), txo.getValue(),
+                new BlockTransactionHashIndex(spendingTxId, 950, null, null, 0, txo.getValue()))));
+        BlockTransactionHashIndex updatedTxo = addressNode.getTransactionOutputs().iterator().next();
+        Assert.assertNull(updatedTxo.getLabel());
+
+        Assert.assertTrue(receiveNode.copyLabels(pastReceiveNode));
+        Assert.assertEquals("address", addressNode.getLabel());
+        Assert.assertEquals("received output", updatedTxo.getLabel());
+        Assert.assertEquals("spending input", updatedTxo.getSpentBy().getLabel());
+        Assert.assertFalse(receiveNode.copyLabels(pastReceiveNode));
+    }
+
+    @Test
+    public void createWalletTransactionTest() throws MnemonicException, InsufficientFundsException {
+        Wallet wallet = createSpendingWallet(100000L, 200000L);
+        Assert.assertEquals(271, wallet.getInputWeightUnits());
+
+        List<Payment> payments = List.of(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 5), "Payment", 150000L, false));
+        List<UtxoSelector> utxoSelectors = List.of(new LowestLargerUtxoSelector(0));
+        List<UtxoFilter> utxoFilters = List.of(new FrozenUtxoFilter());
+        WalletTransaction walletTransaction = wallet.createWalletTransaction(utxoSelectors, utxoFilters, payments, List.of(), 1.0, 1.0, null, 1000, true, false, false);
+        Assert.assertEquals(200000L, walletTransaction.getSelectedUtxos().keySet().stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+
+        //Freezing an output in place must not reuse the previously grouped UTXOs
+        walletTransaction.getSelectedUtxos().keySet().forEach(utxo -> utxo.setStatus(Status.FROZEN));
+        utxoSelectors = List.of(new LargestFirstUtxoSelector(0));
+        payments = List.of(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 5), "Payment", 50000L, false));
+        walletTransaction = wallet.createWalletTransaction(utxoSelectors, List.of(new FrozenUtxoFilter()), payments, List.of(), 1.0, 1.0, null, 1000, true, false, false);
+        Assert.assertEquals(100000L, walletTransaction.getSelectedUtxos().keySet().stream().mapToLong(BlockTransactionHashIndex::getValue).sum());
+    }
+
+    @Test
+    public void sharedOutputGroupsTest() throws MnemonicException, InsufficientFundsException {
+        Wallet wallet = createSpendingWallet(100000L, 200000L);
+        List<List<OutputGroup>> selectedFrom = new ArrayList<>();
+        List<Boolean> modifiable = new ArrayList<>();
+        UtxoSelector recordingSelector = (targetValue, candidates) -> {
+            selectedFrom.add(new ArrayList<>(candidates));
+            OutputGroup outputGroup = candidates.iterator().next();
+            try {
+                outputGroup.remove(outputGroup.getUtxos().get(0));
+                modifiable.add(true);
+            } catch(UnsupportedOperationException e) {
+                modifiable.add(false);
+            }
+            return new LargestFirstUtxoSelector(0).select(targetValue, candidates);
+        };
+
+        for(int i = 0; i < 2; i++) {
+            List<Payment> payments = List.of(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 5), "Payment", 50000L, false));
+            wallet.createWalletTransaction(List.of(recordingSelector), List.of(new FrozenUtxoFilter()), payments, List.of(), 1.0, 1.0, null, 1000, true, false, false);
+        }
+        Assert.assertEquals(List.of(false, false), modifiable);
+        Assert.assertEquals(2, selectedFrom.get(0).size());
+        for(int i = 0; i < selectedFrom.get(0).size(); i++) {
+            Assert.assertSame(selectedFrom.get(0).get(i), selectedFrom.get(1).get(i));
+            Assert.assertEquals(1, selectedFrom.get(1).get(i).getUtxos().size());
+        }
+
+        //Changing an output's status in place regroups the UTXOs
+        selectedFrom.get(0).get(0).getUtxos().get(0).setStatus(Status.FROZEN);
+        List<Payment> payments = List.of(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 5), "Payment", 50000L, false));
+        wallet.createWalletTransaction(List.of(recordingSelector), List.of(new FrozenUtxoFilter()), payments, List.of(), 1.0, 1.0, null, 1000, true, false, false);
+        Assert.assertEquals(1, selectedFrom.get(2).size());
+    }
+
+    @Test
+    public void outputGroupCacheKeyTest() throws MnemonicException, InsufficientFundsException {
+        Wallet wallet = createSpendingWallet(100000L, 200000L, 300000L);
+        Wallet otherWallet = createSpendingWallet(100000L);
+        List<List<OutputGroup>> selectedFrom = new ArrayList<>();
+        UtxoSelector recordingSelector = (targetValue, candidates) -> {
+            selectedFrom.add(new ArrayList<>(candidates));
+            return new LargestFirstUtxoSelector(0).select(targetValue, candidates);
+        };
+
+        List<BlockTransactionHashIndex> utxos = new ArrayList<>(wallet.getWalletUtxos().keySet());
+        List<BlockTransactionHashIndex> reversedUtxos = new ArrayList<>(utxos.subList(0, 2));
+        Collections.reverse(reversedUtxos);
+        List<UtxoFilter> utxoFilters = List.of(new ExcludeUtxoFilter(utxos.subList(0, 2)));
+        List<UtxoFilter> reversedFilters = List.of(new ExcludeUtxoFilter(reversedUtxos));
+        Assert.assertEquals(utxoFilters, reversedFilters);
+        Assert.assertEquals(utxoFilters.hashCode(), reversedFilters.hashCode());
+        try {
+            ((ExcludeUtxoFilter)utxoFilters.get(0)).getExcludedUtxos().clear();
+            Assert.fail("Modified the excluded UTXOs");
+        } catch(UnsupportedOperationException e) {
+            //expected
+        }
+
+        List<Payment> payments = List.of(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 5), "Payment", 50000L, false));
+        wallet.createWalletTransaction(List.of(recordingSelector), utxoFilters, payments, List.of(), 1.0, 1.0, null, 1000, true, false, false);
+
+        //Changes to another wallet do not cause the UTXOs of this wallet to be regrouped
+        otherWallet.getWalletUtxos().keySet().iterator().next().setStatus(Status.FROZEN);
+        otherWallet.getNode(KeyPurpose.RECEIVE).fillToIndex(50);
+        wallet.createWalletTransaction(List.of(recordingSelector), reversedFilters, payments, List.of(), 1.0, 1.0, null, 1000, true, false, false);
+
+        Assert.assertEquals(1, selectedFrom.get(0).size());
+        Assert.assertSame(selectedFrom.get(0).get(0), selectedFrom.get(1).get(0));
+    }
+
+    @Test
+    public void planWalletTransactionTest() throws MnemonicException, InsufficientFundsException {
+        Wallet wallet = createSpendingWallet(100000L, 200000L, 300000L);
+        List<UtxoSelector> utxoSelectors = List.of(new LargestFirstUtxoSelector(0));
+
+        for(double feeRate : new double[] {1.0, 3.5, 20.0}) {
+            List<Payment> payments = List.of(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 5), "Payment", 350000L, false));
+            WalletTransactionPlan plan = wallet.planWalletTransaction(utxoSelectors, List.of(), payments, List.of(), feeRate, 1.0, null, 1000, true, false, false, null);
+            Assert.assertNotNull(plan.getChangeNode());
+
+            WalletTransaction walletTransaction = wallet.createWalletTransaction(plan);
+            Assert.assertEquals(walletTransaction.getTransaction().getWeightUnits(), plan.getWeightUnits());
+            Assert.assertEquals(plan.getTotalSelectedAmount() - 350000L - plan.getChangeAmount(), walletTransaction.getFee());
+            Assert.assertTrue(plan.getFeeRate() >= feeRate);
+        }
+    }
+
+    @Test
+    public void planWalletTransactionsTest() throws MnemonicException, InsufficientFundsException {
+        Wallet wallet = createSpendingWallet(100000L, 200000L, 300000L);
+        List<UtxoSelector> utxoSelectors = List.of(new MaxUtxoSelector());
+        List<Double> feeRates = List.of(1.0, 5.0, 25.0, 5000.0);
+
+        Payment maxPayment = new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 5), "Payment", 0L, true);
+        Map<Double, WalletTransactionPlan> plans = wallet.planWalletTransactions(feeRate -> utxoSelectors, List.of(), List.of(maxPayment), List.of(), feeRates, 1.0, 1000, true, false, false);
+        Assert.assertEquals(List.of(1.0, 5.0, 25.0), List.copyOf(plans.keySet()));
+        Assert.assertEquals(0L, maxPayment.getAmount());
+
+        for(Map.Entry<Double, WalletTransactionPlan> entry : plans.entrySet()) {
+            List<Payment> payments = List.of(new Payment(maxPayment.getAddress(), "Payment", 0L, true));
+            WalletTransactionPlan plan = wallet.planWalletTransaction(utxoSelectors, List.of(), payments, List.of(), entry.getKey(), 1.0, null, 1000, true, false, false, null);
+            Assert.assertEquals(plan.getFee(), entry.getValue().getFee());
+            Assert.assertEquals(plan.getWeightUnits(), entry.getValue().getWeightUnits());
+            Assert.assertEquals(payments.get(0).getAmount(), entry.getValue().getPayments().get(0).getAmount());
+        }
+    }
+
+    @Test
+    public void planWalletTransactionsRandomisedTest() throws MnemonicException {
+        Random random = new Random(38);
+        for(int round = 0; round < 8; round++) {
+            long[] values = new long[1 + random.nextInt(10)];
+            long totalValue = 0;
+            for(int i = 0; i < values.length; i++) {
+                values[i] = 1000L + random.nextInt(500000);
+                totalValue += values[i];
+            }
+            Wallet wallet = createSpendingWallet(values);
+
+            boolean sendMax = random.nextInt(4) == 0;
+            int numPayments = 1 + random.nextInt(3);
+            List<Payment> payments = new ArrayList<>();
+            for(int i = 0; i < numPayments; i++) {
+                boolean maxPayment = sendMax && i == 0;
+                long amount = maxPayment ? 0L : 546L + random.nextInt((int)(totalValue / (numPayments + 1)));
+                payments.add(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 100 + i), "Payment " + i, amount, maxPayment));
+            }
+
+            List<UtxoSelector> utxoSelectors = List.of(sendMax ? new MaxUtxoSelector() : new LargestFirstUtxoSelector(0));
+            List<Double> feeRates = List.of(1.0, 1.0 + random.nextInt(20) + random.nextDouble(), 20.0 + random.nextInt(200) + random.nextDouble());
+            Map<Double, WalletTransactionPlan> plans = wallet.planWalletTransactions(feeRate -> utxoSelectors, List.of(), payments, List.of(), feeRates, 1.0, 1000, true, false, false);
+
+            for(Double feeRate : feeRates) {
+                List<Payment> feeRatePayments = payments.stream().map(payment -> new Payment(payment.getAddress(), payment.getLabel(), payment.getAmount(), payment.isSendMax())).collect(Collectors.toList());
+                WalletTransactionPlan plan;
+                try {
+                    plan = wallet.planWalletTransaction(utxoSelectors, List.of(), feeRatePayments, List.of(), feeRate, 1.0, null, 1000, true, false, false, null);
+                } catch(InsufficientFundsException e) {
+                    Assert.assertFalse(plans.containsKey(feeRate));
+                    continue;
+                }
+
+                WalletTransactionPlan sweepPlan = plans.get(feeRate);
+                Assert.assertNotNull(sweepPlan);
+                Assert.assertEquals(plan.getSelectedUtxos().keySet(), sweepPlan.getSelectedUtxos().keySet());
+                Assert.assertEquals(plan.getFee(), sweepPlan.getFee());
+                Assert.assertEquals(plan.getWeightUnits(), sweepPlan.getWeightUnits());
+                Assert.assertEquals(plan.getChangeAmount(), sweepPlan.getChangeAmount());
+
+                WalletTransaction walletTransaction = wallet.createWalletTransaction(sweepPlan);
+                Transaction transaction = walletTransaction.getTransaction();
+                Assert.assertEquals(transaction.getWeightUnits(), sweepPlan.getWeightUnits());
+                long outputValue = transaction.getOutputs().stream().mapToLong(TransactionOutput::getValue).sum();
+                Assert.assertEquals(sweepPlan.getTotalSelectedAmount() - outputValue, walletTransaction.getFee());
+                Assert.assertTrue(walletTransaction.getFee() >= (long)Math.floor(transaction.getVirtualSize() * feeRate));
+            }
+        }
+    }
+
+    @Test
+    public void maxSpendableTest() throws MnemonicException, InsufficientFundsException {
+        Wallet wallet = createSpendingWallet(100000L, 200000L, 500L);
+        List<Address> addresses = List.of(wallet.getAddress(KeyPurpose.RECEIVE, 5));
+
+        //The smallest UTXO costs more to spend than it is worth at the higher fee rate
+        double[] feeRates = new double[] {5.0, 20.0};
+        int[] inputs = new int[] {3, 2};
+        for(int i = 0; i < feeRates.length; i++) {
+            long maxSpendable = wallet.getMaxSpendable(addresses, feeRates[i]);
+            List<Payment> payments = List.of(new Payment(addresses.get(0), "Payment", 0L, true));
+            WalletTransaction walletTransaction = wallet.createWalletTransaction(List.of(new MaxUtxoSelector()), List.of(), payments, List.of(), feeRates[i], 1.0, null, 1000, true, false, false);
+            Assert.assertEquals(maxSpendable, payments.get(0).getAmount());
+            Assert.assertEquals(inputs[i], walletTransaction.getTransaction().getInputs().size());
+            Assert.assertEquals((long)Math.floor(walletTransaction.getTransaction().getVirtualSize() * feeRates[i]), walletTransaction.getFee());
+        }
+    }
+
+    @Test
+    public void createBatchWalletTransactionsTest() throws MnemonicException, InsufficientFundsException {
+        long[] values = new long[20];
+        Arrays.fill(values, 100000L);
+        Wallet wallet = createSpendingWallet(values);
+
+        List<Payment> payments = new ArrayList<>();
+        for(int i = 0; i < 30; i++) {
+            payments.add(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 100 + i), "Payout " + i, 40000L, false));
+        }
+
+        List<WalletTransaction> walletTransactions = wallet.createBatchWalletTransactions(List.of(new LargestFirstUtxoSelector(0)), List.of(), payments, 2.0, 1.0, 1000, 2000, true, false, false);
+        Assert.assertTrue(walletTransactions.size() > 1);
+
+        Set<BlockTransactionHashIndex> spent = new HashSet<>();
+        Set<WalletNode> changeNodes = new HashSet<>();
+        int paid = 0;
+        for(WalletTransaction walletTransaction : walletTransactions) {
+            Assert.assertTrue(walletTransaction.getTransaction().getWeightUnits() <= 2000);
+            for(BlockTransactionHashIndex utxo : walletTransaction.getSelectedUtxos().keySet()) {
+                Assert.assertTrue(spent.add(utxo));
+            }
+            if(walletTransaction.getChangeNode() != null) {
+                Assert.assertTrue(changeNodes.add(walletTransaction.getChangeNode()));
+            }
+            paid += walletTransaction.getPayments().size();
+        }
+        Assert.assertEquals(payments.size(), paid);
+
+        //Later batches are planned against only the value left by earlier batches
+        List<Payment> excessPayments = new ArrayList<>();
+        for(int i = 0; i < 52; i++) {
+            excessPayments.add(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 100 + i), "Payout " + i, 40000L, false));
+        }
+        try {
+            wallet.createBatchWalletTransactions(List.of(new LargestFirstUtxoSelector(0)), List.of(), excessPayments, 2.0, 1.0, 1000, 2000, true, false, false);
+            Assert.fail("Planned payments exceeding the wallet value");
+        } catch(InsufficientFundsException e) {
+            Assert.assertTrue(e.getMessage().contains("all available UTXOs"));
+        }
+    }
+
+    @Test
+    public void createBatchWalletTransactionsMultipleInputsTest() throws MnemonicException, InsufficientFundsException {
+        long[] values = new long[40];
+        Arrays.fill(values, 30000L);
+        Wallet wallet = createSpendingWallet(values);
+
+        //Each payment is larger than any UTXO, so the batch weight is dominated by the inputs
+        List<Payment> payments = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            payments.add(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 100 + i), "Payout " + i, 50000L, false));
+        }
+
+        List<WalletTransaction> walletTransactions = wallet.createBatchWalletTransactions(List.of(new LargestFirstUtxoSelector(0)), List.of(), payments, 2.0, 1.0, 1000, 2000, true, false, false);
+        Assert.assertTrue(walletTransactions.size() < payments.size());
+
+        int paid = 0;
+        for(WalletTransaction walletTransaction : walletTransactions) {
+            Assert.assertTrue(walletTransaction.getTransaction().getWeightUnits() <= 2000);
+            Assert.assertTrue(walletTransaction.getSelectedUtxos().size() > walletTransaction.getPayments().size());
+            paid += walletTransaction.getPayments().size();
+        }
+        Assert.assertEquals(payments.size(), paid);
+    }
+
+    @Test
+    public void walletPSBTVersion2Test() throws MnemonicException, InsufficientFundsException, PSBTParseException {
+        Wallet wallet = createSpendingWallet(100000L, 200000L);
+        List<Payment> payments = List.of(new Payment(wallet.getAddress(KeyPurpose.RECEIVE, 5), "Payment", 150000L, false));
+        WalletTransaction walletTransaction = wallet.createWalletTransaction(List.of(new LargestFirstUtxoSelector(0)), List.of(), payments, List.of(), 2.0, 1.0, null, 1000, true, false, false);
+
+        PSBT psbt = new PSBT(walletTransaction, 2, true);
+        Assert.assertEquals(Long.valueOf(1000L), psbt.getFallbackLocktime());
+        Assert.assertEquals(Integer.valueOf(PSBT.TX_MODIFIABLE_INPUTS | PSBT.TX_MODIFIABLE_OUTPUTS), psbt.getTxModifiable());
+
+        //The test parent transactions have no inputs, and so cannot be parsed back from a non witness UTXO
+        for(PSBTInput psbtInput : psbt.getPsbtInputs()) {
+            psbtInput.setNonWitnessUtxo(null);
+        }
+
+        PSBT parsed = new PSBT(psbt.serialize());
+        Assert.assertEquals(1000L, parsed.getTransaction().getLocktime());
+        Assert.assertEquals(psbt.getTransaction().getTxId(), parsed.getTransaction().getTxId());
+
+        parsed.addInput(Sha256Hash.twiceOf(new byte[32]), 0, TransactionInput.SEQUENCE_RBF_ENABLED);
+        Assert.assertEquals(1000L, parsed.getTransaction().getLocktime());
+    }
+
+    @Test
+    public void planConsolidationTest() throws MnemonicException {
+        long[] values = new long[12];
+        Arrays.fill(values, 20000L);
+        values[0] = 100L;
+        Wallet wallet = createSpendingWallet(values);
+
+        Assert.assertTrue(wallet.planConsolidation(List.of(), 10.0, 10.0, 1000, Transaction.MAX_STANDARD_TX_WEIGHT, true).isEmpty());
+
+        List<WalletTransactionPlan> plans = wallet.planConsolidation(List.of(), 2.0, 10.0, 1000, 2000, true);
+        Assert.assertEquals(2, plans.size());
+        Assert.assertNotEquals(plans.get(0).getPayments().get(0).getAddress(), plans.get(1).getPayments().get(0).getAddress());
+
+        List<PSBT> psbts = wallet.createPSBTs(plans);
+        Set<BlockTransactionHashIndex> spent = new HashSet<>();
+        for(int i = 0; i < plans.size(); i++) {
+            WalletTransactionPlan plan = plans.get(i);
+            Assert.assertTrue(plan.getWeightUnits() <= 2000);
+            Assert.assertEquals(plan.getSelectedUtxos().size(), psbts.get(i).getPsbtInputs().size());
+            Assert.assertEquals(plan.getTotalSelectedAmount() - plan.getFee(), plan.getPayments().get(0).getAmount());
+            for(BlockTransactionHashIndex utxo : plan.getSelectedUtxos().keySet()) {
+                Assert.assertTrue(utxo.getValue() > 100L);
+                Assert.assertTrue(spent.add(utxo));
+            }
+        }
+    }
+
+    @Test
+    public void createManyPSBTsTest() throws MnemonicException {
+        long[] values = new long[60];
+        Arrays.fill(values, 20000L);
+        Wallet wallet = createSpendingWallet(values);
+
+        List<WalletTransactionPlan> plans = wallet.planConsolidation(List.of(), 2.0, 10.0, 1000, 1200, true);
+        Assert.assertTrue(plans.size() > 10);
+
+        List<PSBT> psbts = wallet.createPSBTs(plans);
+        Assert.assertEquals(plans.size(), psbts.size());
+        for(int i = 0; i < plans.size(); i++) {
+            PSBT psbt = psbts.get(i);
+            Assert.assertEquals(plans.get(i).getSelectedUtxos().size(), psbt.getPsbtInputs().size());
+            for(PSBTInput psbtInput : psbt.getPsbtInputs()) {
+                Assert.assertEquals(1, psbtInput.getDerivedPublicKeys().size());
+            }
+            Assert.assertArrayEquals(wallet.createWalletTransaction(plans.get(i)).createPSBT().serialize(), psbt.serialize());
+        }
+    }
+
+    @Test
+    public void signingEngineTest() throws MnemonicException {
+        long[] values = new long[8];
+        Arrays.fill(values, 20000L);
+        Wallet wallet = createSpendingWallet(values);
+
+        List<WalletTransactionPlan> plans = wallet.planConsolidation(List.of(), 2.0, 10.0, 1000, Transaction.MAX_STANDARD_TX_WEIGHT, true);
+        Assert.assertEquals(1, plans.size());
+        PSBT sequential = wallet.createPSBTs(plans).get(0);
+        PSBT parallel = wallet.createPSBTs(plans).get(0);
+        wallet.sign(sequential);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<InputSigningResult> results = new PSBTSigningEngine(executor).sign(wallet, parallel);
+            Assert.assertEquals(parallel.getPsbtInputs().size(), results.size());
+            for(int i = 0; i < results.size(); i++) {
+                InputSigningResult result = results.get(i);
+                Assert.assertSame(parallel.getPsbtInputs().get(i), result.getPsbtInput());
+                Assert.assertNull(result.getError());
+                Assert.assertTrue(result.isSigned());
+                Assert.assertEquals(wallet.getKeystores(), result.getSigningKeystores());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertArrayEquals(sequential.serialize(), parallel.serialize());
+    }
+
+    @Test
+    public void signOpensSessionWhenRequiredTest() throws MnemonicException {
+        Wallet wallet = createSpendingWallet(20000L, 20000L);
+        List<WalletTransactionPlan> plans = wallet.planConsolidation(List.of(), 2.0, 10.0, 1000, Transaction.MAX_STANDARD_TX_WEIGHT, true);
+        PSBT signed = wallet.createPSBTs(plans).get(0);
+        PSBT unsigned = wallet.createPSBTs(plans).get(0);
+        wallet.sign(signed);
+        byte[] signedBytes = signed.serialize();
+
+        //A session cannot be opened for an encrypted keystore, so signing only succeeds if no session is opened
+        wallet.encrypt(new Argon2KeyDeriver().deriveKey("pass"));
+        wallet.sign(signed);
+        Assert.assertArrayEquals(signedBytes, signed.serialize());
+
+        wallet.sign(new PSBT(new Transaction()));
+
+        try {
+            wallet.sign(unsigned);
+            Assert.fail("Signed with an encrypted keystore");
+        } catch(IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    static Wallet createSpendingWallet(long... values) throws MnemonicException {
+        String words = "absent essay fox snake vast pumpkin height crouch silent bulb excuse razor";
+        DeterministicSeed seed = new DeterministicSeed(words, "pp", 0, DeterministicSeed.Type.BIP39);
+        Wallet wallet = new Wallet();
+        wallet.setPolicyType(PolicyType.SINGLE);
+        wallet.setScriptType(ScriptType.P2WPKH);
+        Keystore keystore = Keystore.fromSeed(seed, wallet.getScriptType().getDefaultDerivation());
+        wallet.getKeystores().add(keystore);
+        wallet.setDefaultPolicy(Policy.getPolicy(PolicyType.SINGLE, ScriptType.P2WPKH, wallet.getKeystores(), 1));
+        wallet.setStoredBlockHeight(1000);
+
+        WalletNode receiveNode = wallet.getNode(KeyPurpose.RECEIVE);
+        receiveNode.fillToIndex(values.length);
+        Map<Sha256Hash, BlockTransaction> transactions = new HashMap<>();
+        int i = 0;
+        for(WalletNode addressNode : receiveNode.getChildren()) {
+            if(i < values.length) {
+                Transaction transaction = new Transaction();
+                transaction.setLocktime(i);
+                transaction.addOutput(values[i], wallet.getAddress(addressNode));
+                Sha256Hash txId = transaction.getTxId();
+                transactions.put(txId, new BlockTransaction(txId, 900, null, null, transaction));
+                addressNode.updateTransactionOutputs(Set.of(new BlockTransactionHashIndex(txId, 900, null, null, 0, values[i])));
+            }
+            i++;
+        }
+        wallet.updateTransactions(transactions);
+
+        return wallet;
+    }
 }